@@ -0,0 +1,102 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class GameEngineTest {
+
+	private static final String TAG = "GameEngineTest";
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	@Test
+	public void testEnginesRunConcurrently() {
+		TestGames.start(mActivityRule, "solo", "3x3dd");
+		final GamePlay activity = mActivityRule.getActivity();
+		final GameEngine other = new GameEngine();
+		try {
+			final long[] otherSteps = new long[1];
+			final boolean[] started = new boolean[1];
+			// Start generating on a second frontend while holding the first one's lock
+			synchronized (activity.engine.nativeLock) {
+				final Thread t = new Thread(() -> {
+					synchronized (other.nativeLock) {
+						activity.startPlayingParams(other.handle, null, "solo", "3x3dd");
+						started[0] = true;
+					}
+				});
+				t.start();
+				try {
+					t.join(TestGames.START_TIMEOUT_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				otherSteps[0] = GamePlay.getGenerationSteps(other.handle);
+			}
+			Log.i(TAG, "second frontend started a game while the first was locked: " + started[0]);
+			assertTrue("expected a second frontend not to need the first one's lock", started[0]);
+			assertEquals(0, otherSteps[0]);
+			assertEquals("solo", BackendRegistry.BACKENDS[GamePlay.identifyBackend(activity.saveToString())]);
+		} finally {
+			other.quit();
+		}
+	}
+
+	@Test
+	public void testKeysDoNotBlockUiThread() {
+		TestGames.start(mActivityRule, "solo", "3x3dd");
+		final GamePlay activity = mActivityRule.getActivity();
+		final int keys = 20;
+		final long[] nanos = new long[1];
+		getInstrumentation().runOnMainSync(() -> {
+			final long start = System.nanoTime();
+			for (int i = 0; i < keys; i++) {
+				activity.sendKey(0, 0, (i % 2 == 0) ? GameView.CURSOR_RIGHT : GameView.CURSOR_DOWN);
+			}
+			nanos[0] = System.nanoTime() - start;
+		});
+		TestGames.waitForFrame(mActivityRule);
+		final GameEngine.Latency latency = activity.engine.getLatency(GameEngine.Command.KEY);
+		Log.i(TAG, keys + " Solo keys took " + (nanos[0] / 1000) + "us on the UI thread; engine: " + latency);
+		assertEquals(keys, latency.count);
+		assertEquals(0, activity.engine.getQueueDepth());
+	}
+
+	@Test
+	public void testQuitRunsQueuedSavesAndKeys() {
+		final GameEngine engine = new GameEngine();
+		final List<GameEngine.Command> ran = Collections.synchronizedList(new ArrayList<>());
+		engine.post(GameEngine.Command.KEY, () -> SystemClock.sleep(200));  // busy while the rest queue
+		for (GameEngine.Command command : new GameEngine.Command[] {
+				GameEngine.Command.KEY, GameEngine.Command.TIMER, GameEngine.Command.RESIZE, GameEngine.Command.SAVE}) {
+			engine.post(command, () -> ran.add(command));
+		}
+		engine.quit();
+		final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+		while (engine.handle != 0) {
+			assertTrue("Timed out quitting", SystemClock.uptimeMillis() < deadline);
+			SystemClock.sleep(10);
+		}
+		assertEquals("expected queued keys and saves to run, and ticks and resizes to be dropped",
+				Arrays.asList(GameEngine.Command.KEY, GameEngine.Command.SAVE), ran);
+	}
+}
@@ -0,0 +1,42 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertTrue;
+
+/** GamePool in the running app: see GamePoolTest for the rest. */
+@RunWith(AndroidJUnit4.class)
+public class GamePoolDeviceTest {
+
+	private static final String TAG = "GamePoolDeviceTest";
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	@Test
+	public void testNewGameComesFromPool() {
+		TestGames.start(mActivityRule, "solo", "3x3dd");
+		final GamePlay activity = mActivityRule.getActivity();
+		final GamePool pool = activity.gamePool;
+		pool.waitForIdle();  // let it refill after that start
+		final int hitsBefore = pool.getHits();
+		getInstrumentation().runOnMainSync(activity::startNewGame);
+		final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+		while (pool.getHits() == hitsBefore) {
+			assertTrue("Timed out starting a new game", SystemClock.uptimeMillis() < deadline);
+			SystemClock.sleep(10);
+		}
+		Log.i(TAG, "Solo 3x3dd game pool: " + pool);
+		assertTrue("expected background generation to have been timed", pool.getAverageRefillNanos() > 0);
+	}
+}
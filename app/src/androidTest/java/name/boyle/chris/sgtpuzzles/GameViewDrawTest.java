@@ -0,0 +1,182 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class GameViewDrawTest {
+
+	private static final String TAG = "GameViewDrawTest";
+	private static final int REDRAWS = 10;
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	private GameView startGame(final String backend, final String params) {
+		return TestGames.start(mActivityRule, backend, params);
+	}
+
+	/** Starts another game in the running activity, as a new sgtpuzzles: link would. */
+	private void switchGame(final String backend, final String params) {
+		final GamePlay activity = mActivityRule.getActivity();
+		final GameView gameView = activity.findViewById(R.id.game);
+		final Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("sgtpuzzles:" + backend + ":" + params));
+		final int primitivesBefore = gameView.lastFramePrimitives;
+		getInstrumentation().runOnMainSync(() -> getInstrumentation().callActivityOnNewIntent(activity, intent));
+		final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+		while (gameView.lastFramePrimitives == primitivesBefore) {
+			assertTrue("Timed out starting " + backend + " " + params, SystemClock.uptimeMillis() < deadline);
+			SystemClock.sleep(100);
+		}
+	}
+
+	private void redraw() {
+		final GamePlay activity = mActivityRule.getActivity();
+		getInstrumentation().runOnMainSync(activity::gameViewResized);
+		waitForFrame();
+	}
+
+	private void waitForFrame() {
+		TestGames.waitForFrame(mActivityRule);
+	}
+
+	/** Counts UI thread allocations while redrawing (which is now spread over several
+	 *  messages: the resize request, then the replay of the frame). */
+	@SuppressWarnings("deprecation")  // thread alloc counting is deprecated but still works
+	private int countRedrawAllocations() {
+		final int[] allocations = new int[1];
+		getInstrumentation().runOnMainSync(() -> {
+			Debug.resetThreadAllocCount();
+			Debug.startAllocCounting();
+			mActivityRule.getActivity().gameViewResized();
+		});
+		waitForFrame();
+		getInstrumentation().runOnMainSync(() -> {
+			Debug.stopAllocCounting();
+			allocations[0] = Debug.getThreadAllocCount();
+		});
+		return allocations[0];
+	}
+
+	@Test
+	public void testLargeBoardUpcallsPerFrame() {
+		final GameView gameView = startGame("mines", "30x16n99");
+		long primitives = 0, upcalls = 0, nanos = 0;
+		for (int i = 0; i < REDRAWS; i++) {
+			final long start = System.nanoTime();
+			redraw();
+			nanos += System.nanoTime() - start;
+			primitives += gameView.lastFramePrimitives;
+			upcalls += gameView.lastFrameUpcalls;
+		}
+		Log.i(TAG, "full redraw of 30x16 Mines: " + (primitives / REDRAWS) + " upcalls/frame unbatched, "
+				+ (upcalls / REDRAWS) + " batched, " + (nanos / REDRAWS / 1000) + "us/frame");
+		assertTrue("expected batching to cut upcalls by an order of magnitude",
+				upcalls * 10 <= primitives);
+	}
+
+	@Test
+	public void testPolygonsDoNotAllocate() {
+		final GameView gameView = startGame("net", "5x5w");
+		redraw();  // warm up: grow buffers etc.
+		final int smallAllocations = countRedrawAllocations();
+		final int smallPolygons = gameView.lastFramePolygons;
+		switchGame("net", "15x15w");
+		redraw();
+		final int largeAllocations = countRedrawAllocations();
+		final int largePolygons = gameView.lastFramePolygons;
+		Log.i(TAG, "full redraw of Net: 5x5 " + smallPolygons + " polygons, " + smallAllocations
+				+ " allocations; 15x15 " + largePolygons + " polygons, " + largeAllocations + " allocations");
+		assertTrue("expected 15x15 Net to draw many more polygons than 5x5", largePolygons > smallPolygons * 4);
+		assertEquals("expected no per-polygon allocations", smallAllocations, largeAllocations);
+	}
+
+	@Test
+	public void testSingleMoveInvalidatesSmallRegion() {
+		final GameView gameView = startGame("mines", "30x16n99");
+		final GamePlay activity = mActivityRule.getActivity();
+		getInstrumentation().runOnMainSync(() -> activity.sendKey(0, 0, GameView.CURSOR_RIGHT));
+		waitForFrame();
+		final int dirtyArea = gameView.lastFrameDirty.width() * gameView.lastFrameDirty.height();
+		final int fullArea = gameView.getWidth() * gameView.getHeight();
+		Log.i(TAG, "moving the Mines cursor dirtied " + gameView.lastFrameDirty + " of " + fullArea + " pixels");
+		assertTrue("expected a cursor move to redraw a few cells", dirtyArea * 20 < fullArea);
+	}
+
+	@Test
+	public void testRepeatedTextDoesNotAllocate() {
+		final GameView gameView = startGame("keen", "4");
+		redraw();  // warm up: intern strings, fill the atlas
+		final int smallAllocations = countRedrawAllocations();
+		final int smallPrimitives = gameView.lastFramePrimitives;
+		switchGame("keen", "9");
+		redraw();
+		final int largeAllocations = countRedrawAllocations();
+		final int largePrimitives = gameView.lastFramePrimitives;
+		Log.i(TAG, "full redraw of Keen: 4x4 " + smallAllocations + " allocations; 9x9 "
+				+ largeAllocations + " allocations");
+		assertTrue("expected 9x9 Keen to draw many more cells than 4x4", largePrimitives > smallPrimitives * 3);
+		assertEquals("expected clue text to come from the cache", smallAllocations, largeAllocations);
+	}
+
+	@Test
+	public void testDisplayListRendersAtAnyScale() {
+		final GameView gameView = startGame("net", "15x15w");
+		redraw();
+		final GameEngine.Latency before = mActivityRule.getActivity().engine.getLatency(GameEngine.Command.RESIZE);
+		final Bitmap[] rendered = new Bitmap[1];
+		final long[] nanos = new long[1];
+		getInstrumentation().runOnMainSync(() -> {
+			final long start = System.nanoTime();
+			rendered[0] = gameView.renderAt(4.f);
+			nanos[0] = System.nanoTime() - start;
+		});
+		waitForFrame();
+		Log.i(TAG, "re-rasterized 15x15 Net at 4x in " + (nanos[0] / 1000) + "us");
+		assertNotNull("expected a complete display list after a full redraw", rendered[0]);
+		assertEquals(gameView.wDip * 4, rendered[0].getWidth());
+		assertEquals("expected no calls into the midend", before.count,
+				mActivityRule.getActivity().engine.getLatency(GameEngine.Command.RESIZE).count);
+		rendered[0].recycle();
+	}
+
+	@Test
+	public void testBlittersAreReused() {
+		// Inertia keeps a blitter for the ball, freed and allocated again by every resize
+		final GameView gameView = startGame("inertia", "10x8");
+		for (int i = 0; i < REDRAWS; i++) redraw();
+		final BlitterArena blitters = gameView.getBlitters();
+		Log.i(TAG, "blitters after " + REDRAWS + " Inertia redraws: " + blitters);
+		assertTrue("expected a live blitter", blitters.getLiveBytes() > 0);
+		assertTrue("expected freed blitters to be reused", blitters.getHitRate() > 0.5f);
+	}
+
+	@Test
+	public void testHugeBoardStaysWithinTileBudget() {
+		final GameView gameView = startGame("pattern", "60x60");
+		redraw();
+		waitForFrame();  // and let the prefetching finish
+		Log.i(TAG, "60x60 Pattern: " + (gameView.getTileBytes() / 1024) + "KB of tiles, budget "
+				+ (gameView.getTileBudget() / 1024) + "KB");
+		assertTrue("expected tiles in view", gameView.getTileBytes() > 0);
+		assertTrue("expected prefetching to respect the budget",
+				gameView.getTileBytes() <= gameView.getTileBudget());
+	}
+}
@@ -0,0 +1,62 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class GenerationCancelTest {
+
+	private static final String TAG = "GenerationCancelTest";
+
+	@Test
+	public void testCancelStopsGeneration() throws InterruptedException {
+		// Solo's generator draws random numbers throughout. Those that spend long spells in a
+		// solver drawing none (e.g. Keen) are only stopped promptly by killing the generator
+		// process: see GeneratorClientTest.
+		assertCancelStops("solo", "5x5de");
+	}
+
+	/** Generates in this process, as when the generator process isn't available, and cancels
+	 *  that once it's well under way. */
+	private static void assertCancelStops(final String backend, final String params) throws InterruptedException {
+		final long handle = GamePlay.newFrontend();
+		try {
+			final Object[] result = new Object[1];
+			final Thread t = new Thread(() -> {
+				try {
+					result[0] = GamePlay.generateSave(handle, backend, params);
+				} catch (CancellationException e) {
+					result[0] = e;
+				}
+			});
+			t.start();
+			final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+			while (GamePlay.getGenerationSteps(handle) == 0) {
+				assertTrue("Timed out waiting for generation to start", SystemClock.uptimeMillis() < deadline);
+				SystemClock.sleep(10);
+			}
+			SystemClock.sleep(200);
+			final long start = System.nanoTime();
+			GamePlay.setGenerationCancelled(handle, true);
+			t.join(TestGames.START_TIMEOUT_MS);
+			final long waitedMs = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, backend + " " + params + " generation stopped " + waitedMs + "ms after cancelling");
+			assertTrue("expected " + backend + " " + params + " to be cancelled, got " + result[0],
+					result[0] instanceof CancellationException);
+			assertTrue("expected cancelling " + backend + " " + params + " to stop it within a second", waitedMs < 1000);
+			assertEquals(0, GamePlay.getGenerationSteps(handle));
+		} finally {
+			GamePlay.freeFrontend(handle);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CancellationException;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class GeneratorClientTest {
+
+	private static final String TAG = "GeneratorClientTest";
+
+	@Test
+	public void testGeneratorProcessCanBeKilled() throws InterruptedException {
+		final GeneratorClient client = new GeneratorClient(getInstrumentation().getTargetContext());
+		client.bind();
+		try {
+			final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+			String save;
+			while ((save = client.generate("solo", "3x3dd")) == null) {
+				assertTrue("Timed out connecting to the generator", SystemClock.uptimeMillis() < deadline);
+				SystemClock.sleep(100);
+			}
+			assertTrue("expected a Solo save, got " + save, save.startsWith("SAVEFILE"));
+			assertTrue("expected the save to keep the seed", save.contains("\nSEED"));
+			assertTrue("expected the save to keep the aux info for Solve", save.contains("\nAUXINFO"));
+			final Throwable[] thrown = new Throwable[1];
+			final Thread t = new Thread(() -> {
+				try {
+					client.generate("solo", "5x5de");
+				} catch (Throwable e) {
+					thrown[0] = e;
+				}
+			});
+			t.start();
+			SystemClock.sleep(500);  // well into generating that
+			final long start = System.nanoTime();
+			client.cancel();
+			t.join(TestGames.START_TIMEOUT_MS);
+			final long waitedMs = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, "generator process killed " + waitedMs + "ms after cancelling 5x5 extreme Solo");
+			assertTrue("expected cancelling to kill the generator", thrown[0] instanceof CancellationException);
+			assertTrue("expected cancelling to be immediate", waitedMs < 1000);
+		} finally {
+			client.unbind();
+		}
+	}
+
+	@Test
+	public void testCancelBeforeGeneratingIsKept() {
+		final GeneratorClient client = new GeneratorClient(getInstrumentation().getTargetContext());
+		client.bind();
+		try {
+			final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+			while (client.generate("solo", "3x3dd") == null) {
+				assertTrue("Timed out connecting to the generator", SystemClock.uptimeMillis() < deadline);
+				SystemClock.sleep(100);
+			}
+			// Connected and idle, as when Cancel is pressed just before the worker asks
+			client.cancel();
+			try {
+				client.generate("solo", "5x5de");
+				fail("expected a cancel before generating to stop it");
+			} catch (CancellationException expected) {
+				// good
+			}
+			client.resetCancel();
+			assertNotNull(client.generate("solo", "3x3dd"));
+		} finally {
+			client.unbind();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/** MoveJournal in the running app: see MoveJournalTest for the rest. */
+@RunWith(AndroidJUnit4.class)
+public class JournalReplayTest {
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	@Test
+	public void testJournalRestoresMovesAfterAKill() {
+		TestGames.start(mActivityRule, "net", "5x5w");
+		final GamePlay activity = mActivityRule.getActivity();
+		final SaveStore store = SaveStore.getInstance(activity);
+		TestGames.waitForFrame(mActivityRule);
+		store.waitForIdle();  // the save taken on starting
+		final int moves = 10;  // fewer than MoveJournal.COMPACT_EVERY, so nothing saves them
+		getInstrumentation().runOnMainSync(() -> {
+			for (int i = 0; i < moves; i++) activity.sendKey(0, 0, (i % 3 == 0) ? GameView.CURSOR_RIGHT : 'a');
+		});
+		activity.engine.waitForIdle();
+		final String expected = activity.saveToString();
+		final String lastSave = store.get("net");
+		assertNotNull(lastSave);
+		assertFalse("expected the moves to be only in the journal", expected.equals(lastSave));
+		// As on starting after a kill: load the last save, which lacks the moves
+		getInstrumentation().runOnMainSync(() -> activity.startGame(GameLaunch.ofLocalState("net", lastSave, false)));
+		final long deadline = SystemClock.uptimeMillis() + TestGames.START_TIMEOUT_MS;
+		String reloaded;
+		do {
+			SystemClock.sleep(100);
+			activity.engine.waitForIdle();
+			reloaded = activity.saveToString();
+		} while (!expected.equals(reloaded) && SystemClock.uptimeMillis() < deadline);
+		assertEquals("expected the journal to restore every move", expected, reloaded);
+		activity.engine.waitForIdle();  // the save after replaying
+		store.waitForIdle();
+		assertTrue("expected a save after replaying to compact the journal", store.readJournal("net").isEmpty());
+	}
+}
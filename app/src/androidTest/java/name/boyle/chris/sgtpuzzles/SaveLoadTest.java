@@ -0,0 +1,73 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SaveLoadTest {
+
+	private static final String TAG = "SaveLoadTest";
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	@Test
+	public void testSaveWithLongUndoChain() {
+		TestGames.start(mActivityRule, "net", "15x15w");
+		final GamePlay activity = mActivityRule.getActivity();
+		final int moves = 500;
+		getInstrumentation().runOnMainSync(() -> {
+			for (int i = 0; i < moves; i++) activity.sendKey(0, 0, 'a');
+		});
+		TestGames.waitForFrame(mActivityRule);
+		activity.engine.waitForIdle();
+		final long start = System.nanoTime();
+		final String save = activity.saveToString();
+		final long nanos = System.nanoTime() - start;
+		Log.i(TAG, "saving " + moves + " moves (" + save.length() + " chars) took " + (nanos / 1000) + "us");
+		assertTrue("expected a whole save", save.startsWith("SAVEFILE") && save.endsWith("\n"));
+		assertTrue("expected every move saved", save.split("MOVE ").length > moves);
+		assertEquals("net", BackendRegistry.BACKENDS[GamePlay.identifyBackend(save)]);
+	}
+
+	@Test
+	public void testLoadStreamsLargeSaves() throws IOException {
+		TestGames.start(mActivityRule, "net", "15x15w");
+		final GamePlay activity = mActivityRule.getActivity();
+		getInstrumentation().runOnMainSync(() -> {
+			for (int i = 0; i < 2000; i++) activity.sendKey(0, 0, 'a');
+		});
+		activity.engine.waitForIdle();
+		final String save = activity.saveToString();
+		assertTrue("expected a save bigger than the native read buffer", save.length() > 16384);
+		final byte[] compressed = SaveFormat.encode(save, true);
+		assertEquals("net", BackendRegistry.BACKENDS[GamePlay.identifyBackendStream(
+				SaveFormat.open(new ByteArrayInputStream(compressed)))]);
+		final GameEngine other = new GameEngine();
+		try {
+			synchronized (other.nativeLock) {
+				final long start = System.nanoTime();
+				final int loaded = activity.startPlayingSavedStream(other.handle, null, SaveFormat.open(new ByteArrayInputStream(compressed)));
+				assertEquals("expected loading to say which backend it found", "net", BackendRegistry.BACKENDS[loaded]);
+				Log.i(TAG, "streamed a " + save.length() + "-char save in " + ((System.nanoTime() - start) / 1000) + "us");
+				assertEquals(save, new String(activity.serialise(other.handle)));
+			}
+		} finally {
+			other.quit();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getArguments;
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times generating with one seed against racing several, for a few presets with long tails.
+ * It takes minutes and the numbers are too noisy to pass or fail on, so it only logs them, and
+ * only runs when asked for:
+ *
+ *     ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ */
+@RunWith(AndroidJUnit4.class)
+public class SeedRaceBenchmark {
+
+	private static final String TAG = "SeedRaceBenchmark";
+	private static final int GENERATIONS = 100;
+
+	private static long[] timeGenerations(final String backend, final String params, final int runners) {
+		final long[] nanos = new long[GENERATIONS];
+		for (int i = 0; i < GENERATIONS; i++) {
+			// Each race starts on idle cores, rather than alongside the last one's losers
+			while (SeedRace.getRunning() > 0) SystemClock.sleep(10);
+			final long start = System.nanoTime();
+			assertNotNull(new SeedRace(backend, params, runners).run());
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos;
+	}
+
+	private static long percentile(final long[] sorted, final int p) {
+		return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+	}
+
+	private static String percentiles(final long[] sorted) {
+		return (percentile(sorted, 50) / 1000000) + "/" + (percentile(sorted, 95) / 1000000) + "/"
+				+ (percentile(sorted, 99) / 1000000) + "ms";
+	}
+
+	@Test
+	public void timeSeedRacing() {
+		assumeTrue("benchmarks only run with -e benchmark true", "true".equals(getArguments().getString("benchmark")));
+		final int runners = SeedRace.chooseRunners(getInstrumentation().getTargetContext());
+		assumeTrue("no cores to spare for racing", runners > 1);
+		final String[][] presets = {{"solo", "3x3de"}, {"keen", "6dx"}, {"pattern", "15x15"}};
+		for (String[] preset : presets) {
+			final long[] single = timeGenerations(preset[0], preset[1], 1);
+			final long[] raced = timeGenerations(preset[0], preset[1], runners);
+			Log.i(TAG, preset[0] + " " + preset[1] + " generation p50/p95/p99 of " + GENERATIONS + ": 1 seed "
+					+ percentiles(single) + ", " + runners + " seeds " + percentiles(raced));
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.ActivityTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/** Telemetry in the running app: see TelemetryTest for the rest. */
+@RunWith(AndroidJUnit4.class)
+public class StartupTelemetryTest {
+
+	private static final String TAG = "StartupTelemetryTest";
+
+	@Rule
+	public ActivityTestRule<GamePlay> mActivityRule =
+			new ActivityTestRule<>(GamePlay.class, false, false);
+
+	@Test
+	public void testStartupIsTimed() {
+		TestGames.start(mActivityRule, "solo", "3x3dd");
+		TestGames.waitForFrame(mActivityRule);
+		final String timings = Telemetry.getInstance(mActivityRule.getActivity()).toString();
+		Log.i(TAG, "start-up timings:\n" + timings);
+		assertTrue("expected Solo's load or generation to be recorded", timings.contains("solo"));
+		assertTrue("expected the first frame to be recorded", timings.contains("first_frame"));
+	}
+}
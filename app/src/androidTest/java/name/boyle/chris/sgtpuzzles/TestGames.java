@@ -0,0 +1,37 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.test.rule.ActivityTestRule;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertTrue;
+
+/** Starting games in GamePlay for the device tests, and waiting for them to draw. */
+final class TestGames {
+
+	static final long START_TIMEOUT_MS = 30000;
+
+	private TestGames() {}
+
+	/** Launches the activity on a sgtpuzzles: link, and waits for the game's first frame. */
+	static GameView start(final ActivityTestRule<GamePlay> rule, final String backend, final String params) {
+		final Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("sgtpuzzles:" + backend + ":" + params));
+		final GamePlay activity = rule.launchActivity(intent);
+		final GameView gameView = activity.findViewById(R.id.game);
+		final long deadline = SystemClock.uptimeMillis() + START_TIMEOUT_MS;
+		while (gameView.lastFramePrimitives == 0) {
+			assertTrue("Timed out starting " + backend, SystemClock.uptimeMillis() < deadline);
+			SystemClock.sleep(100);
+		}
+		return gameView;
+	}
+
+	/** Lets the engine finish what it's been sent, then the UI thread replay the result. */
+	static void waitForFrame(final ActivityTestRule<GamePlay> rule) {
+		rule.getActivity().engine.waitForIdle();
+		getInstrumentation().waitForIdleSync();
+	}
+}
@@ -0,0 +1,126 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The bitmaps behind the handles android.c gives out for blitters. Games like Inertia and
+ * Sixteen allocate and free blitters of the same few sizes over and over while animating, so
+ * freed bitmaps (each with the Canvas that draws into it) are kept on a free list per pixel size
+ * and handed out again rather than recycled.
+ *
+ * Handles are dense but unbounded; the slot array grows to fit.
+ */
+class BlitterArena {
+
+	/** Freed bitmaps past this many bytes are recycled rather than kept for reuse. */
+	private static final long MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+	static class Slot {
+		final Bitmap bitmap;
+		/** Draws into bitmap, with no matrix or clip. */
+		final Canvas canvas;
+		private Slot next;
+
+		private Slot(final Bitmap bitmap) {
+			this.bitmap = bitmap;
+			this.canvas = new Canvas(bitmap);
+		}
+	}
+
+	private Slot[] slots = new Slot[64];
+	/** Heads of the free lists, keyed by pixel width << 32 | pixel height. */
+	private final LongSparseArray<Slot> pool = new LongSparseArray<>();
+	private final Bitmap.Config config;
+	private int hits = 0, misses = 0;
+	private long liveBytes = 0, pooledBytes = 0;
+
+	BlitterArena(final Bitmap.Config config) {
+		this.config = config;
+	}
+
+	/** Gives handle i a bitmap of w x h game units at the given scale, reusing a freed one of
+	 *  the same pixel size if there is one. Its contents are undefined until the first save. */
+	void alloc(final int i, final int w, final int h, final float scale) {
+		free(i);
+		if (i >= slots.length) {
+			final Slot[] bigger = new Slot[Math.max(i + 1, 2 * slots.length)];
+			System.arraycopy(slots, 0, bigger, 0, slots.length);
+			slots = bigger;
+		}
+		final int pw = Math.max(1, Math.round(scale * w)), ph = Math.max(1, Math.round(scale * h));
+		final long key = ((long) pw << 32) | ph;
+		Slot slot = pool.get(key);
+		if (slot != null) {
+			hits++;
+			pool.put(key, slot.next);
+			slot.next = null;
+			pooledBytes -= slot.bitmap.getByteCount();
+		} else {
+			misses++;
+			slot = new Slot(Bitmap.createBitmap(pw, ph, config));
+		}
+		slots[i] = slot;
+		liveBytes += slot.bitmap.getByteCount();
+	}
+
+	void free(final int i) {
+		if (i >= slots.length || slots[i] == null) return;
+		final Slot slot = slots[i];
+		slots[i] = null;
+		final int bytes = slot.bitmap.getByteCount();
+		liveBytes -= bytes;
+		if (pooledBytes + bytes > MAX_POOLED_BYTES) {
+			slot.bitmap.recycle();
+			return;
+		}
+		final long key = ((long) slot.bitmap.getWidth() << 32) | slot.bitmap.getHeight();
+		slot.next = pool.get(key);
+		pool.put(key, slot);
+		pooledBytes += bytes;
+	}
+
+	/** The slot for handle i, or null if it isn't allocated. */
+	Slot get(final int i) {
+		return (i < slots.length) ? slots[i] : null;
+	}
+
+	/** Recycles the bitmaps on the free lists. */
+	void trim() {
+		for (int k = 0; k < pool.size(); k++) {
+			for (Slot s = pool.valueAt(k); s != null; s = s.next) s.bitmap.recycle();
+		}
+		pool.clear();
+		pooledBytes = 0;
+	}
+
+	/** Frees and recycles everything. */
+	void release() {
+		for (int i = 0; i < slots.length; i++) free(i);
+		trim();
+	}
+
+	/** Bytes of bitmap in use by allocated blitters, and kept for reuse. */
+	long getLiveBytes() {
+		return liveBytes;
+	}
+
+	long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	/** Fraction of allocations that reused a freed bitmap. */
+	float getHitRate() {
+		return (hits + misses == 0) ? 0.f : (float) hits / (hits + misses);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return (liveBytes / 1024) + "KB live, " + (pooledBytes / 1024) + "KB pooled, "
+				+ hits + "/" + (hits + misses) + " allocations reused";
+	}
+}
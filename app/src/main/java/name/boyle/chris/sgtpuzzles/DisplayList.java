@@ -0,0 +1,122 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Every draw command since the midend last redrew from scratch, in android.c's encoding. The
+ * midend only ever draws what changed, so this (not just the last frame) is what it takes to
+ * reproduce the picture: replaying it through a {@link GameRenderer} at another scale gives the
+ * same picture at that resolution, without asking the midend for anything.
+ *
+ * Only used from one thread at a time; take a {@link #copy()} to hand it to another.
+ */
+class DisplayList {
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+	/** Past this, a long game of small moves has made replaying slower than asking the midend
+	 *  for a fresh redraw, and it isn't worth the memory either. */
+	private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+	private ByteBuffer data = allocate(INITIAL_CAPACITY);
+	private boolean valid = false;
+	/** Changes whenever the list starts again, so that a snapshot can tell whether the list
+	 *  has only been appended to since. */
+	private int generation = 0;
+
+	private static ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/** Starts again from a full redraw. */
+	void reset() {
+		data.clear();
+		valid = true;
+		generation++;
+	}
+
+	/** Forget everything until the next full redraw. */
+	void invalidate() {
+		data.clear();
+		valid = false;
+		generation++;
+	}
+
+	/** Whether this holds everything since a full redraw, so that it can be replayed. */
+	boolean isValid() {
+		return valid;
+	}
+
+	int size() {
+		return data.position();
+	}
+
+	int getGeneration() {
+		return generation;
+	}
+
+	/** Records the commands in b from offset to its limit. */
+	void append(final ByteBuffer b, final int offset) {
+		if (!valid) return;
+		final int length = b.limit() - offset;
+		if (data.position() + length > MAX_SIZE) {
+			invalidate();
+			return;
+		}
+		if (data.remaining() < length) {
+			final ByteBuffer bigger = allocate(Math.min(MAX_SIZE, Math.max(data.position() + length, 2 * data.capacity())));
+			data.flip();
+			bigger.put(data);
+			data = bigger;
+		}
+		final ByteBuffer src = b.duplicate();
+		src.position(offset);
+		data.put(src);
+	}
+
+	/** The commands recorded from offset onwards, for replay. */
+	ByteBuffer read(final int offset) {
+		final ByteBuffer b = data.duplicate().order(ByteOrder.nativeOrder());
+		b.flip();
+		b.position(offset);
+		return b;
+	}
+
+	/** Replays the whole list; the renderer's bitmap should already be cleared. */
+	void replay(final GameRenderer renderer) {
+		renderer.replay(read(0), null);
+	}
+
+	DisplayList copy() {
+		final DisplayList copy = new DisplayList();
+		copy.data = allocate(Math.max(INITIAL_CAPACITY, data.position()));
+		copy.data.put(read(0));
+		copy.valid = valid;
+		return copy;
+	}
+
+	/** Rasterizes the picture at any resolution, e.g. for a thumbnail or a high-resolution
+	 *  share, without touching the midend or the screen.
+	 *  @param scale bitmap pixels per game unit
+	 *  @param wDip width of the game area in game units, as passed to resizeEvent
+	 *  @param hDip likewise height
+	 *  @return a new bitmap, or null if this list isn't valid */
+	Bitmap rasterize(final float scale, final int wDip, final int hDip,
+			final int[] colours, final int background) {
+		if (!valid) return null;
+		final Bitmap bitmap = Bitmap.createBitmap(Math.max(1, Math.round(wDip * scale)),
+				Math.max(1, Math.round(hDip * scale)), GameRenderer.BITMAP_CONFIG);
+		final Matrix m = new Matrix();
+		m.setScale(scale, scale);
+		final GameRenderer renderer = new GameRenderer(bitmap, m);
+		renderer.setColours(colours);
+		renderer.setSize(wDip, hDip);
+		renderer.clear(background);
+		replay(renderer);
+		renderer.release();
+		return bitmap;
+	}
+}
@@ -19,7 +19,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.text.MessageFormat;
@@ -52,7 +52,7 @@ class FilePicker extends Dialog
 		raf.readFully(b);
 		raf.close();
 		Intent i = new Intent(getContext(), GamePlay.class);
-		String savedGame = new String(b);
+		String savedGame = SaveFormat.decode(b);
 		if (savedGame.length() == 0) {
 			throw new IOException("File is empty");
 		}
@@ -83,19 +83,21 @@ class FilePicker extends Dialog
 			b.show();
 			return;
 		}
-		try {
-			// FIXME return a result and move this into GamePlay
-			String s = ((GamePlay)activity).saveToString();
-			FileWriter w = new FileWriter(f);
-			w.write(s,0,s.length());
-			w.close();
-			Toast.makeText(getContext(), MessageFormat.format(
-					getContext().getString(R.string.file_saved), f.getPath()),
-					Toast.LENGTH_LONG).show();
-			dismissAll();
-		} catch (Exception e) {
-			Toast.makeText(getContext(), e.toString(), Toast.LENGTH_LONG).show();
-		}
+		// FIXME return a result and move this into GamePlay
+		((GamePlay)activity).saveToFile(b -> {
+			try {
+				if (b == null) throw new IOException("No game to save");
+				FileOutputStream out = new FileOutputStream(f);
+				out.write(b);
+				out.close();
+				Toast.makeText(getContext(), MessageFormat.format(
+						getContext().getString(R.string.file_saved), f.getPath()),
+						Toast.LENGTH_LONG).show();
+				dismissAll();
+			} catch (Exception e) {
+				Toast.makeText(getContext(), e.toString(), Toast.LENGTH_LONG).show();
+			}
+		});
 	}
 
 	static void createAndShow(@NonNull final AppCompatActivity activity, @NonNull final File path, final boolean isSave) {
@@ -130,7 +132,7 @@ class FilePicker extends Dialog
 				return;
 			}
 			try {
-				if (f.length() > GamePlay.MAX_SAVE_SIZE) {
+				if (f.length() > SaveFormat.MAX_EXPANDED_SIZE) {  // too big even if plain; decode checks compressed ones
 					Toast.makeText(getContext(), R.string.file_too_big, Toast.LENGTH_LONG).show();
 					return;
 				}
@@ -0,0 +1,196 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread that owns the midend. Everything that makes the puzzle think (input, timer ticks,
+ * resizes, solve, restart) is posted here as a command, so the UI thread never waits for a
+ * heavy move; the drawing it produces comes back to GameView as complete frames. So are the
+ * UI's questions (e.g. for a save), whose answers come back by {@link #query}: the UI thread
+ * never takes {@link #nativeLock}, which a game being generated may hold for a long time.
+ *
+ * Each engine owns a native frontend, {@link #handle}, which holds its midend and everything
+ * else the native side knows about the game, so engines don't share any state and can run at
+ * once. A frontend is not reentrant, so anything else that calls into it with this handle
+ * (loading a game on a worker thread, a test) must hold {@link #nativeLock}, and must check
+ * that the handle isn't 0, which it becomes once {@link #quit} has freed it.
+ */
+class GameEngine {
+
+	private static final String TAG = "GameEngine";
+	/** Commands that take longer than this (queueing included) are logged. */
+	private static final long SLOW_COMMAND_NANOS = 100 * 1000 * 1000;
+
+	enum Command { KEY, TIMER, RESIZE, SOLVE, RESTART, CONFIG, SAVE, REPLAY }
+
+	interface Query<T> {
+		T run();
+	}
+
+	interface Callback<T> {
+		void onResult(T result);
+	}
+
+	/** Per-command counters, for finding out where the time goes. */
+	static class Latency {
+		int count;
+		long totalQueuedNanos, totalRunNanos, maxNanos;
+
+		@NonNull
+		@Override
+		public String toString() {
+			if (count == 0) return "none";
+			return count + " runs, avg " + (totalQueuedNanos / count / 1000) + "us queued + "
+					+ (totalRunNanos / count / 1000) + "us running, max " + (maxNanos / 1000) + "us";
+		}
+	}
+
+	/** The native frontend that every instance native of GamePlay/GameView is given, or 0 once
+	 *  freed; only changes with both locks held. */
+	volatile long handle = GamePlay.newFrontend();
+	/** Held by whoever is calling into the native side with {@link #handle}. */
+	final Object nativeLock = new Object();
+	/** Held, only briefly, by the calls that needn't wait for {@link #nativeLock} (cancelling a
+	 *  generation and watching its progress), so that freeing can't happen under them. */
+	private final Object freeLock = new Object();
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicBoolean timerPending = new AtomicBoolean();
+	/** Set by {@link #quit}, after which queued commands only run if {@link #runsAfterQuit}. */
+	private volatile boolean quitting = false;
+	private final Latency[] latencies = new Latency[Command.values().length];
+
+	GameEngine() {
+		thread = new HandlerThread("puzzleEngine", Process.THREAD_PRIORITY_DISPLAY);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+		for (int i = 0; i < latencies.length; i++) latencies[i] = new Latency();
+	}
+
+	void post(final Command command, final Runnable r) {
+		final long queued = System.nanoTime();
+		queueDepth.incrementAndGet();
+		handler.post(() -> {
+			queueDepth.decrementAndGet();
+			if (quitting && !runsAfterQuit(command)) return;
+			final long started = System.nanoTime();
+			synchronized (nativeLock) {
+				if (handle == 0) return;  // quit() got there first
+				r.run();
+			}
+			record(command, started - queued, System.nanoTime() - started);
+		});
+	}
+
+	/** Commands still queued when the engine quits run if they change the game or save it,
+	 *  so that none is lost; timer ticks and resizes (which only redraw) are dropped. */
+	private static boolean runsAfterQuit(final Command command) {
+		return command != Command.TIMER && command != Command.RESIZE;
+	}
+
+	/** Runs query like any other command, then hands what it returned to callback on the UI
+	 *  thread; the callback never comes if the engine quits first. */
+	<T> void query(final Command command, final Query<T> query, final Callback<T> callback) {
+		post(command, () -> {
+			final T result = query.run();
+			uiHandler.post(() -> {
+				if (!quitting) callback.onResult(result);
+			});
+		});
+	}
+
+	/** Timer ticks are coalesced: if the engine is too busy to keep up, it gets one tick (with
+	 *  the total elapsed time) rather than a backlog of them. */
+	void postTimerTick(final Runnable r) {
+		if (!timerPending.compareAndSet(false, true)) return;
+		post(Command.TIMER, () -> {
+			timerPending.set(false);
+			r.run();
+		});
+	}
+
+	/** How many commands are waiting, not counting the one running. */
+	int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/** A snapshot of the counters for one command type. */
+	Latency getLatency(final Command command) {
+		final Latency l = latencies[command.ordinal()], copy = new Latency();
+		synchronized (l) {
+			copy.count = l.count;
+			copy.totalQueuedNanos = l.totalQueuedNanos;
+			copy.totalRunNanos = l.totalRunNanos;
+			copy.maxNanos = l.maxNanos;
+		}
+		return copy;
+	}
+
+	/** Blocks until everything posted so far has run. For tests. */
+	void waitForIdle() {
+		final CountDownLatch latch = new CountDownLatch(1);
+		handler.post(latch::countDown);
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** See GamePlay.setGenerationCancelled; doesn't wait for the generation's lock. */
+	void setGenerationCancelled(final boolean cancelled) {
+		synchronized (freeLock) {
+			if (handle != 0) GamePlay.setGenerationCancelled(handle, cancelled);
+		}
+	}
+
+	/** See GamePlay.getGenerationSteps; doesn't wait for the generation's lock. */
+	long getGenerationSteps() {
+		synchronized (freeLock) {
+			return (handle != 0) ? GamePlay.getGenerationSteps(handle) : 0;
+		}
+	}
+
+	/** Frees the native frontend after whatever is running (which had better be cancelled
+	 *  first if it's generating) and whatever is queued, less what {@link #runsAfterQuit} drops.
+	 *  Anyone holding {@link #nativeLock} afterwards finds {@link #handle} is 0. */
+	void quit() {
+		quitting = true;
+		handler.post(() -> {
+			synchronized (nativeLock) {
+				synchronized (freeLock) {
+					final long freeing = handle;
+					handle = 0;
+					GamePlay.freeFrontend(freeing);
+				}
+			}
+			thread.quit();
+		});
+	}
+
+	private void record(final Command command, final long queuedNanos, final long runNanos) {
+		final Latency l = latencies[command.ordinal()];
+		synchronized (l) {
+			l.count++;
+			l.totalQueuedNanos += queuedNanos;
+			l.totalRunNanos += runNanos;
+			l.maxNanos = Math.max(l.maxNanos, queuedNanos + runNanos);
+		}
+		if (queuedNanos + runNanos > SLOW_COMMAND_NANOS) {
+			Log.d(TAG, command + " took " + ((queuedNanos + runNanos) / 1000000) + "ms with "
+					+ getQueueDepth() + " queued behind it");
+		}
+	}
+}
@@ -16,7 +16,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
@@ -34,7 +33,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.Parcelable;
-import android.provider.OpenableColumns;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.util.Log;
 import android.view.Gravity;
@@ -57,6 +56,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.AppCompatCheckBox;
@@ -69,9 +69,11 @@ import androidx.core.app.ShareCompat;
 import androidx.core.content.FileProvider;
 import androidx.preference.PreferenceManager;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -84,6 +86,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -102,6 +105,8 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private static final String UNEQUAL_SHOW_H_KEY = "unequalShowH";
 	private static final String FULLSCREEN_KEY = "fullscreen";
 	private static final String STAY_AWAKE_KEY = "stayAwake";
+	private static final String GENERATOR_PROCESS_KEY = "generatorProcess";
+	private static final String COMPRESS_SAVES_KEY = "compressSaves";
 	private static final String UNDO_REDO_KBD_KEY = "undoRedoOnKeyboard";
 	private static final boolean UNDO_REDO_KBD_DEFAULT = true;
 	static final String MOUSE_LONG_PRESS_KEY = "extMouseLongPress";
@@ -113,7 +118,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private static final String OLD_SAVED_GAME = "savedGame";
 	public static final String SAVED_BACKEND = "savedBackend";
 	private static final String SAVED_COMPLETED_PREFIX = "savedCompleted_";
-	static final String SAVED_GAME_PREFIX = "savedGame_";
+	private static final String SAVED_GAME_PREFIX = "savedGame_";
 	public static final String LAST_PARAMS_PREFIX = "last_params_";
 	private static final String SWAP_L_R_PREFIX = "swap_l_r_";
 	private static final String BLUETOOTH_PACKAGE_PREFIX = "com.android.bluetooth";
@@ -123,6 +128,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	static final String MIME_TYPE = "text/prs.sgtatham.puzzles";
 	private static final String STORAGE_PERMISSION_EVER_ASKED = "storage_permission_ever_asked";
 	private static final String LIGHTUP_383_NEED_MIGRATE = "lightup_383_need_migrate";
+	private static final String SAVE_FILES_MIGRATED = "saveFilesMigrated";
 	private static final String LIGHTUP_383_PARAMS_ROT4 = "^(\\d+(?:x\\d+)?(?:b\\d+)?)s4(.*)$";
 	private static final String LIGHTUP_383_REPLACE_ROT4 = "$1s3$2";
 	private static final String UNDO_NEW_GAME_SEEN = "undoNewGameSeen";
@@ -130,7 +136,8 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private static final String NIGHT_MODE_KEY = "nightMode";
 
 	private AlertDialog progress;
-	private CountDownTimer progressResetRevealer;
+	/** While generating: shows how far it's got, and after a while the reset button. */
+	private CountDownTimer progressUpdater;
 	private TextView statusBar;
 	private SmallKeyboard keyboard;
 	private RelativeLayout mainLayout;
@@ -138,17 +145,21 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private Map<Integer, String> gameTypesById;
 	private MenuEntry[] gameTypesMenu = new MenuEntry[]{};
 	private int currentType = 0;
-	private boolean workerRunning = false;
+	private volatile boolean workerRunning = false;
+	/** Generating the game being started, if it's being raced rather than left to the engine. */
+	private volatile SeedRace seedRace = null;
 	private boolean solveEnabled = false, customVisible = false,
 			undoEnabled = false, redoEnabled = false,
 			undoIsLoadGame = false, redoIsLoadGame = false;
 	private String undoToGame = null, redoToGame = null;
 	private SharedPreferences prefs, state;
 	private static final int CFG_SETTINGS = 0, CFG_SEED = 1, CFG_DESC = 2;
-	static final long MAX_SAVE_SIZE = 1000000; // 1MB; we only have 16MB of heap
-	private boolean gameWantsTimer = false;
+	/** As much of a save as identifyBackendStream reads (android.c's STREAM_BUF_SIZE). */
+	private static final int SAVE_HEADER_LIMIT = 16384;
+	private volatile boolean gameWantsTimer = false;  // set from the engine thread
 	private static final int TIMER_INTERVAL = 20;
-	private StringBuffer savingState = null;
+	private static final long PROGRESS_UPDATE_INTERVAL = 500;
+	private static final long RESET_BUTTON_DELAY = 3000;
 	private AlertDialog dialog;
 	private AlertDialog.Builder dialogBuilder;
 	private int dialogEvent;
@@ -158,7 +169,6 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private String startingBackend = null;
 	private String lastKeys = "";
 	private static final File storageDir = Environment.getExternalStorageDirectory();
-	private String[] games;
 	private Menu menu;
 	private String maybeUndoRedo = "" + ((char)UI_UNDO) + ((char)UI_REDO);
 	private boolean startedFullscreen = false, cachedFullscreen = false;
@@ -190,10 +200,26 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		}
 	}
 	final Handler handler = new PuzzlesHandler(this);
+	final GameEngine engine = new GameEngine();
+	GamePool gamePool;
+	private SaveStore saveStore;
+	/** Moves since the last save, for the game the frontend holds; used with engine.nativeLock
+	 *  held. */
+	private MoveJournal journal = null;
+	/** Counts games loaded into the frontend, with engine.nativeLock held, so that a save
+	 *  posted for one game can tell if another has been loaded since. */
+	private int gameSerial = 0;
+	/** The gameSerial, params and help topic of the game being played, from its StartedGame. */
+	private int playingSerial = -1;
+	private String playingParams = null, helpTopic = null;
+	GeneratorClient generatorClient;
+	private Telemetry telemetry;
+	/** When the game being started was asked for, for timing up to its first frame. */
+	private long launchNanos;
 
 	private void handleMessage(Message msg) {
 		if (MsgType.values()[msg.what] == MsgType.TIMER) {
-			if (progress == null) timerTick();
+			if (progress == null) engine.postTimerTick(() -> timerTick(engine.handle));
 			if (gameWantsTimer) {
 				handler.sendMessageDelayed(
 						handler.obtainMessage(MsgType.TIMER.ordinal()),
@@ -213,10 +239,10 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		alertDialogBuilder.setNegativeButton(getString(android.R.string.cancel), (dialog, which) -> abort(null, returnToChooser));
 		if (launch.needsGenerating()) {
 			final String backend = launch.getWhichBackend();
-			final String label = getString(R.string.reset_this_backend, getString(getResources().getIdentifier("name_" + backend, "string", getPackageName())));
+			final String label = getString(R.string.reset_this_backend, getString(BackendRegistry.get(BackendRegistry.NAME, backend)));
 			alertDialogBuilder.setNeutralButton(label, (dialog, which) -> {
 				final SharedPreferences.Editor editor = state.edit();
-				editor.remove(SAVED_GAME_PREFIX + backend);
+				saveStore.remove(backend);
 				editor.remove(SAVED_COMPLETED_PREFIX + backend);
 				editor.remove(LAST_PARAMS_PREFIX + backend);
 				editor.apply();
@@ -224,28 +250,46 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 				abort(null, true);
 			});
 		}
+		if (launch.needsGenerating()) {
+			alertDialogBuilder.setMessage(getString(R.string.generating_progress, 0, 0));
+		}
 		progress = alertDialogBuilder.create();
 		progress.setView(new ProgressBar(this));
 		progress.show();
 		if (launch.needsGenerating()) {
 			progress.getButton(DialogInterface.BUTTON_NEUTRAL).setVisibility(View.GONE);
-			progressResetRevealer = new CountDownTimer(3000, 3000) {
+			final long started = SystemClock.uptimeMillis();
+			progressUpdater = new CountDownTimer(Long.MAX_VALUE, PROGRESS_UPDATE_INTERVAL) {
 				public void onTick(long millisUntilFinished) {
+					final long elapsed = SystemClock.uptimeMillis() - started;
+					final long steps = getStartingSteps();
+					final long eta = telemetry.estimate(launch.getWhichBackend(), launch.getParams(),
+							Telemetry.Phase.GENERATE, elapsed);
+					progress.setMessage((eta < 0)
+							? getString(R.string.generating_progress, elapsed / 1000, steps / 1000)
+							: getString(R.string.generating_progress_eta, elapsed / 1000, (eta + 999) / 1000, steps / 1000));
+					if (elapsed >= RESET_BUTTON_DELAY) {
+						progress.getButton(DialogInterface.BUTTON_NEUTRAL).setVisibility(View.VISIBLE);
+					}
 				}
 
 				public void onFinish() {
-					progress.getButton(DialogInterface.BUTTON_NEUTRAL).setVisibility(View.VISIBLE);
 				}
 			}.start();
 		}
 	}
 
+	private long getStartingSteps() {
+		final SeedRace race = seedRace;
+		return (race != null) ? race.getSteps() : engine.getGenerationSteps();
+	}
+
 	private void dismissProgress()
 	{
 		if (progress == null) return;
-		if (progressResetRevealer != null) {
-			progressResetRevealer.cancel();
-			progressResetRevealer = null;
+		if (progressUpdater != null) {
+			progressUpdater.cancel();
+			progressUpdater = null;
 		}
 		try {
 			progress.dismiss();
@@ -253,34 +297,76 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		progress = null;
 	}
 
+	/** The current game, or null if there isn't one. This waits for the engine's lock, so it's
+	 *  not for the UI thread, which has {@link #saveToFile}. */
 	String saveToString()
 	{
 		if (currentBackend == null || progress != null) return null;
-		savingState = new StringBuffer();
-		serialise();  // serialiseWrite() callbacks will happen in here
-		String s = savingState.toString();
-		savingState = null;
-		return s;
+		synchronized (engine.nativeLock) {
+			return serialiseLocked();
+		}
+	}
+
+	/** Like saveToString, with the engine's lock already held. */
+	private String serialiseLocked()
+	{
+		if (engine.handle == 0) return null;
+		final byte[] saved = serialise(engine.handle);
+		return (saved == null) ? null : new String(saved);
+	}
+
+	/** Hands the UI thread the current game as a file to share or export: compressed if the
+	 *  user asked for that, or null if there's no game to save. */
+	void saveToFile(@NonNull final GameEngine.Callback<byte[]> callback)
+	{
+		if (currentBackend == null || progress != null) {
+			callback.onResult(null);
+			return;
+		}
+		final boolean compress = prefs.getBoolean(COMPRESS_SAVES_KEY, false);
+		engine.query(GameEngine.Command.SAVE, () -> {
+			final String s = serialiseLocked();
+			try {
+				return (s == null) ? null : SaveFormat.encode(s, compress);
+			} catch (IOException e) {
+				Log.e(TAG, "Couldn't encode save: " + e.getMessage());
+				return null;
+			}
+		}, callback);
 	}
 
 	@SuppressLint("CommitPrefEdits")
 	private void save()
 	{
-		String s = saveToString();
-		if (s == null || s.length() == 0) return;
-		SharedPreferences.Editor ed = state.edit();
-		ed.remove("engineName");
-		ed.putString(SAVED_BACKEND, currentBackend);
-		ed.putString(SAVED_GAME_PREFIX + currentBackend, s);
-		ed.putBoolean(SAVED_COMPLETED_PREFIX + currentBackend, everCompleted);
-		ed.putString(LAST_PARAMS_PREFIX + currentBackend, getCurrentParams());
-		ed.apply();
+		if (currentBackend == null || progress != null) return;
+		final String backend = currentBackend;
+		final boolean completed = everCompleted;
+		final int serial = playingSerial;
+		engine.post(GameEngine.Command.SAVE, () -> {
+			if (serial != gameSerial) return;  // too late: another game has been loaded
+			final String s = serialiseLocked();
+			if (s == null || s.length() == 0) return;
+			// on this thread, so that no move falls between the save and the journal
+			final int journalled = (journal != null) ? journal.rotate() : -1;
+			saveStore.put(backend, s, journalled);
+			SharedPreferences.Editor ed = state.edit();
+			ed.remove("engineName");
+			ed.putString(SAVED_BACKEND, backend);
+			ed.putBoolean(SAVED_COMPLETED_PREFIX + backend, completed);
+			ed.putString(LAST_PARAMS_PREFIX + backend, getCurrentParams(engine.handle));
+			ed.apply();
+		});
 	}
 
 	void gameViewResized()
 	{
-		if (progress == null && gameView.w > 10 && gameView.h > 10)
-			resizeEvent(gameView.wDip, gameView.hDip);
+		if (progress == null && gameView.w > 10 && gameView.h > 10) {
+			final int w = gameView.wDip, h = gameView.hDip;
+			engine.post(GameEngine.Command.RESIZE, () -> {
+				resizeEvent(engine.handle, w, h);
+				journal(MoveJournal.Type.RESIZE, w, h, 0);
+			});
+		}
 	}
 
 	@Override
@@ -289,7 +375,11 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 		prefs.registerOnSharedPreferenceChangeListener(this);
 		state = getSharedPreferences(STATE_PREFS_NAME, MODE_PRIVATE);
-		games = getResources().getStringArray(R.array.games);
+		gamePool = GamePool.getInstance(this);
+		saveStore = SaveStore.getInstance(this);
+		generatorClient = new GeneratorClient(this);
+		telemetry = Telemetry.getInstance(this);
+		applyGeneratorProcess();
 		gameTypesById = new LinkedHashMap<>();
 		gameTypesMenu = new MenuEntry[]{};
 
@@ -383,6 +473,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		super.onNewIntent(intent);
 		if (progress != null) dismissProgress();
 		migrateToPerPuzzleSave();
+		migrateToSaveFiles();
 		migrateLightUp383Start();
 		String backendFromChooser = null;
 		// Don't regenerate on resurrecting a URL-bound activity from the recent list
@@ -406,16 +497,12 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 						}
 						return;
 					}
-					if (games.length < 2) games = getResources().getStringArray(R.array.games);
-					for (String game : games) {
-						if (game.equals(g)) {
-							if (game.equals(currentBackend) && !everCompleted) {
-								// already alive & playing incomplete game of that kind; keep it.
-								return;
-							}
-							backendFromChooser = game;
-							break;
+					if (BackendRegistry.indexOf(g) >= 0) {
+						if (g.equals(currentBackend) && !everCompleted) {
+							// already alive & playing incomplete game of that kind; keep it.
+							return;
 						}
+						backendFromChooser = g;
 					}
 				}
 				if (backendFromChooser == null) {
@@ -443,7 +530,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		}
 
 		if (backendFromChooser != null) {
-			final String savedGame = state.getString(SAVED_GAME_PREFIX + backendFromChooser, null);
+			final String savedGame = saveStore.get(backendFromChooser);
 			// We have a saved game, and if it's completed the user probably wants a fresh one.
 			// Theoretically we could silently load it and ask midend_status() but remembering is
 			// still faster and some people play large games.
@@ -458,7 +545,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		} else {
 			final String savedBackend = state.getString(SAVED_BACKEND, null);
 			if (savedBackend != null) {
-				final String savedGame = state.getString(SAVED_GAME_PREFIX + savedBackend, null);
+				final String savedGame = saveStore.get(savedBackend);
 				if (savedGame == null) {
 					Log.e(TAG, "missing state for " + savedBackend);
 					startGame(GameLaunch.toGenerateFromChooser(savedBackend));
@@ -536,32 +623,33 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		if (rawMessages.length == 0) return false;
 		NdefMessage msg = (NdefMessage) rawMessages[0];
 		if (msg.getRecords().length == 0) return false;
-		startGame(GameLaunch.ofSavedGame(new String(msg.getRecords()[0].getPayload())));
+		try {
+			startGame(GameLaunch.ofSavedGame(SaveFormat.decode(msg.getRecords()[0].getPayload())));
+		} catch (IOException e) {
+			messageBox(getString(R.string.Error), e.getMessage(), false);
+		}
 		return true;
 	}
 
-	private void warnOfStateLoss(String newGame, final Runnable continueLoading, final boolean returnToChooser) {
-		final String backend;
-		try {
-			backend = games[identifyBackend(newGame)];
-		} catch (IllegalArgumentException ignored) {
-			// It won't replace an existing game if it's invalid (we'll handle this later during load).
-			continueLoading.run();
-			return;
-		}
+	/** @param backend that of the game about to be loaded
+	 *  @param cancelLoading run (on the UI thread) if the user says not to load it after all */
+	private void warnOfStateLoss(final String backend, final Runnable continueLoading, final Runnable cancelLoading, final boolean returnToChooser) {
 		boolean careAboutOldGame = !state.getBoolean(SAVED_COMPLETED_PREFIX + backend, true);
 		if (careAboutOldGame) {
-			final String savedGame = state.getString(SAVED_GAME_PREFIX + backend, null);
+			final String savedGame = saveStore.get(backend);
 			if (savedGame == null || savedGame.contains("NSTATES :1:1")) {
 				careAboutOldGame = false;
 			}
 		}
 		if (careAboutOldGame) {
-			final String title = getString(getResources().getIdentifier("name_" + backend, "string", getPackageName()));
+			final String title = getString(BackendRegistry.get(BackendRegistry.NAME, backend));
 			runOnUiThread(() -> new AlertDialog.Builder(GamePlay.this)
 					.setMessage(MessageFormat.format(getString(R.string.replaceGame), title))
-					.setPositiveButton(android.R.string.ok, (dialog1, which) -> continueLoading.run())
-					.setNegativeButton(android.R.string.cancel, (dialog1, which) -> abort(null, returnToChooser)).create().show());
+					.setPositiveButton(android.R.string.ok, (dialog1, which) -> new Thread(continueLoading, "loadGame").start())
+					.setNegativeButton(android.R.string.cancel, (dialog1, which) -> {
+						cancelLoading.run();
+						abort(null, returnToChooser);
+					}).create().show());
 		} else {
 			continueLoading.run();
 		}
@@ -575,20 +663,39 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 			ed.remove(OLD_SAVED_GAME);
 			ed.remove(OLD_SAVED_COMPLETED);
 			try {
-				final String oldBackend = games[identifyBackend(oldSave)];
+				final String oldBackend = BackendRegistry.BACKENDS[identifyBackend(oldSave)];
 				ed.putString(SAVED_BACKEND, oldBackend);
-				ed.putString(SAVED_GAME_PREFIX + oldBackend, oldSave);
+				saveStore.putNow(oldBackend, oldSave);
 				ed.putBoolean(SAVED_COMPLETED_PREFIX + oldBackend, oldCompleted);
 			} catch (IllegalArgumentException ignored) {}
 			ed.apply();
 		}
 	}
 
+	/** Moves saves from the state preferences, where they used to be, to their own files. */
+	private void migrateToSaveFiles() {
+		if (state.getBoolean(SAVE_FILES_MIGRATED, false)) return;
+		final SharedPreferences.Editor ed = state.edit();
+		boolean allMoved = true;
+		for (Map.Entry<String, ?> e : state.getAll().entrySet()) {
+			final String key = e.getKey();
+			if (!key.startsWith(SAVED_GAME_PREFIX) || !(e.getValue() instanceof String)) continue;
+			// Keep it where it was if it can't be written, rather than lose it, and try again next time
+			if (!saveStore.putNow(key.substring(SAVED_GAME_PREFIX.length()), (String) e.getValue())) {
+				allMoved = false;
+				continue;
+			}
+			ed.remove(key);
+		}
+		if (allMoved) ed.putBoolean(SAVE_FILES_MIGRATED, true);
+		ed.apply();
+	}
+
 	private void migrateLightUp383Start() {
 		if (state.contains(LIGHTUP_383_NEED_MIGRATE)) return;
 		final String lastLightUpParams = state.getString(LAST_PARAMS_PREFIX + "lightup", "");
-		final String savedLightUp = state.getString(SAVED_GAME_PREFIX + "lightup", "");
-		final String[] parts = savedLightUp.split("PARAMS {2}:\\d+:");
+		final String savedLightUp = saveStore.get("lightup");
+		final String[] parts = (savedLightUp == null) ? new String[0] : savedLightUp.split("PARAMS {2}:\\d+:");
 		final boolean needMigrate = lastLightUpParams.matches(LIGHTUP_383_PARAMS_ROT4)
 				|| (parts.length > 1 && parts[1].matches(LIGHTUP_383_PARAMS_ROT4));
 		state.edit().putBoolean(LIGHTUP_383_NEED_MIGRATE, needMigrate).apply();
@@ -695,14 +802,20 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 					startNewGame();
 					return true;
 				case R.id.restart:
-					restartEvent();
+					engine.post(GameEngine.Command.RESTART, () -> {
+						restartEvent(engine.handle);
+						journal(MoveJournal.Type.RESTART, 0, 0, 0);
+					});
 					return true;
 				case R.id.solve:
-					try {
-						solveEvent();
-					} catch (IllegalArgumentException e) {
-						messageBox(getString(R.string.Error), e.getMessage(), false);
-					}
+					engine.post(GameEngine.Command.SOLVE, () -> {
+						try {
+							solveEvent(engine.handle);
+							journal(MoveJournal.Type.SOLVE, 0, 0, 0);
+						} catch (IllegalArgumentException e) {
+							runOnUiThread(() -> messageBox(getString(R.string.Error), e.getMessage(), false));
+						}
+					});
 					return true;
 				case R.id.save:
 					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -736,7 +849,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	private final MenuItem.OnMenuItemClickListener TYPE_CLICK_LISTENER = item -> {
 		final int itemId = item.getItemId();
 		if (itemId == R.id.custom) {
-			configEvent(CFG_SETTINGS);
+			engine.post(GameEngine.Command.CONFIG, () -> configEvent(engine.handle, CFG_SETTINGS));
 		} else {
 			final String presetParams = orientGameType(gameTypesById.get(itemId));
 			Log.d(TAG, "preset: " + itemId + ": " + presetParams);
@@ -800,7 +913,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 			switch (item.getItemId()) {
 				case R.id.this_game:
 					Intent intent = new Intent(GamePlay.this, HelpActivity.class);
-					intent.putExtra(HelpActivity.TOPIC, htmlHelpTopic());
+					intent.putExtra(HelpActivity.TOPIC, helpTopic);
 					startActivity(intent);
 					return true;
 				case R.id.email:
@@ -829,9 +942,13 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	}
 
 	private void share() {
+		saveToFile(this::share);
+	}
+
+	private void share(final byte[] saved) {
 		final Uri uriWithMimeType, bluetoothUri;
-		final String saved = saveToString();
 		try {
+			if (saved == null) throw new IOException("No game to save");
 			uriWithMimeType = writeCacheFile("puzzle.sgtp", saved);
 			bluetoothUri = writeCacheFile("bluetooth-puzzle.sgtp", saved);  // gets text/plain in FixedTypeFileProvider
 		} catch (IOException e) {
@@ -879,11 +996,11 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		startActivity(chooser);
 	}
 
-	private Uri writeCacheFile(final String cacheFile, final String content) throws IOException {
+	private Uri writeCacheFile(final String cacheFile, final byte[] content) throws IOException {
 		Uri uri;
 		final File file = new File(getCacheDir(), cacheFile);
 		FileOutputStream out = new FileOutputStream(file);
-		out.write(content.getBytes());
+		out.write(content);
 		out.close();
 		uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", file);
 		return uri;
@@ -899,17 +1016,22 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 
 	@TargetApi(Build.VERSION_CODES.KITKAT)
 	private void handleCreateResult(Intent dataIntent) {
+		saveToFile(saved -> writeToDocument(dataIntent, saved));
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private void writeToDocument(Intent dataIntent, byte[] saved) {
 		FileOutputStream fileOutputStream = null;
 		ParcelFileDescriptor pfd = null;
 		try {
-			final String s = saveToString();
+			if (saved == null) throw new IOException("No game to save");
 			final Uri uri = Objects.requireNonNull(dataIntent.getData());
 			pfd = getContentResolver().openFileDescriptor(uri, "w");
 			if (pfd == null) {
 				throw new IOException("Could not open " + uri);
 			}
 			fileOutputStream = new FileOutputStream(pfd.getFileDescriptor());
-			fileOutputStream.write(s.getBytes());
+			fileOutputStream.write(saved);
 		} catch (IOException e) {
 			messageBox(getString(R.string.Error), getString(R.string.save_failed_prefix) + e.getMessage(), false);
 		} finally {
@@ -920,7 +1042,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 
 	private void abort(final String why, final boolean returnToChooser)
 	{
-		workerRunning = false;
+		cancelWorker();
 		runOnUiThread(() -> {
 			dismissProgress();
 			if (why != null && !why.equals("")) {
@@ -934,12 +1056,23 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 
 	}
 
-	private void startNewGame()
+	/** Stops the start-game worker at the next check, and whatever it's generating. */
+	private void cancelWorker()
 	{
-		startGame(GameLaunch.toGenerate(currentBackend, orientGameType(migrateLightUp383(currentBackend, getCurrentParams()))));
+		workerRunning = false;
+		engine.setGenerationCancelled(true);  // frees the CPU (and the engine's lock) if it's still generating
+		final SeedRace race = seedRace;
+		if (race != null) race.cancel();
+		generatorClient.cancel();
+		gamePool.cancel();
 	}
 
-	private void startGame(final GameLaunch launch)
+	void startNewGame()
+	{
+		startGame(GameLaunch.toGenerate(currentBackend, orientGameType(migrateLightUp383(currentBackend, playingParams))));
+	}
+
+	void startGame(final GameLaunch launch)
 	{
 		startGame(launch, false);
 	}
@@ -950,33 +1083,31 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		if (progress != null) {
 			throw new RuntimeException("startGame while already starting!");
 		}
-		final String previousGame;
 		if (isRedo || launch.needsGenerating()) {
 			redoToGame = null;
-			previousGame = saveToString();
-		} else {
-			previousGame = null;
 		}
+		launchNanos = System.nanoTime();
 		showProgress(launch);
-		startGameThread(launch, previousGame);
+		engine.setGenerationCancelled(false);
+		generatorClient.resetCancel();
+		startGameThread(launch, isRedo);
 	}
 
-	private void startGameThread(final GameLaunch launch, final String previousGame) {
+	private void startGameThread(final GameLaunch launch, final boolean isRedo) {
 		workerRunning = true;
 		new Thread(launch.needsGenerating() ? "generateAndLoadGame" : "loadGame") { public void run() {
+			// A Uri is opened once: only its header is read here, then startGameConfirmed loads it
+			// from the same stream rather than into a String
+			InputStream savedIn = null;
 			try {
-				Uri uri = launch.getUri();
-				if (uri != null) {
-					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-						checkSize(uri);
-					}  // else just wish really hard that it isn't too big :-p
-					launch.setSaved(Utils.readAllOf(getContentResolver().openInputStream(uri)));
-				}
+				final Uri uri = launch.getUri();
+				if (uri != null) savedIn = openSave(uri);
 				String backend = launch.getWhichBackend();
 				if (backend == null) {
 					try {
-						backend = games[identifyBackend(launch.getSaved())];
+						backend = BackendRegistry.BACKENDS[(savedIn != null) ? identifyBackendAhead(savedIn) : identifyBackend(launch.getSaved())];
 					} catch (IllegalArgumentException e) {
+						Utils.closeQuietly(savedIn);
 						abort(e.getMessage(), launch.isFromChooser());  // invalid file
 						return;
 					}
@@ -995,23 +1126,41 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 						} else Log.d(TAG, "Using last params: " + params);
 					} else Log.d(TAG, "Using specified params: " + params);
 					launch.setParams(params);
-					startGameConfirmed(launch, previousGame);
-				} else if (!launch.isOfLocalState() && launch.getSaved() != null) {
-					warnOfStateLoss(launch.getSaved(), () -> startGameConfirmed(launch, previousGame), launch.isFromChooser());
+					startGameConfirmed(launch, isRedo, null);
+				} else if (!launch.isOfLocalState() && (launch.getSaved() != null || uri != null)) {
+					final InputStream in = savedIn;
+					warnOfStateLoss(backend, () -> startGameConfirmed(launch, isRedo, in), () -> Utils.closeQuietly(in), launch.isFromChooser());
 				} else {
-					startGameConfirmed(launch, previousGame);
+					startGameConfirmed(launch, isRedo, savedIn);
 				}
 			} catch (IllegalArgumentException e) {
+				Utils.closeQuietly(savedIn);
 				abort(e.getMessage(), launch.isFromChooser());  // probably bogus params
 			} catch (IOException e) {
 				e.printStackTrace();
+				Utils.closeQuietly(savedIn);
 				abort(e.getMessage(), launch.isFromChooser());  // internal error :-(
 			}
 		}}.start();
 	}
 
-	private void startGameConfirmed(final GameLaunch launch, final String previousGame) {
+	/** Runs on a worker thread, not the UI thread, as it takes the engine's lock.
+	 *  @param savedIn the launch's Uri, opened by startGameThread; closed here */
+	private void startGameConfirmed(final GameLaunch launch, final boolean isRedo, @Nullable final InputStream savedIn) {
+		// The game being replaced: undoing this launch goes back to it, or if this launch is an
+		// undo, redoing goes forward to it
+		final boolean undoing = launch.isUndoingOrRedoing() && !isRedo;
+		final String previousGame;
+		if (isRedo || undoing || launch.needsGenerating()) {
+			synchronized (engine.nativeLock) {
+				previousGame = (currentBackend == null) ? null : serialiseLocked();
+			}
+			if (undoing) redoToGame = previousGame;
+		} else {
+			previousGame = null;
+		}
 		final String toPlay = launch.getSaved();
+		final Uri uri = launch.getUri();
 		final String gameID = launch.getGameID();
 		final String seed = launch.getSeed();
 		final String params = launch.getParams();
@@ -1022,79 +1171,251 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 				changingGame = savedBackend == null || !savedBackend.equals(startingBackend);
 			} else changingGame = true;  // launching app
 		} else changingGame = !currentBackend.equals(startingBackend);
-		if (previousGame != null && !changingGame && !previousGame.equals(toPlay))
+		if (!undoing && previousGame != null && !changingGame && !previousGame.equals(toPlay))
 			undoToGame = previousGame;
 		else undoToGame = null;
 
+		final boolean fromParams = toPlay == null && uri == null && gameID == null && seed == null;
+		final String pooledSave = fromParams ? gamePool.take(startingBackend, params) : null;
+		final boolean generating = fromParams && pooledSave == null;
+		final long startNanos = System.nanoTime();
+		final StartedGame started;
 		try {
-			if (toPlay != null) startPlayingSavedGame(gameView, toPlay);
-			else if (gameID != null) startPlayingGameID(gameView, startingBackend, gameID);
-			else if (seed != null) startPlayingGameID(gameView, startingBackend, seed);
-			else startPlayingParams(gameView, startingBackend, params);
+			final String generatedSave = generating ? generateOutsideEngine(params) : null;
+			synchronized (engine.nativeLock) {
+				if (engine.handle == 0) throw new CancellationException("Destroyed while starting");
+				if (toPlay != null) startPlayingSavedGame(engine.handle, gameView, toPlay);
+				else if (savedIn != null) startingBackend = BackendRegistry.BACKENDS[startPlayingSavedStream(engine.handle, gameView, savedIn)];
+				else if (gameID != null) startPlayingGameID(engine.handle, gameView, startingBackend, gameID);
+				else if (seed != null) startPlayingGameID(engine.handle, gameView, startingBackend, seed);
+				else if (pooledSave != null) startPlayingPooledSave(pooledSave, params);
+				else if (generatedSave != null) startPlayingSavedGame(engine.handle, gameView, generatedSave);
+				else startPlayingParams(engine.handle, gameView, startingBackend, params);
+				started = readStartedGame();
+			}
 		} catch (IllegalArgumentException e) {
 			abort(e.getMessage(), launch.isFromChooser());  // probably bogus params
 			return;
+		} catch (CancellationException e) {
+			return;  // by abort(), which has dealt with the UI
+		} catch (IOException e) {
+			abort(e.getMessage(), launch.isFromChooser());  // couldn't read the file
+			return;
+		} finally {
+			Utils.closeQuietly(savedIn);
 		}
+		final long nanos = System.nanoTime() - startNanos;
+		if (generating) telemetry.record(startingBackend, params, Telemetry.Phase.GENERATE, nanos);
+		if (fromParams) gamePool.refill(startingBackend, params, generatorClient);
 
 		if (! workerRunning) return;
 		runOnUiThread(() -> {
-			currentBackend = startingBackend;
-			gameView.refreshColours(currentBackend);
-			gameView.resetZoomForClear();
-			gameView.clear();
-			applyUndoRedoKbd();
-			gameView.keysHandled = 0;
-			everCompleted = false;
-
-			final String currentParams = orientGameType(getCurrentParams());
-			refreshPresets(currentParams);
-			gameView.setDragModeFor(currentBackend);
-			final String title = getString(getResources().getIdentifier("name_" + currentBackend, "string", getPackageName()));
-			setTitle(title);
-			if (getSupportActionBar() != null) {
-				getSupportActionBar().setTitle(title);
-			}
-			final int flags = getUIVisibility();
-			changedState((flags & UIVisibility.UNDO.getValue()) > 0, (flags & UIVisibility.REDO.getValue()) > 0);
-			customVisible = (flags & UIVisibility.CUSTOM.getValue()) > 0;
-			solveEnabled = (flags & UIVisibility.SOLVE.getValue()) > 0;
-			setStatusBarVisibility((flags & UIVisibility.STATUS.getValue()) > 0);
-
-			// We have a saved completion flag but completion could have been done; find out whether
-			// it's really completed
-			if (launch.isOfLocalState() && !launch.isUndoingOrRedoing() && isCompletedNow()) {
-				completed();
+			if (!workerRunning) return;  // destroyed meanwhile
+			startedPlaying(launch, changingGame, generating ? -1 : nanos, started);
+		});
+	}
+
+	/** What the UI needs to know about a game just loaded, read while the worker still holds
+	 *  the engine's lock, so that the UI thread needn't take it. */
+	private static class StartedGame {
+		final int serial;
+		final String params;
+		final MenuEntry[] presets;
+		final int uiVisibility;
+		final boolean completed;
+		final String helpTopic;
+		final float[] colours;
+		final int[] defaultSize;
+
+		StartedGame(final int serial, final String params, final MenuEntry[] presets, final int uiVisibility,
+				final boolean completed, final String helpTopic, final float[] colours, final int[] defaultSize) {
+			this.serial = serial;
+			this.params = params;
+			this.presets = presets;
+			this.uiVisibility = uiVisibility;
+			this.completed = completed;
+			this.helpTopic = helpTopic;
+			this.colours = colours;
+			this.defaultSize = defaultSize;
+		}
+	}
+
+	/** Called with the engine's lock held, just after loading a game of startingBackend. */
+	private StartedGame readStartedGame() {
+		if (journal == null || !journal.backend.equals(startingBackend)) {
+			if (journal != null) journal.close();
+			journal = saveStore.openJournal(startingBackend);
+		}
+		final long handle = engine.handle;
+		return new StartedGame(++gameSerial, getCurrentParams(handle), getPresets(handle),
+				getUIVisibility(handle), isCompletedNow(handle), htmlHelpTopic(handle),
+				gameView.getColours(handle), gameView.getDefaultSize(handle));
+	}
+
+	/** Opens a plain or compressed save to be read a buffer at a time, with its header
+	 *  buffered for identifyBackendAhead; the caller closes it. */
+	private InputStream openSave(final Uri uri) throws IOException {
+		final InputStream in = getContentResolver().openInputStream(uri);
+		if (in == null) throw new IOException("Could not open " + uri);
+		return new BufferedInputStream(SaveFormat.open(in), SAVE_HEADER_LIMIT);
+	}
+
+	/** Reads only as far as the save's header, then puts the stream back to its start so that
+	 *  startPlayingSavedStream can load it straight into the midend, without holding it all in
+	 *  a String (or two, as native code copies a String to read it). */
+	private static int identifyBackendAhead(final InputStream in) throws IOException {
+		in.mark(SAVE_HEADER_LIMIT);
+		try {
+			return identifyBackendStream(in);
+		} finally {
+			in.reset();
+		}
+	}
+
+	/** Replays what was sent to the engine after the save we've just loaded was taken, in case
+	 *  we were killed before the next; normally there's nothing. Posted to the engine by
+	 *  startedPlaying, once the game is sized for the view (keys before that are dropped), and
+	 *  the view's size is sent again afterwards, as the journal leaves the size it had then. */
+	private void replayJournal(final String backend, final int serial) {
+		engine.post(GameEngine.Command.REPLAY, () -> {
+			if (serial != gameSerial) return;  // another game has been loaded meanwhile
+			final List<MoveJournal.Record> records = saveStore.readJournal(backend);
+			if (records.isEmpty()) return;
+			Log.i(TAG, "replaying " + records.size() + " journalled moves of " + backend);
+			replayLocked(records);
+			runOnUiThread(this::gameViewResized);
+		});
+	}
+
+	/** On the engine's thread, with its lock held. */
+	private void replayLocked(final List<MoveJournal.Record> records) {
+		for (MoveJournal.Record r : records) {
+			switch (r.type) {
+				case KEY:
+					keyEvent(engine.handle, r.x, r.y, r.key);
+					break;
+				case RESIZE:
+					resizeEvent(engine.handle, r.x, r.y);
+					break;
+				case RESTART:
+					restartEvent(engine.handle);
+					break;
+				case SOLVE:
+					try {
+						solveEvent(engine.handle);
+					} catch (IllegalArgumentException ignored) {}  // didn't work the first time either
+					break;
 			}
-			final boolean hasArrows = computeArrowMode(currentBackend).hasArrows();
-			if (changingGame) {
-				if (prefs.getBoolean(CONTROLS_REMINDERS_KEY, true)) {
-					if (hasArrows || !showToastIfExists("toast_no_arrows_" + currentBackend)) {
-						showToastIfExists("toast_" + currentBackend);
-					}
+		}
+	}
+
+	/** Called on the engine's thread after sending it something that may change the game. */
+	private void journal(final MoveJournal.Type type, final int x, final int y, final int key) {
+		if (journal == null) return;
+		journal.append(type, x, y, key);
+		if (journal.size() == MoveJournal.COMPACT_EVERY) runOnUiThread(this::save);
+	}
+
+	/** Generates a new game outside the engine's lock: in the generator process if that's
+	 *  enabled (as by default, since killing it is the only cancel that can't leak or leave a
+	 *  backend's statics half-updated), otherwise by racing several seeds if there are cores
+	 *  to spare. Otherwise null, and the engine's own frontend generates it as usual. */
+	private String generateOutsideEngine(final String params) {
+		if (!workerRunning) throw new CancellationException("Cancelled before generating");
+		final String save = generatorClient.generate(startingBackend, params);
+		return (save != null) ? save : raceForSave(params);
+	}
+
+	private String raceForSave(final String params) {
+		final int runners = SeedRace.chooseRunners(this);
+		if (runners <= 1) return null;
+		final SeedRace race = new SeedRace(startingBackend, params, runners);
+		seedRace = race;
+		if (!workerRunning) race.cancel();  // abort() came before we could be cancelled
+		try {
+			return race.run();
+		} finally {
+			seedRace = null;
+		}
+	}
+
+	/** Falls back to generating if a pooled game won't load (e.g. from an older version). */
+	private void startPlayingPooledSave(final String pooledSave, final String params) {
+		try {
+			startPlayingSavedGame(engine.handle, gameView, pooledSave);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "Pooled game didn't load: " + e.getMessage());
+			startPlayingParams(engine.handle, gameView, startingBackend, params);
+		}
+	}
+
+	/** @param loadNanos how long it took to load the game, or -1 if it was generated */
+	private void startedPlaying(final GameLaunch launch, final boolean changingGame, final long loadNanos, final StartedGame started) {
+		currentBackend = startingBackend;
+		playingSerial = started.serial;
+		playingParams = started.params;
+		helpTopic = started.helpTopic;
+		gameView.setGame(started.colours, started.defaultSize);
+		gameView.refreshColours(currentBackend);
+		gameView.resetZoomForClear();
+		gameView.clear();
+		applyUndoRedoKbd();
+		gameView.keysHandled = 0;
+		everCompleted = false;
+
+		final String currentParams = orientGameType(started.params);
+		if (loadNanos >= 0) telemetry.record(currentBackend, currentParams, Telemetry.Phase.LOAD, loadNanos);
+		final String backend = currentBackend;
+		final long launched = launchNanos;
+		gameView.afterNextFrame = () -> telemetry.record(backend, currentParams, Telemetry.Phase.FIRST_FRAME,
+				System.nanoTime() - launched);
+		refreshPresets(started.presets, currentParams);
+		gameView.setDragModeFor(currentBackend);
+		final String title = getString(BackendRegistry.get(BackendRegistry.NAME, currentBackend));
+		setTitle(title);
+		if (getSupportActionBar() != null) {
+			getSupportActionBar().setTitle(title);
+		}
+		final int flags = started.uiVisibility;
+		changedState((flags & UIVisibility.UNDO.getValue()) > 0, (flags & UIVisibility.REDO.getValue()) > 0);
+		customVisible = (flags & UIVisibility.CUSTOM.getValue()) > 0;
+		solveEnabled = (flags & UIVisibility.SOLVE.getValue()) > 0;
+		setStatusBarVisibility((flags & UIVisibility.STATUS.getValue()) > 0);
+
+		// We have a saved completion flag but completion could have been done; find out whether
+		// it's really completed
+		if (launch.isOfLocalState() && !launch.isUndoingOrRedoing() && started.completed) {
+			completed();
+		}
+		final boolean hasArrows = computeArrowMode(currentBackend).hasArrows();
+		if (changingGame) {
+			if (prefs.getBoolean(CONTROLS_REMINDERS_KEY, true)) {
+				if (hasArrows || !showToastIfExists(BackendRegistry.get(BackendRegistry.TOAST_NO_ARROWS, currentBackend))) {
+					showToastIfExists(BackendRegistry.get(BackendRegistry.TOAST, currentBackend));
 				}
 			}
-			dismissProgress();
-			gameView.rebuildBitmap();
-			if (menu != null) onPrepareOptionsMenu(menu);
-			save();
-			if (migrateLightUp383InProgress) {
-				state.edit().putBoolean(LIGHTUP_383_NEED_MIGRATE, false).apply();
-			}
-		});
+		}
+		dismissProgress();
+		gameView.rebuildBitmap();
+		if (menu != null) onPrepareOptionsMenu(menu);
+		if (launch.isOfLocalState() && !launch.isUndoingOrRedoing()) replayJournal(backend, started.serial);
+		save();  // after any replay, so that it compacts the journal away
+		if (migrateLightUp383InProgress) {
+			state.edit().putBoolean(LIGHTUP_383_NEED_MIGRATE, false).apply();
+		}
 	}
 
-	private boolean showToastIfExists(final String name) {
-		final int reminderId = getResources().getIdentifier(name, "string", getPackageName());
-		if (reminderId <= 0) {
+	private boolean showToastIfExists(final int reminderId) {
+		if (reminderId == 0) {
 			return false;
 		}
 		Toast.makeText(GamePlay.this, reminderId, Toast.LENGTH_LONG).show();
 		return true;
 	}
 
-	private void refreshPresets(final String currentParams) {
+	private void refreshPresets(final MenuEntry[] presets, final String currentParams) {
 		currentType = -1;
-		gameTypesMenu = getPresets();
+		gameTypesMenu = presets;
 		populateGameTypesById(gameTypesMenu, currentParams);
 	}
 
@@ -1111,22 +1432,6 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		}
 	}
 
-	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-	private void checkSize(Uri uri) {
-		Cursor cursor = getContentResolver().query(uri, new String[]{OpenableColumns.SIZE}, null, null, null, null);
-		try {
-			if (cursor != null && cursor.moveToFirst()) {
-				int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-				if (cursor.isNull(sizeIndex)) return;
-				if (cursor.getInt(sizeIndex) > MAX_SAVE_SIZE) {
-					throw new IllegalArgumentException(getString(R.string.file_too_big));
-				}
-			}
-		} finally {
-			Utils.closeQuietly(cursor);
-		}
-	}
-
 	private String getLastParams(final String whichBackend) {
 		return orientGameType(state.getString(LAST_PARAMS_PREFIX + whichBackend, null));
 	}
@@ -1159,6 +1464,9 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	@Override
 	protected void onDestroy()
 	{
+		cancelWorker();  // before the engine frees the frontend the worker may be loading into
+		engine.quit();
+		generatorClient.unbind();
 		super.onDestroy();
 	}
 
@@ -1167,7 +1475,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	{
 		if (f && gameWantsTimer && currentBackend != null
 				&& ! handler.hasMessages(MsgType.TIMER.ordinal())) {
-			resetTimerBaseline();
+			engine.post(GameEngine.Command.TIMER, () -> resetTimerBaseline(engine.handle));
 			handler.sendMessageDelayed(handler.obtainMessage(MsgType.TIMER.ordinal()),
 					TIMER_INTERVAL);
 		}
@@ -1200,9 +1508,7 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		if (k == UI_UNDO && undoIsLoadGame) {
 			if (!isRepeat) {
 				Utils.toastFirstFewTimes(this, state, UNDO_NEW_GAME_SEEN, 3, R.string.undo_new_game_toast);
-				final GameLaunch launchUndo = GameLaunch.undoingOrRedoingNewGame(undoToGame);
-				redoToGame = saveToString();
-				startGame(launchUndo);
+				startGame(GameLaunch.undoingOrRedoingNewGame(undoToGame));  // which keeps this one to redo
 			}
 			return;
 		}
@@ -1223,7 +1529,11 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 				k -= 2;  // right; send left
 			}
 		}
-		keyEvent(x, y, k);
+		final int key = k;
+		engine.post(GameEngine.Command.KEY, () -> {
+			keyEvent(engine.handle, x, y, key);
+			journal(MoveJournal.Type.KEY, x, y, key);
+		});
 		gameView.requestFocus();
 		if (startedFullscreen) {
 			lightsOut(true);
@@ -1293,17 +1603,16 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 				+ (hasDpadOrTrackball(c) ? "WithDpad" : "");
 	}
 
-	static boolean getArrowKeysDefault(final String whichBackend, final Resources resources, final String packageName) {
+	static boolean getArrowKeysDefault(final String whichBackend, final Resources resources) {
 		if (hasDpadOrTrackball(resources.getConfiguration())) return false;
-		final int defaultId = resources.getIdentifier(
-				whichBackend + "_arrows_default", "bool", packageName);
-		return defaultId > 0 && resources.getBoolean(defaultId);
+		final int defaultId = BackendRegistry.get(BackendRegistry.ARROWS_DEFAULT, whichBackend);
+		return defaultId != 0 && resources.getBoolean(defaultId);
 	}
 
 	private SmallKeyboard.ArrowMode computeArrowMode(final String whichBackend) {
 		final boolean arrowPref = prefs.getBoolean(
 				getArrowKeysPrefName(whichBackend, getResources().getConfiguration()),
-				getArrowKeysDefault(whichBackend, getResources(), getPackageName()));
+				getArrowKeysDefault(whichBackend, getResources()));
 		if (arrowPref) {
 			if (("inertia").contains(whichBackend))
 				return SmallKeyboard.ArrowMode.ARROWS_DIAGONALS;
@@ -1441,12 +1750,20 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		else handler.removeMessages(MsgType.TIMER.ordinal());
 	}
 
+	// The dialog upcalls come from configEvent on the engine's thread, and build the dialog on
+	// the UI thread, in order; what the user does with it is posted back to the engine.
+
 	@UsedByJNI
-	void dialogInit(final int whichEvent, String title)
+	void dialogInit(final int whichEvent, final String title)
+	{
+		runOnUiThread(() -> dialogInitInternal(whichEvent, title));
+	}
+
+	private void dialogInitInternal(final int whichEvent, String title)
 	{
 		dialogBuilder = new AlertDialog.Builder(GamePlay.this)
 				.setTitle(title)
-				.setOnCancelListener(dialog1 -> configCancel())
+				.setOnCancelListener(dialog1 -> engine.post(GameEngine.Command.CONFIG, () -> configCancel(engine.handle)))
 				.setPositiveButton(android.R.string.ok, (d, whichButton) -> {
 					// do nothing - but must have listener to ensure button is shown
 					// (listener is overridden in dialogShow to prevent dismiss)
@@ -1454,14 +1771,14 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		ScrollView sv = new ScrollView(dialogBuilder.getContext());
 		dialogBuilder.setView(sv);
 		if (whichEvent == CFG_SETTINGS) {
-			dialogBuilder.setNegativeButton(R.string.Game_ID_, (dialog, which) -> {
-				configCancel();
-				configEvent(CFG_DESC);
-			})
-			.setNeutralButton(R.string.Seed_, (dialog, which) -> {
-				configCancel();
-				configEvent(CFG_SEED);
-			});
+			dialogBuilder.setNegativeButton(R.string.Game_ID_, (dialog, which) -> engine.post(GameEngine.Command.CONFIG, () -> {
+				configCancel(engine.handle);
+				configEvent(engine.handle, CFG_DESC);
+			}))
+			.setNeutralButton(R.string.Seed_, (dialog, which) -> engine.post(GameEngine.Command.CONFIG, () -> {
+				configCancel(engine.handle);
+				configEvent(engine.handle, CFG_SEED);
+			}));
 		}
 		sv.addView(dialogLayout = new TableLayout(dialogBuilder.getContext()));
 		dialog = dialogBuilder.create();
@@ -1472,9 +1789,14 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		dialogIds.clear();
 	}
 
-	@SuppressLint("InlinedApi")
 	@UsedByJNI
-	void dialogAddString(int whichEvent, String name, String value)
+	void dialogAddString(final int whichEvent, final String name, final String value)
+	{
+		runOnUiThread(() -> dialogAddStringInternal(whichEvent, name, value));
+	}
+
+	@SuppressLint("InlinedApi")
+	private void dialogAddStringInternal(int whichEvent, String name, String value)
 	{
 		final Context context = dialogBuilder.getContext();
 		dialogIds.add(name);
@@ -1508,7 +1830,12 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	}
 
 	@UsedByJNI
-	void dialogAddBoolean(int whichEvent, String name, boolean selected)
+	void dialogAddBoolean(final int whichEvent, final String name, final boolean selected)
+	{
+		runOnUiThread(() -> dialogAddBooleanInternal(name, selected));
+	}
+
+	private void dialogAddBooleanInternal(String name, boolean selected)
 	{
 		final Context context = dialogBuilder.getContext();
 		dialogIds.add(name);
@@ -1520,7 +1847,11 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 	}
 
 	@UsedByJNI
-	void dialogAddChoices(int whichEvent, String name, String value, int selection) {
+	void dialogAddChoices(final int whichEvent, final String name, final String value, final int selection) {
+		runOnUiThread(() -> dialogAddChoicesInternal(name, value, selection));
+	}
+
+	private void dialogAddChoicesInternal(String name, String value, int selection) {
 		final Context context = dialogBuilder.getContext();
 		StringTokenizer st = new StringTokenizer(value.substring(1), value.substring(0, 1));
 		ArrayList<String> choices = new ArrayList<>();
@@ -1549,6 +1880,11 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 
 	@UsedByJNI
 	void dialogShow()
+	{
+		runOnUiThread(this::dialogShowInternal);
+	}
+
+	private void dialogShowInternal()
 	{
 		dialogLayout.setColumnShrinkable(0, true);
 		dialogLayout.setColumnShrinkable(1, true);
@@ -1561,41 +1897,53 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 			dialogLayout.requestFocus();
 		}
 		dialog.show();
-		dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(button -> {
-			for (String i : dialogIds) {
-				View v = dialogLayout.findViewWithTag(i);
-				if (v instanceof EditText) {
-					configSetString(i, ((EditText) v).getText().toString());
-				} else if (v instanceof CheckBox) {
-					configSetBool(i, ((CheckBox) v).isChecked() ? 1 : 0);
-				} else if (v instanceof Spinner) {
-					configSetChoice(i, ((Spinner) v).getSelectedItemPosition());
-				}
+		dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(this::dialogOK);
+	}
+
+	/** Reads the dialog here on the UI thread, then gives the engine the values. */
+	private void dialogOK(final View okButton) {
+		okButton.setEnabled(false);  // until the engine has checked these, as it'll free them
+		final List<Runnable> settings = new ArrayList<>();
+		for (String i : dialogIds) {
+			View v = dialogLayout.findViewWithTag(i);
+			if (v instanceof EditText) {
+				final String value = ((EditText) v).getText().toString();
+				settings.add(() -> configSetString(engine.handle, i, value));
+			} else if (v instanceof CheckBox) {
+				final int selected = ((CheckBox) v).isChecked() ? 1 : 0;
+				settings.add(() -> configSetBool(engine.handle, i, selected));
+			} else if (v instanceof Spinner) {
+				final int selected = ((Spinner) v).getSelectedItemPosition();
+				settings.add(() -> configSetChoice(engine.handle, i, selected));
 			}
+		}
+		final AlertDialog d = dialog;
+		final int whichEvent = dialogEvent;
+		final String backend = currentBackend;
+		engine.post(GameEngine.Command.CONFIG, () -> {
+			for (Runnable r : settings) r.run();
 			try {
 				final GameLaunch launch;
-				if (dialogEvent == CFG_DESC) {
-					launch = GameLaunch.ofGameID(currentBackend, getFullGameIDFromDialog());
-				} else if (dialogEvent == CFG_SEED) {
-					launch = GameLaunch.fromSeed(currentBackend, getFullSeedFromDialog());
+				if (whichEvent == CFG_DESC) {
+					launch = GameLaunch.ofGameID(backend, getFullGameIDFromDialog(engine.handle));
+				} else if (whichEvent == CFG_SEED) {
+					launch = GameLaunch.fromSeed(backend, getFullSeedFromDialog(engine.handle));
 				} else {
-					launch = GameLaunch.toGenerate(currentBackend, configOK());
+					launch = GameLaunch.toGenerate(backend, configOK(engine.handle));
 				}
-				startGame(launch);
-				dialog.dismiss();
+				runOnUiThread(() -> {
+					startGame(launch);
+					d.dismiss();
+				});
 			} catch (IllegalArgumentException e) {
-				dismissProgress();
-				messageBox(getString(R.string.Error), e.getMessage(), false);
+				runOnUiThread(() -> {
+					okButton.setEnabled(true);
+					messageBox(getString(R.string.Error), e.getMessage(), false);
+				});
 			}
 		});
 	}
 
-	@UsedByJNI
-	void serialiseWrite(byte[] buffer)
-	{
-		savingState.append(new String(buffer));
-	}
-
 	@UsedByJNI
 	void setKeys(final String keys)
 	{
@@ -1617,6 +1965,8 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 			applyFullscreen(true);  // = already started
 		} else if (key.equals(STAY_AWAKE_KEY)) {
 			applyStayAwake();
+		} else if (key.equals(GENERATOR_PROCESS_KEY)) {
+			applyGeneratorProcess();
 		} else if (key.equals(LIMIT_DPI_KEY)) {
 			applyLimitDPI(true);
 		} else if (key.equals(ORIENTATION_KEY)) {
@@ -1688,6 +2038,15 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		}
 	}
 
+	private void applyGeneratorProcess()
+	{
+		if (prefs.getBoolean(GENERATOR_PROCESS_KEY, true)) {
+			generatorClient.bind();
+		} else {
+			generatorClient.unbind();
+		}
+	}
+
 	@SuppressLint("InlinedApi")
 	private void applyOrientation() {
 		final String orientationPref = prefs.getString(ORIENTATION_KEY, "unspecified");
@@ -1744,30 +2103,49 @@ public class GamePlay extends AppCompatActivity implements OnSharedPreferenceCha
 		});
 	}
 
-	native void startPlayingSavedGame(GameView _gameView, String savedGame);
-	native void startPlayingGameID(GameView _gameView, String whichBackend, String gameID);
-	native void startPlayingParams(GameView _gameView, String whichBackend, String params);
-	native void timerTick();
-	native String htmlHelpTopic();
-	native void keyEvent(int x, int y, int k);
-	native void restartEvent();
-	native void solveEvent();
-	native void resizeEvent(int x, int y);
-	native void configEvent(int whichEvent);
-	native String configOK();
-	native String getFullGameIDFromDialog();
-	native String getFullSeedFromDialog();
-	native void configCancel();
-	native void configSetString(String item_ptr, String s);
-	native void configSetBool(String item_ptr, int selected);
-	native void configSetChoice(String item_ptr, int selected);
-	native void serialise();
+	/** A native frontend, which startPlaying* fills with a midend; each instance native takes
+	 *  one, and only needs locking against other calls with the same one. */
+	native static long newFrontend();
+	native static void freeFrontend(long handle);
+	native void startPlayingSavedGame(long handle, GameView _gameView, String savedGame);
+	/** @return the index in BackendRegistry.BACKENDS of the game it loaded */
+	native int startPlayingSavedStream(long handle, GameView _gameView, InputStream in) throws IOException;
+	native void startPlayingGameID(long handle, GameView _gameView, String whichBackend, String gameID);
+	native void startPlayingParams(long handle, GameView _gameView, String whichBackend, String params);
+	native void timerTick(long handle);
+	native String htmlHelpTopic(long handle);
+	native void keyEvent(long handle, int x, int y, int k);
+	native void restartEvent(long handle);
+	native void solveEvent(long handle);
+	native void resizeEvent(long handle, int x, int y);
+	native void configEvent(long handle, int whichEvent);
+	native String configOK(long handle);
+	native String getFullGameIDFromDialog(long handle);
+	native String getFullSeedFromDialog(long handle);
+	native void configCancel(long handle);
+	native void configSetString(long handle, String item_ptr, String s);
+	native void configSetBool(long handle, String item_ptr, int selected);
+	native void configSetChoice(long handle, String item_ptr, int selected);
+	/** @return the whole save, or null if there's no game */
+	native byte[] serialise(long handle);
+	/** Needs no lock: it doesn't touch any frontend. */
 	native static int identifyBackend(String savedGame);
-	native String getCurrentParams();
-	native MenuEntry[] getPresets();
-	native int getUIVisibility();
-	native void resetTimerBaseline();
-	native boolean isCompletedNow();
+	native static int identifyBackendStream(InputStream in) throws IOException;
+	/** Generates a new game, serialised (with its seed and aux info, which a bare game ID
+	 *  would lose), for startPlayingSavedGame. Needs no lock: it uses a midend of its own. The
+	 *  frontend, if not 0, is only used to cancel it with setGenerationCancelled. */
+	native static String generateSave(long handle, String whichBackend, String params);
+	/** Makes the generation (current or next, by startPlayingParams or generateSave) on this
+	 *  frontend give up, throwing CancellationException. Needs no lock. */
+	native static void setGenerationCancelled(long handle, boolean cancelled);
+	/** Random numbers drawn so far by the generation on this frontend, or 0 if it isn't
+	 *  generating. Needs no lock. */
+	native static long getGenerationSteps(long handle);
+	native String getCurrentParams(long handle);
+	native MenuEntry[] getPresets(long handle);
+	native int getUIVisibility(long handle);
+	native void resetTimerBaseline(long handle);
+	native boolean isCompletedNow(long handle);
 
 	static {
 		System.loadLibrary("puzzles");
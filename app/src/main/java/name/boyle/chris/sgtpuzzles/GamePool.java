@@ -0,0 +1,283 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Games generated ahead of time, so that "New game" with params that take seconds to
+ * generate (large Solo, Keen, Unequal, Pattern...) can start at once. After a game is started
+ * from some params, a background thread tops up the games for those params; the next start
+ * takes one. Each is kept serialised rather than as a game ID, since that would lose its seed
+ * and the generator's aux info (needed by Solve in many games). They're kept in a file between
+ * runs, with a bound on the total, dropping the params used least recently first, whatever the
+ * backend.
+ *
+ * Refills are generated in the generator process when there is one, so that cancelling a game
+ * (which kills that process) stops them too; otherwise here, where {@link #cancel} stops them.
+ * Either way the next game started refills again.
+ *
+ * One per process, since there's one file; {@link #take} may be called from any thread.
+ */
+class GamePool {
+
+	private static final String TAG = "GamePool";
+	private static final String FILE_NAME = "gamePool2";
+	/** Held game IDs, before it held saves. */
+	private static final String OLD_FILE_NAME = "gamePool";
+	/** Saved games to keep ready for each (backend, params). */
+	static final int SAVES_PER_PARAMS = 2;
+	/** Saved games to keep in all: SAVES_PER_PARAMS each for the last 12 sets of params played. */
+	private static final int MAX_SAVES = 12 * SAVES_PER_PARAMS;
+
+	private static GamePool instance = null;
+
+	private final File oldFile;
+	private final AtomicFile file;
+	/** Saves by backend + "\t" + params, least recently used first. */
+	private final LinkedHashMap<String, ArrayDeque<String>> saves = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<String> refilling = new HashSet<>();
+	private final Executor worker;
+	/** Frontend used only to cancel refills generated in this process, or 0 until needed. */
+	private long handle = 0;
+	private boolean loaded = false;
+	private int hits = 0, misses = 0, generated = 0;
+	private long generateNanos = 0;
+
+	private GamePool(final Context context) {
+		this(context.getFilesDir(), backgroundThread());
+	}
+
+	/** @param worker runs refills and writes in order, normally on a background thread */
+	GamePool(@NonNull final File dir, @NonNull final Executor worker) {
+		oldFile = new File(dir, OLD_FILE_NAME);
+		file = new AtomicFile(new File(dir, FILE_NAME));
+		this.worker = worker;
+	}
+
+	private static Executor backgroundThread() {
+		final HandlerThread thread = new HandlerThread("gamePool", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		return new Handler(thread.getLooper())::post;
+	}
+
+	static synchronized GamePool getInstance(final Context context) {
+		if (instance == null) instance = new GamePool(context.getApplicationContext());
+		return instance;
+	}
+
+	private static String key(final String backend, final String params) {
+		return backend + "\t" + params;
+	}
+
+	/** @return a saved game for these params (which it's then up to the caller to use), or
+	 *  null if there isn't one ready */
+	synchronized String take(@NonNull final String backend, @NonNull final String params) {
+		load();
+		final ArrayDeque<String> ready = saves.get(key(backend, params));
+		final String save = (ready == null) ? null : ready.poll();
+		if (save != null) {
+			hits++;
+			worker.execute(this::save);
+		} else {
+			misses++;
+		}
+		Log.d(TAG, ((save != null) ? "hit" : "miss") + " for " + backend + " " + params + ": " + this);
+		return save;
+	}
+
+	/** Generates games for these params in the background until there are enough.
+	 *  @param generator generates them in its process if it can, or null to generate here */
+	synchronized void refill(@NonNull final String backend, @NonNull final String params, @Nullable final GeneratorClient generator) {
+		if (handle == 0) handle = GamePlay.newFrontend();
+		GamePlay.setGenerationCancelled(handle, false);
+		final String key = key(backend, params);
+		if (!refilling.add(key)) return;
+		worker.execute(() -> {
+			try {
+				while (needsMore(key)) {
+					final long start = System.nanoTime();
+					final String save = generate(backend, params, generator);
+					add(key, save, System.nanoTime() - start);
+				}
+			} catch (IllegalArgumentException e) {
+				Log.d(TAG, "Can't pre-generate " + backend + " " + params + ": " + e.getMessage());
+			} catch (CancellationException e) {
+				Log.d(TAG, "Pre-generating " + backend + " " + params + " cancelled");
+			} finally {
+				synchronized (this) {
+					refilling.remove(key);
+				}
+			}
+			save();
+		});
+	}
+
+	private String generate(final String backend, final String params, @Nullable final GeneratorClient generator) {
+		final String save = (generator != null) ? generator.generateInBackground(backend, params) : null;
+		return (save != null) ? save : GamePlay.generateSave(handle, backend, params);
+	}
+
+	/** Stops a refill that's generating in this process, and any queued behind it, until the
+	 *  next {@link #refill}. */
+	synchronized void cancel() {
+		if (handle != 0) GamePlay.setGenerationCancelled(handle, true);
+	}
+
+	private synchronized boolean needsMore(final String key) {
+		load();
+		ArrayDeque<String> ready = saves.get(key);
+		if (ready == null) {
+			ready = new ArrayDeque<>();
+			saves.put(key, ready);
+			trim(key);
+		}
+		return ready.size() < SAVES_PER_PARAMS;
+	}
+
+	private synchronized void add(final String key, final String save, final long nanos) {
+		generated++;
+		generateNanos += nanos;
+		ArrayDeque<String> ready = saves.get(key);
+		if (ready == null) {  // evicted meanwhile
+			ready = new ArrayDeque<>();
+			saves.put(key, ready);
+		}
+		ready.add(save);
+		trim(key);
+	}
+
+	/** Drops the least recently used params until within MAX_SAVES, sparing keep. */
+	private void trim(final String keep) {
+		int total = 0;
+		for (ArrayDeque<String> ready : saves.values()) total += ready.size();
+		// Count the params being filled as full already, so that filling them evicts first
+		total += SAVES_PER_PARAMS - saves.get(keep).size();
+		final Iterator<Map.Entry<String, ArrayDeque<String>>> it = saves.entrySet().iterator();
+		while (total > MAX_SAVES && it.hasNext()) {
+			final Map.Entry<String, ArrayDeque<String>> e = it.next();
+			if (e.getKey().equals(keep)) continue;
+			total -= e.getValue().size();
+			it.remove();
+		}
+	}
+
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		if (oldFile.exists() && !oldFile.delete()) Log.w(TAG, "Couldn't delete " + oldFile);
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new InputStreamReader(file.openRead(), "UTF-8"));
+			String line;
+			while ((line = r.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length < 3) continue;
+				final ArrayDeque<String> ready = new ArrayDeque<>();
+				for (int i = 2; i < fields.length; i++) ready.add(unescape(fields[i]));
+				saves.put(key(fields[0], fields[1]), ready);
+			}
+		} catch (IOException ignored) {
+			// nothing saved yet, or it's unreadable: start empty
+		} finally {
+			Utils.closeQuietly(r);
+		}
+	}
+
+	/** Writes the file, least recently used first so that loading keeps the order. Called on
+	 *  the pool's thread. */
+	private void save() {
+		final StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			for (Map.Entry<String, ArrayDeque<String>> e : saves.entrySet()) {
+				if (e.getValue().isEmpty()) continue;
+				sb.append(e.getKey());
+				for (String save : e.getValue()) sb.append('\t').append(escape(save));
+				sb.append('\n');
+			}
+		}
+		FileOutputStream out = null;
+		try {
+			out = file.startWrite();
+			out.write(sb.toString().getBytes("UTF-8"));
+			file.finishWrite(out);
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't save: " + e.getMessage());
+			if (out != null) file.failWrite(out);
+		}
+	}
+
+	/** A save as one field of a line of the file: it has newlines, and might have tabs. */
+	@NonNull
+	static String escape(@NonNull final String save) {
+		return save.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t");
+	}
+
+	@NonNull
+	static String unescape(@NonNull final String field) {
+		final StringBuilder sb = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				c = field.charAt(++i);
+				if (c == 'n') c = '\n';
+				else if (c == 't') c = '\t';
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/** Fraction of takes that found a game ready. */
+	synchronized float getHitRate() {
+		return (hits + misses == 0) ? 0.f : (float) hits / (hits + misses);
+	}
+
+	synchronized int getHits() {
+		return hits;
+	}
+
+	/** Average time to generate a game in the background, in nanoseconds. */
+	synchronized long getAverageRefillNanos() {
+		return (generated == 0) ? 0 : generateNanos / generated;
+	}
+
+	/** Blocks until the refills asked for so far are done. For tests. */
+	void waitForIdle() {
+		final CountDownLatch latch = new CountDownLatch(1);
+		worker.execute(latch::countDown);
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@NonNull
+	@Override
+	public synchronized String toString() {
+		return hits + "/" + (hits + misses) + " hits, " + generated + " refilled averaging "
+				+ (getAverageRefillNanos() / 1000000) + "ms";
+	}
+}
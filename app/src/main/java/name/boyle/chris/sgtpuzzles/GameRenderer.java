@@ -0,0 +1,388 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Rasterizes the draw commands that android.c encodes onto a bitmap, through a matrix from game
+ * coordinates to bitmap pixels. GameView keeps one for what's on screen; others can replay a
+ * {@link DisplayList} at whatever resolution they like. Primitives that fall entirely outside
+ * the bitmap are skipped, so replaying the same commands onto each of several tiles is cheap.
+ *
+ * Not thread-safe, but has no ties to the UI thread.
+ */
+class GameRenderer {
+
+	interface Listener {
+		/** A CMD_FULL_REDRAW at this offset in the buffer being replayed: everything from here
+		 *  on is enough to reproduce the picture. */
+		void onFullRedraw(ByteBuffer b, int offset);
+		void onEndFrame();
+	}
+
+	// Draw command opcodes, in step with android.c
+	static final int CMD_FILL_RECT = 1, CMD_LINE = 2, CMD_POLY = 3, CMD_CIRCLE = 4,
+			CMD_TEXT = 5, CMD_CLIP = 6, CMD_UNCLIP = 7, CMD_BLITTER_SAVE = 8,
+			CMD_BLITTER_LOAD = 9, CMD_BLITTER_FREE = 10, CMD_END_FRAME = 11, CMD_TEXT_DEFINE = 12,
+			CMD_BLITTER_ALLOC = 13, CMD_FULL_REDRAW = 14;
+	private static final int ALIGN_V_CENTRE = 0x100;
+	private static final int ALIGN_H_CENTRE = 0x001;
+	private static final int ALIGN_H_RIGHT = 0x002;
+	private static final int TEXT_MONO = 0x10;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	// ARGB_8888 is viewable in Android Studio debugger but very memory-hungry
+	// It's also necessary to work around a 4.1 bug https://github.com/chrisboyle/sgtpuzzles/issues/63
+	static final Bitmap.Config BITMAP_CONFIG =
+			(Build.VERSION.SDK_INT == Build.VERSION_CODES.JELLY_BEAN)  // bug only seen on 4.1.x
+					? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+
+	private final Bitmap bitmap;
+	private final int bitmapW, bitmapH;
+	private final Canvas canvas;
+	private int canvasRestoreJustAfterCreation;
+	private final Matrix zoomMatrix;
+	private int[] colours = new int[0];
+	private int wDip = 1, hDip = 1;
+	private final Paint paint = new Paint();
+	private final Paint atlasPaint = new Paint();
+	private final Path polyPath = new Path();  // reused so that drawing polygons doesn't allocate
+	private final TextCache textCache;
+	private byte[] textBytes = new byte[64];
+	private final BlitterArena blitters = new BlitterArena(BITMAP_CONFIG);
+	/** Draws into bitmap without zoom or clip, for blitter loads. */
+	private final Canvas bitmapCanvas;
+	private final float[] blitterPoint = new float[2];
+	private final float[] matrixValues = new float[9];
+	private final float[] textPoint = new float[2];
+	private final Rect textDst = new Rect();
+	/** Region of the bitmap touched since the last end of frame, in bitmap pixels. */
+	private final Rect dirty = new Rect();
+	private final RectF dirtyBounds = new RectF();
+	private int framePrimitives = 0, framePolygons = 0;
+	/** In the last complete frame: how many primitives, how many of them were polygons, and
+	 *  what part of the bitmap they touched. */
+	int lastFramePrimitives = 0, lastFramePolygons = 0;
+	final Rect lastFrameDirty = new Rect();
+
+	/** @param zoomMatrix game coordinates to bitmap pixels; kept by reference, and must not
+	 *                   change afterwards (make a new renderer for a new scale). */
+	GameRenderer(final Bitmap bitmap, final Matrix zoomMatrix) {
+		this(bitmap, zoomMatrix, new TextCache());
+	}
+
+	/** @param textCache may be shared by renderers at the same scale that replay the same
+	 *                  commands, e.g. the tiles of one picture. */
+	GameRenderer(final Bitmap bitmap, final Matrix zoomMatrix, final TextCache textCache) {
+		this.zoomMatrix = zoomMatrix;
+		this.textCache = textCache;
+		paint.setAntiAlias(true);
+		paint.setStrokeCap(Paint.Cap.SQUARE);
+		paint.setStrokeWidth(1.f);  // will be scaled with everything else as long as it's non-zero
+		this.bitmap = bitmap;
+		bitmapW = bitmap.getWidth();
+		bitmapH = bitmap.getHeight();
+		canvas = new Canvas(bitmap);
+		bitmapCanvas = new Canvas(bitmap);
+		canvasRestoreJustAfterCreation = canvas.save();
+		canvas.setMatrix(zoomMatrix);
+	}
+
+	BlitterArena getBlitters() {
+		return blitters;
+	}
+
+	void setColours(final int[] colours) {
+		this.colours = colours;
+	}
+
+	void setSize(final int wDip, final int hDip) {
+		this.wDip = wDip;
+		this.hDip = hDip;
+	}
+
+	float getScale() {
+		zoomMatrix.getValues(matrixValues);
+		return matrixValues[Matrix.MSCALE_X];
+	}
+
+	void clear(final int colour) {
+		bitmap.eraseColor(colour);
+		dirty.set(0, 0, bitmapW, bitmapH);
+	}
+
+	/** Frees the blitters; the renderer (though not its bitmap) is unusable afterwards. */
+	void release() {
+		blitters.release();
+	}
+
+	/** Takes the region touched since the last call (or end of frame), and forgets it. */
+	boolean takeDirty(final Rect out) {
+		out.set(dirty);
+		dirty.setEmpty();
+		return !out.isEmpty();
+	}
+
+	/** Replays b from its position to its limit. */
+	void replay(final ByteBuffer b, final Listener listener)
+	{
+		while (b.hasRemaining()) {
+			framePrimitives++;
+			final int command = b.getInt();
+			switch (command) {
+				case CMD_FILL_RECT:
+					fillRect(b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_LINE:
+					drawLine(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getInt());
+					break;
+				case CMD_POLY: {
+					framePolygons++;
+					final float thickness = b.getFloat();
+					final int nPoints = b.getInt(), line = b.getInt(), fill = b.getInt();
+					drawPoly(thickness, b, nPoints, line, fill);
+					break;
+				}
+				case CMD_CIRCLE:
+					drawCircle(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getInt(), b.getInt());
+					break;
+				case CMD_TEXT:
+					drawText(b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_TEXT_DEFINE: {
+					framePrimitives--;  // not a primitive in its own right
+					final int slot = b.getInt(), len = b.getInt();
+					if (textBytes.length < len) textBytes = new byte[Math.max(len, 2 * textBytes.length)];
+					b.get(textBytes, 0, len);
+					textCache.define(slot, new String(textBytes, 0, len, UTF_8));
+					break;
+				}
+				case CMD_CLIP:
+					clipRect(b.getInt(), b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_UNCLIP:
+					unClip(b.getInt(), b.getInt());
+					break;
+				case CMD_BLITTER_SAVE:
+					blitterSave(b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_BLITTER_LOAD:
+					blitterLoad(b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_BLITTER_ALLOC:
+					blitterAlloc(b.getInt(), b.getInt(), b.getInt());
+					break;
+				case CMD_BLITTER_FREE:
+					blitterFree(b.getInt());
+					break;
+				case CMD_FULL_REDRAW:
+					framePrimitives--;
+					if (listener != null) listener.onFullRedraw(b, b.position() - 4);
+					break;
+				case CMD_END_FRAME:
+					lastFramePrimitives = framePrimitives;
+					lastFramePolygons = framePolygons;
+					lastFrameDirty.set(dirty);
+					framePrimitives = framePolygons = 0;
+					if (listener != null) listener.onEndFrame();
+					break;
+				default:
+					throw new RuntimeException("Unknown draw command " + command);
+			}
+		}
+	}
+
+	/** Record that a primitive touched this rectangle in game coordinates; margin is for line
+	 *  width and anti-aliasing. Returns false (and records nothing) if it misses the bitmap
+	 *  entirely, in which case there's no need to draw it. */
+	private boolean markDirty(float left, float top, float right, float bottom, float margin) {
+		dirtyBounds.set(left - margin, top - margin, right + margin, bottom + margin);
+		zoomMatrix.mapRect(dirtyBounds);
+		return markDirtyPixels((int) Math.floor(dirtyBounds.left) - 1, (int) Math.floor(dirtyBounds.top) - 1,
+				(int) Math.ceil(dirtyBounds.right) + 1, (int) Math.ceil(dirtyBounds.bottom) + 1);
+	}
+
+	private boolean markDirtyPixels(int left, int top, int right, int bottom) {
+		if (right <= 0 || bottom <= 0 || left >= bitmapW || top >= bitmapH) return false;
+		dirty.union(left, top, right, bottom);
+		return true;
+	}
+
+	private void clipRect(int x, int y, int w, int h) {
+		canvas.restoreToCount(canvasRestoreJustAfterCreation);
+		canvasRestoreJustAfterCreation = canvas.save();
+		canvas.setMatrix(zoomMatrix);
+		canvas.clipRect(x - 0.5f, y - 0.5f, x + w - 0.5f, y + h - 0.5f);
+	}
+
+	private void unClip(int marginX, int marginY)
+	{
+		canvas.restoreToCount(canvasRestoreJustAfterCreation);
+		canvasRestoreJustAfterCreation = canvas.save();
+		canvas.setMatrix(zoomMatrix);
+		canvas.clipRect(marginX - 0.5f, marginY - 0.5f, wDip - marginX - 1.5f, hDip - marginY - 1.5f);
+	}
+
+	private void fillRect(final int x, final int y, final int w, final int h, final int colour)
+	{
+		if (!markDirty(x - 0.5f, y - 0.5f, x + w - 0.5f, y + h - 0.5f, 0)) return;
+		paint.setColor(colours[colour]);
+		paint.setStyle(Paint.Style.FILL);
+		paint.setAntiAlias(false);  // required for regions in Map to look continuous (and by API)
+		if (w == 1 && h == 1) {
+			canvas.drawPoint(x, y, paint);
+		} else if ((w == 1) ^ (h == 1)) {
+			canvas.drawLine(x, y, x + w - 1, y + h - 1, paint);
+		} else {
+			canvas.drawRect(x - 0.5f, y - 0.5f, x + w - 0.5f, y + h - 0.5f, paint);
+		}
+		paint.setAntiAlias(true);
+	}
+
+	private void drawLine(float thickness, float x1, float y1, float x2, float y2, int colour)
+	{
+		if (!markDirty(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), Math.max(thickness, 1.f))) return;
+		paint.setColor(colours[colour]);
+		paint.setStrokeWidth(Math.max(thickness, 1.f));
+		canvas.drawLine(x1, y1, x2, y2, paint);
+		paint.setStrokeWidth(1.f);
+	}
+
+	private void drawPoly(float thickness, ByteBuffer b, int nPoints, int line, int fill)
+	{
+		polyPath.rewind();
+		polyPath.moveTo(b.getInt(), b.getInt());
+		for(int i=1; i < nPoints; i++) {
+			polyPath.lineTo(b.getInt(), b.getInt());
+		}
+		polyPath.close();
+		polyPath.computeBounds(dirtyBounds, true);
+		if (!markDirty(dirtyBounds.left, dirtyBounds.top, dirtyBounds.right, dirtyBounds.bottom, Math.max(thickness, 1.f))) return;
+		// cheat slightly: polygons up to square look prettier without (and adjacent squares want to
+		// look continuous in lightup)
+		boolean disableAntiAlias = nPoints <= 4;
+		if (disableAntiAlias) paint.setAntiAlias(false);
+		drawPoly(thickness, polyPath, line, fill);
+		paint.setAntiAlias(true);
+	}
+
+	private void drawPoly(float thickness, Path p, int lineColour, int fillColour)
+	{
+		if (fillColour != -1) {
+			paint.setColor(colours[fillColour]);
+			paint.setStyle(Paint.Style.FILL);
+			canvas.drawPath(p, paint);
+		}
+		paint.setColor(colours[lineColour]);
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeWidth(Math.max(thickness, 1.f));
+		canvas.drawPath(p, paint);
+		paint.setStrokeWidth(1.f);
+	}
+
+	private void drawCircle(float thickness, float x, float y, float r, int lineColour, int fillColour)
+	{
+		if (r <= 0.5f) fillColour = lineColour;
+		r = Math.max(r, 0.4f);
+		if (!markDirty(x - r, y - r, x + r, y + r, Math.max(thickness, 1.f))) return;
+		if (fillColour != -1) {
+			paint.setColor(colours[fillColour]);
+			paint.setStyle(Paint.Style.FILL);
+			canvas.drawCircle(x, y, r, paint);
+		}
+		paint.setColor(colours[lineColour]);
+		paint.setStyle(Paint.Style.STROKE);
+		if (thickness > 1.f) {
+			paint.setStrokeWidth(thickness);
+		}
+		canvas.drawCircle(x, y, r, paint);
+		paint.setStrokeWidth(1.f);
+	}
+
+	private void drawText(int x, int y, int flags, int size, int colour, int slot)
+	{
+		final boolean mono = (flags & TEXT_MONO) != 0;
+		final float[] m = textCache.getMetrics(size, mono);
+		final float asc = m[0], desc = m[1];
+		if ((flags & ALIGN_V_CENTRE) != 0) y += asc - (asc+desc)/2;
+		final TextCache.Glyph glyph = textCache.getGlyph(slot, size, mono, getScale());
+		if (glyph != null) {
+			// a clue we've drawn before: blit it from the atlas at device resolution
+			float left = x;
+			if ((flags & ALIGN_H_CENTRE) != 0) left -= glyph.width / 2;
+			else if ((flags & ALIGN_H_RIGHT) != 0) left -= glyph.width;
+			textPoint[0] = left;
+			textPoint[1] = y;
+			zoomMatrix.mapPoints(textPoint);
+			final int dstX = Math.round(textPoint[0]) + glyph.offsetX, dstY = Math.round(textPoint[1]) + glyph.offsetY;
+			textDst.set(dstX, dstY, dstX + glyph.src.width(), dstY + glyph.src.height());
+			if (!markDirtyPixels(textDst.left, textDst.top, textDst.right, textDst.bottom)) return;
+			atlasPaint.setColor(colours[colour]);
+			canvas.save();
+			canvas.setMatrix(null);
+			canvas.drawBitmap(textCache.getAtlas(), glyph.src, textDst, atlasPaint);
+			canvas.restore();
+			return;
+		}
+		paint.setColor(colours[colour]);
+		paint.setStyle(Paint.Style.FILL);
+		final Typeface typeface = mono ? Typeface.MONOSPACE : Typeface.DEFAULT;
+		if (paint.getTypeface() != typeface) paint.setTypeface(typeface);
+		if (paint.getTextSize() != size) paint.setTextSize(size);
+		if ((flags & ALIGN_H_CENTRE) != 0) paint.setTextAlign( Paint.Align.CENTER );
+		else if ((flags & ALIGN_H_RIGHT) != 0) paint.setTextAlign( Paint.Align.RIGHT );
+		else paint.setTextAlign( Paint.Align.LEFT );
+		final String text = textCache.get(slot);
+		final float width = paint.measureText(text);
+		final float left = ((flags & ALIGN_H_CENTRE) != 0) ? x - width / 2
+				: ((flags & ALIGN_H_RIGHT) != 0) ? x - width : x;
+		if (!markDirty(left, y - asc, left + width, y + desc, 1.f)) return;
+		canvas.drawText(text, x, y, paint);
+	}
+
+	private void blitterAlloc(int i, int w, int h)
+	{
+		blitters.alloc(i, w, h, getScale());
+	}
+
+	private void blitterFree(int i)
+	{
+		blitters.free(i);
+	}
+
+	/** Sets blitterPoint to the top left pixel of the blitter at game coordinates x, y. */
+	private void blitterPosition(int x, int y) {
+		blitterPoint[0] = x;
+		blitterPoint[1] = y;
+		zoomMatrix.mapPoints(blitterPoint);
+		blitterPoint[0] = (float) Math.floor(blitterPoint[0]);
+		blitterPoint[1] = (float) Math.floor(blitterPoint[1]);
+	}
+
+	private void blitterSave(int i, int x, int y)
+	{
+		final BlitterArena.Slot slot = blitters.get(i);
+		if (slot == null) return;
+		blitterPosition(x, y);
+		slot.canvas.drawBitmap(bitmap, -blitterPoint[0], -blitterPoint[1], null);
+	}
+
+	private void blitterLoad(int i, int x, int y)
+	{
+		final BlitterArena.Slot slot = blitters.get(i);
+		if (slot == null) return;
+		blitterPosition(x, y);
+		final int left = (int) blitterPoint[0], top = (int) blitterPoint[1];
+		bitmapCanvas.drawBitmap(slot.bitmap, left, top, null);
+		markDirtyPixels(left, top, left + slot.bitmap.getWidth(), top + slot.bitmap.getHeight());
+	}
+}
@@ -1,6 +1,7 @@
 package name.boyle.chris.sgtpuzzles;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapShader;
@@ -8,18 +9,16 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
-import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
-import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.HapticFeedbackConstants;
@@ -32,11 +31,17 @@ import android.widget.EdgeEffect;
 import android.widget.OverScroller;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.core.view.GestureDetectorCompat;
 import androidx.core.view.ScaleGestureDetectorCompat;
 import androidx.core.view.ViewCompat;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 import static android.view.InputDevice.SOURCE_MOUSE;
 import static android.view.InputDevice.SOURCE_STYLUS;
 import static android.view.MotionEvent.TOOL_TYPE_STYLUS;
@@ -45,12 +50,22 @@ import static androidx.core.view.MotionEventCompat.isFromSource;
 public class GameView extends View
 {
 	private GamePlay parent;
-	private Bitmap bitmap;
-	private Canvas canvas;
-	private int canvasRestoreJustAfterCreation;
-	private final Paint paint;
+	private TileCache tiles;
+	/** Rendering the tiles for the end of a pinch, if one is in progress. */
+	private ZoomRender zoomRender = null;
+	private final Matrix targetZoomMatrix = new Matrix();
+	private final Rect zoomRenderTiles = new Rect();
+	/** Tiles to rasterize in onDraw before leaving the rest for the next frame. */
+	private static final int MAX_TILES_PER_DRAW = 2;
+	private final Rect visibleTiles = new Rect(), prefetchTiles = new Rect();
+	private final RectF visibleContent = new RectF(), storeBounds = new RectF();
+	private boolean visibleCovered = false;
+	private final Matrix contentToView = new Matrix(), viewToContent = new Matrix();
+	private boolean fullRedrawRequested = false;
+	private Drawable editModePlaceholder = null;
+	private final DisplayList displayList = new DisplayList();
+	private int displayListStart = 0;
 	private final Paint checkerboardPaint;
-	private final Bitmap[] blitters;
 	private int[] colours = new int[0];
 	private float density = 1.f;
 	enum LimitDPIMode { LIMIT_OFF, LIMIT_AUTO, LIMIT_ON }
@@ -81,15 +96,32 @@ public class GameView extends View
 	static final int FIRST_MOUSE = LEFT_BUTTON, LAST_MOUSE = 0x208;
 	private static final int MOD_CTRL = 0x1000;
 	private static final int MOD_SHIFT = 0x2000;
-	private static final int ALIGN_V_CENTRE = 0x100;
-	private static final int ALIGN_H_CENTRE = 0x001;
-	private static final int ALIGN_H_RIGHT = 0x002;
-	private static final int TEXT_MONO = 0x10;
 	private static final int DRAG = LEFT_DRAG - LEFT_BUTTON;  // not bit fields, but there's a pattern
 			private static final int RELEASE = LEFT_RELEASE - LEFT_BUTTON;
 	static final int CURSOR_UP = 0x209, CURSOR_DOWN = 0x20a,
 			CURSOR_LEFT = 0x20b, CURSOR_RIGHT = 0x20c, UI_UNDO = 0x213, UI_REDO = 0x214, MOD_NUM_KEYPAD = 0x4000;
 	int keysHandled = 0;  // debug
+	private static final int DRAW_BUFFER_SIZE = 64 * 1024;
+	// drawBuffer and pendingFrame belong to the engine thread; completed frames are handed to
+	// the UI thread for replay, and their buffers come back via freeDrawBuffers
+	private ByteBuffer drawBuffer = allocateDrawBuffer(DRAW_BUFFER_SIZE);
+	private ArrayList<ByteBuffer> pendingFrame = new ArrayList<>();
+	private int pendingUpcalls = 0;
+	private final ArrayDeque<ByteBuffer> freeDrawBuffers = new ArrayDeque<>();
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final float[] matrixValues = new float[9];
+	private final Rect dirty = new Rect();
+	private final RectF dirtyBounds = new RectF();
+	private final Matrix invalidateMatrix = new Matrix();
+	/** For benchmarking: in the last complete frame, how many primitives the game drew
+	 *  (i.e. upcalls we'd have made without batching), how many JNI upcalls we took, and
+	 *  how many of the primitives were polygons. */
+	int lastFramePrimitives = 0, lastFrameUpcalls = 0, lastFramePolygons = 0;
+	/** Run (once) on the UI thread when the next frame has been replayed. */
+	Runnable afterNextFrame = null;
+	/** Likewise, the part of the picture the last frame touched, in content pixels (empty if
+	 *  none). */
+	final Rect lastFrameDirty = new Rect();
 	private ScaleGestureDetector scaleDetector = null;
 	private final GestureDetectorCompat gestureDetector;
 	private static final float MAX_ZOOM = 30.f;
@@ -98,18 +130,18 @@ public class GameView extends View
 	private final Matrix zoomMatrix = new Matrix();
 	private final Matrix zoomInProgressMatrix = new Matrix();
 	private final Matrix inverseZoomMatrix = new Matrix();
-	private final Matrix tempDrawMatrix = new Matrix();
 	private enum DragMode { UNMODIFIED, REVERT_OFF_SCREEN, REVERT_TO_START, PREVENT }
 	private DragMode dragMode = DragMode.UNMODIFIED;
 	private final OverScroller mScroller;
 	private final EdgeEffect[] edges = new EdgeEffect[4];
-	// ARGB_8888 is viewable in Android Studio debugger but very memory-hungry
-	// It's also necessary to work around a 4.1 bug https://github.com/chrisboyle/sgtpuzzles/issues/63
-	private static final Bitmap.Config BITMAP_CONFIG =
-			(Build.VERSION.SDK_INT == Build.VERSION_CODES.JELLY_BEAN)  // bug only seen on 4.1.x
-					? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
-	native float[] getColours();
-	native float suggestDensity(int x, int y);
+	/** The game's colours (r, g, b floats) and its size at the default tile size: read by the
+	 *  worker that started it, with the engine's lock held, and handed over by {@link #setGame}
+	 *  so that the UI thread needn't ask the engine when colours or density change. */
+	private float[] gameColours = new float[0];
+	private int defaultW = 0, defaultH = 0;
+	native float[] getColours(long handle);
+	/** Resets the tile size to the game's preference. @return {w, h} at that size, or null */
+	native int[] getDefaultSize(long handle);
 
 	public GameView(Context context, AttributeSet attrs)
 	{
@@ -117,19 +149,12 @@ public class GameView extends View
 		if (! isInEditMode()) {
 			this.parent = (GamePlay) context;
 		}
-		bitmap = Bitmap.createBitmap(100, 100, BITMAP_CONFIG);  // for safety
-		canvas = new Canvas(bitmap);
-		canvasRestoreJustAfterCreation = canvas.save();
-		paint = new Paint();
-		paint.setAntiAlias(true);
-		paint.setStrokeCap(Paint.Cap.SQUARE);
-		paint.setStrokeWidth(1.f);  // will be scaled with everything else as long as it's non-zero
+		tiles = new TileCache(tileBudget(context));
 		checkerboardPaint = new Paint();
 		final Drawable checkerboardDrawable = ContextCompat.getDrawable(getContext(), R.drawable.checkerboard);
 		if (checkerboardDrawable == null) throw new RuntimeException("Missing R.drawable.checkerboard");
 		final Bitmap checkerboard = ((BitmapDrawable) checkerboardDrawable).getBitmap();
 		checkerboardPaint.setShader(new BitmapShader(checkerboard, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT));
-		blitters = new Bitmap[512];
 		maxDistSq = Math.pow(ViewConfiguration.get(context).getScaledTouchSlop(), 2);
 		backgroundColour = getDefaultBackgroundColour();
 		mScroller = new OverScroller(context);
@@ -231,8 +256,8 @@ public class GameView extends View
 	};
 
 	public void setDragModeFor(final String whichBackend) {
-		final int modeId = getResources().getIdentifier(whichBackend + "_drag_mode", "string", getContext().getPackageName());
-		if (modeId <= 0) {
+		final int modeId = BackendRegistry.get(BackendRegistry.DRAG_MODE, whichBackend);
+		if (modeId == 0) {
 			dragMode = DragMode.UNMODIFIED;
 			return;
 		}
@@ -305,7 +330,7 @@ public class GameView extends View
 		} else if (exceedsTouchSlop(hDip - bottomRight.y)) {
 			edges[2].onRelease();
 		}
-		canvas.setMatrix(zoomMatrix);
+		tiles.setScale(getXScale(zoomMatrix));
 		invertZoomMatrix();  // now with our changes
 	}
 
@@ -339,6 +364,12 @@ public class GameView extends View
 	@TargetApi(Build.VERSION_CODES.FROYO)
 	private void enablePinchZoom() {
 		scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			@Override
+			public boolean onScaleBegin(ScaleGestureDetector detector) {
+				cancelZoomRender();  // its scale is about to be out of date
+				return true;
+			}
+
 			@Override
 			public boolean onScale(ScaleGestureDetector detector) {
 				float factor = detector.getScaleFactor();
@@ -367,8 +398,9 @@ public class GameView extends View
 	}
 
 	void resetZoomForClear() {
+		cancelZoomRender();
 		resetZoomMatrix();
-		canvas.setMatrix(zoomMatrix);
+		tiles.setScale(getXScale(zoomMatrix));
 		invertZoomMatrix();
 	}
 
@@ -394,21 +426,92 @@ public class GameView extends View
 			parent.zoomedIn();
 		}
 		zoomMatrixUpdated(false);  // constrains zoomInProgressMatrix
+		if (parent != null && startZoomRender()) {
+			ViewCompat.postInvalidateOnAnimation(GameView.this);
+			return;
+		}
+		cancelZoomRender();
 		zoomMatrix.postConcat(zoomInProgressMatrix);
 		zoomInProgressMatrix.reset();
-		canvas.setMatrix(zoomMatrix);
+		tiles.setScale(getXScale(zoomMatrix));  // after a pan, the tiles we have are still good
 		invertZoomMatrix();
 		if (parent != null) {
-			clear();
-			parent.gameViewResized();  // not just forceRedraw() - need to reallocate blitters
+			// re-rasterize what we've already been told at the new scale, or ask the midend
+			tiles.beginPass();
+			if (visibleTileRange(0, 0, visibleTiles)) fetchTiles(visibleTiles, Integer.MAX_VALUE);
 		}
 		ViewCompat.postInvalidateOnAnimation(GameView.this);
 	}
 
+	private static boolean sameScale(float a, float b) {
+		return Math.abs(a - b) <= 1e-4f * b;
+	}
+
+	/** At the end of a pinch that changed the scale, starts rendering the tiles in view at the
+	 *  new scale in the background (or lets the render already doing that carry on) and returns
+	 *  true; until it's done the old tiles stay up, stretched by zoomInProgressMatrix. Returns
+	 *  false if the caller should just apply the new zoom now. */
+	private boolean startZoomRender() {
+		if (!displayList.isValid() || getXScale(zoomMatrix) != tiles.getScale()) return false;
+		targetZoomMatrix.set(zoomMatrix);
+		targetZoomMatrix.postConcat(zoomInProgressMatrix);
+		targetZoomMatrix.getValues(matrixValues);
+		final float scale = matrixValues[Matrix.MSCALE_X];
+		if (sameScale(scale, tiles.getScale())) return false;  // just a pan
+		if (zoomRender != null) {
+			if (sameScale(scale, zoomRender.scale)) return true;
+			cancelZoomRender();
+		}
+		// as in getContentToViewMatrix, but for the zoom as it will be
+		contentToView.setTranslate(matrixValues[Matrix.MTRANS_X] - overdrawX, matrixValues[Matrix.MTRANS_Y] - overdrawY);
+		if (!tileRange(contentToView, scale, 0, 0, zoomRenderTiles)) return false;
+		final TileCache staging = new TileCache(tiles.getBudget());
+		staging.setScale(scale);
+		staging.setSize(wDip, hDip);
+		staging.setColours(colours);
+		staging.setBackground(backgroundColour);
+		zoomRender = new ZoomRender(scale, displayList, zoomRenderTiles, staging, uiHandler, this::finishZoomRender);
+		zoomRender.start();
+		return true;
+	}
+
+	private void cancelZoomRender() {
+		if (zoomRender == null) return;
+		zoomRender.cancel();
+		zoomRender = null;
+	}
+
+	/** Swaps in the tiles a ZoomRender made, along with the zoom they were made for. */
+	private void finishZoomRender(final ZoomRender r) {
+		if (r != zoomRender) {  // cancelled
+			r.tiles.release();
+			return;
+		}
+		zoomRender = null;
+		if (r.generation != displayList.getGeneration()) {
+			// the midend redrew from scratch meanwhile, so the snapshot is no good: start again
+			r.tiles.release();
+			redrawForZoomChange();
+			return;
+		}
+		r.tiles.replay(displayList.read(r.snapshotSize), null);  // catch up
+		r.tiles.takeDirty(dirty);
+		zoomMatrixUpdated(false);  // constrains any panning since
+		zoomMatrix.postConcat(zoomInProgressMatrix);
+		zoomInProgressMatrix.reset();
+		// exactly the scale the tiles were made for, whatever rounding has crept in
+		zoomMatrix.getValues(matrixValues);
+		matrixValues[Matrix.MSCALE_X] = matrixValues[Matrix.MSCALE_Y] = r.scale;
+		zoomMatrix.setValues(matrixValues);
+		tiles.release();
+		tiles = r.tiles;
+		invertZoomMatrix();
+		ViewCompat.postInvalidateOnAnimation(GameView.this);
+	}
+
 	private float getXScale(Matrix m) {
-		float[] values = new float[9];
-		m.getValues(values);
-		return values[Matrix.MSCALE_X];
+		m.getValues(matrixValues);
+		return matrixValues[Matrix.MSCALE_X];
 	}
 
 	private PointF pointFromEvent(MotionEvent event) {
@@ -617,19 +720,29 @@ public class GameView extends View
 	@Override
 	protected void onDraw( Canvas c )
 	{
-		if( bitmap == null ) return;
-		tempDrawMatrix.reset();
-		tempDrawMatrix.preTranslate(-overdrawX, -overdrawY);
-		tempDrawMatrix.preConcat(zoomInProgressMatrix);
+		if (editModePlaceholder != null) {
+			editModePlaceholder.draw(c);
+			return;
+		}
+		tiles.beginPass();
+		final boolean inView = visibleTileRange(0, 0, visibleTiles);
+		boolean covered = visibleCovered;
+		// while a ZoomRender is running, tiles at the old scale aren't worth making
+		if (inView && fetchTiles(visibleTiles, (zoomRender == null) ? MAX_TILES_PER_DRAW : 0)) {
+			covered = false;
+			if (zoomRender == null) ViewCompat.postInvalidateOnAnimation(this);  // fetch the rest next frame
+		}
 		final int restore = c.save();
-		c.concat(tempDrawMatrix);
-		float[] f = { 0, 0, bitmap.getWidth(), bitmap.getHeight() };
-		tempDrawMatrix.mapPoints(f);
-		if (f[0] > 0 || f[1] < w || f[2] < 0 || f[3] > h) {
+		c.concat(contentToView);
+		if (!covered) {
 			c.drawPaint(checkerboardPaint);
 		}
-		c.drawBitmap(bitmap, 0, 0, null);
+		if (inView) {
+			tiles.draw(c, visibleTiles.left, visibleTiles.top, visibleTiles.right, visibleTiles.bottom);
+		}
 		c.restoreToCount(restore);
+		uiHandler.removeCallbacks(prefetch);
+		uiHandler.post(prefetch);
 		boolean keepAnimating = false;
 		for (int i = 0; i < 4; i++) {
 			if (!edges[i].isFinished()) {
@@ -654,6 +767,96 @@ public class GameView extends View
 		}
 	}
 
+	private void getBitmapToViewMatrix(Matrix m) {
+		m.reset();
+		m.preTranslate(-overdrawX, -overdrawY);
+		m.preConcat(zoomInProgressMatrix);
+	}
+
+	/** Content pixels (game units times the zoomed scale, where tiles live) to the view: the
+	 *  same as bitmap pixels, except that zoomMatrix's translation isn't baked in. */
+	private void getContentToViewMatrix(Matrix m) {
+		getBitmapToViewMatrix(m);
+		zoomMatrix.getValues(matrixValues);
+		m.preTranslate(matrixValues[Matrix.MTRANS_X], matrixValues[Matrix.MTRANS_Y]);
+	}
+
+	/** Finds the tiles in view, plus a margin in view pixels, as an inclusive range in out.
+	 *  Only tiles within the game (or the overdraw around it) are included; visibleCovered
+	 *  says whether they cover the whole area asked for. Returns false if there are none. */
+	private boolean visibleTileRange(float marginX, float marginY, Rect out) {
+		getContentToViewMatrix(contentToView);
+		return tileRange(contentToView, tiles.getScale(), marginX, marginY, out);
+	}
+
+	/** As visibleTileRange, for any mapping from content pixels at this scale to the view. */
+	private boolean tileRange(final Matrix contentToView, final float scale,
+			final float marginX, final float marginY, final Rect out) {
+		if (!contentToView.invert(viewToContent)) return false;
+		visibleContent.set(-marginX, -marginY, w + marginX, h + marginY);
+		viewToContent.mapRect(visibleContent);
+		storeBounds.set(-overdrawX, -overdrawY, wDip * scale + overdrawX, hDip * scale + overdrawY);
+		visibleCovered = storeBounds.contains(visibleContent);
+		if (!visibleContent.intersect(storeBounds)) return false;
+		out.set((int) Math.floor(visibleContent.left / TileCache.TILE_SIZE),
+				(int) Math.floor(visibleContent.top / TileCache.TILE_SIZE),
+				(int) Math.floor((Math.ceil(visibleContent.right) - 1) / TileCache.TILE_SIZE),
+				(int) Math.floor((Math.ceil(visibleContent.bottom) - 1) / TileCache.TILE_SIZE));
+		return true;
+	}
+
+	/** Makes up to limit of the missing tiles in range resident, rasterized from the display
+	 *  list, or blank pending a full redraw from the midend if the list can't provide them.
+	 *  Returns whether any are still missing. */
+	private boolean fetchTiles(final Rect range, int limit) {
+		boolean missing = false;
+		for (int y = range.top; y <= range.bottom; y++) {
+			for (int x = range.left; x <= range.right; x++) {
+				if (tiles.get(x, y) != null) continue;
+				if (limit-- <= 0) {
+					missing = true;
+					continue;
+				}
+				tiles.create(x, y, displayList);
+				if (!displayList.isValid()) requestFullRedraw();
+			}
+		}
+		return missing;
+	}
+
+	private void requestFullRedraw() {
+		if (fullRedrawRequested || parent == null) return;
+		fullRedrawRequested = true;
+		parent.gameViewResized();  // not just forceRedraw() - need to reallocate blitters
+	}
+
+	/** Rasterizes one tile just out of view per message while the UI thread is otherwise idle,
+	 *  so that a small pan or pinch finds them ready; never evicts anything to do so. */
+	private final Runnable prefetch = new Runnable() {
+		@Override
+		public void run() {
+			if (zoomRender != null || !displayList.isValid() || !tiles.hasRoom()) return;
+			if (!visibleTileRange(overdrawX, overdrawY, prefetchTiles)) return;
+			for (int y = prefetchTiles.top; y <= prefetchTiles.bottom; y++) {
+				for (int x = prefetchTiles.left; x <= prefetchTiles.right; x++) {
+					if (tiles.get(x, y) == null) {
+						tiles.create(x, y, displayList);
+						uiHandler.post(this);
+						return;
+					}
+				}
+			}
+		}
+	};
+
+	/** A quarter of the app's heap, up to 64MB, for tiles; those in view are kept even if
+	 *  that's not enough. */
+	private static long tileBudget(final Context context) {
+		final ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		final int memoryClassMB = (am != null) ? am.getMemoryClass() : 16;
+		return Math.min(64, memoryClassMB / 4) * 1024L * 1024L;
+	}
+
 	@Override
 	protected void onSizeChanged(int viewW, int viewH, int oldW, int oldH)
 	{
@@ -668,7 +871,7 @@ public class GameView extends View
 			int s = Math.min(w, h);
 			int mx = (w-s)/2, my = (h-s)/2;
 			d.setBounds(new Rect(mx,my,mx+s,my+s));
-			d.draw(canvas);
+			editModePlaceholder = d;
 		}
 	}
 
@@ -678,7 +881,7 @@ public class GameView extends View
 				density = 1.f;
 				break;
 			case LIMIT_AUTO:
-				density = Math.min(suggestDensity(w, h), getResources().getDisplayMetrics().density);
+				density = Math.min(suggestDensity(), getResources().getDisplayMetrics().density);
 				break;
 			case LIMIT_ON:
 				density = getResources().getDisplayMetrics().density;
@@ -687,44 +890,37 @@ public class GameView extends View
 		Log.d("GameView", "density: " + density);
 		wDip = Math.max(1, Math.round((float) w / density));
 		hDip = Math.max(1, Math.round((float) h / density));
-		if (bitmap != null) bitmap.recycle();
+		// No texture size limit to worry about (https://github.com/chrisboyle/sgtpuzzles/issues/199)
+		// now that this is only how far tiles are prefetched, and where checkerboard starts
 		overdrawX = Math.round(Math.round(ZOOM_OVERDRAW_PROPORTION * wDip) * density);
 		overdrawY = Math.round(Math.round(ZOOM_OVERDRAW_PROPORTION * hDip) * density);
-		// texture size limit, see http://stackoverflow.com/a/7523221/6540
-		final Point maxTextureSize = getMaxTextureSize();
-		// Assumes maxTextureSize >= (w,h) otherwise you get checkerboard edges
-		// https://github.com/chrisboyle/sgtpuzzles/issues/199
-		overdrawX = Math.min(overdrawX, (maxTextureSize.x - w) / 2);
-		overdrawY = Math.min(overdrawY, (maxTextureSize.y - h) / 2);
-		bitmap = Bitmap.createBitmap(Math.max(1, w + 2 * overdrawX), Math.max(1, h + 2 * overdrawY), BITMAP_CONFIG);
-		clear();
-		canvas = new Canvas(bitmap);
-		canvasRestoreJustAfterCreation = canvas.save();
+		tiles.setSize(wDip, hDip);
+		tiles.evictAll();  // the game's layout will change, so we need the midend
+		displayList.invalidate();
 		resetZoomForClear();
 		redrawForZoomChange();
 	}
 
-	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-	private Point getMaxTextureSize() {
-		final int maxW = canvas.getMaximumBitmapWidth();
-		final int maxH = canvas.getMaximumBitmapHeight();
-		if (maxW < 2048 || maxH < 2048) {
-			return new Point(maxW, maxH);
-		}
-		// maxW/maxH are otherwise likely a lie, and we should be careful of OOM risk anyway
-		// https://github.com/chrisboyle/sgtpuzzles/issues/195
-		final DisplayMetrics metrics = getResources().getDisplayMetrics();
-		final int largestDimension = Math.max(metrics.widthPixels, metrics.heightPixels);
-		return (largestDimension > 2048) ? new Point(4096, 4096) : new Point(2048, 2048);
+	/** Whole pixels per dip that still fit the game's default size in the view, at least 1. */
+	private float suggestDensity() {
+		if (defaultW <= 0 || defaultH <= 0) return 1.f;
+		return Math.max(1.f, Math.min((float) Math.floor((float) w / defaultW), (float) Math.floor((float) h / defaultH)));
 	}
 
 	public void clear()
 	{
-		bitmap.eraseColor(backgroundColour);
+		tiles.clear();
+	}
+
+	/** Called on the UI thread with what the start-game worker read; see {@link #gameColours}. */
+	void setGame(@NonNull final float[] colours, @Nullable final int[] defaultSize) {
+		gameColours = colours;
+		defaultW = (defaultSize != null) ? defaultSize[0] : 0;
+		defaultH = (defaultSize != null) ? defaultSize[1] : 0;
 	}
 
 	void refreshColours(final String whichBackend) {
-		final float[] newColours = getColours();
+		final float[] newColours = gameColours;
 		colours = new int[newColours.length / 3];
 		for (int i = 0; i < newColours.length / 3; i++) {
 			final int colour = Color.rgb(
@@ -735,27 +931,13 @@ public class GameView extends View
 		}
 		if (night) {
 			colours[0] = ContextCompat.getColor(getContext(), R.color.night_game_background);
-			final String colourNamesJoined = getResources().getString(getResources().getIdentifier(whichBackend + "_colours", "string", parent.getPackageName()));
-			final String[] colourNames = colourNamesJoined.split(",");
-			for (int i = 1; i < colours.length; i++) {
-				final boolean noName = i - 1 >= colourNames.length;
-				String colourName = noName ? "unnamed_" + (i - 1) : colourNames[i - 1];
-				if ("signpost".equals(whichBackend) && noName) {
-					int offset = i - (colourNames.length);
-					int category = offset / 16;
-					int chain = offset % 16;
-					colourName = ((category == 0) ? "b" :
-							(category == 1) ? "m" :
-							(category == 2) ? "d" : "x") + chain;
-				}
-				final String resourceName = whichBackend + "_night_colour_" + colourName;
-				//Log.d("GameView", "\t<color name=\"" + resourceName + "\">" + String.format("#%06x", (0xFFFFFF & colours[i])) + "</color>");
-				final int nightColourId = getResources().getIdentifier(resourceName, "color", parent.getPackageName());
-				if (nightColourId > 0) {
-					colours[i] = ContextCompat.getColor(getContext(), nightColourId);
-				}
+			final int[] nightColours = NightPalettes.forBackend(whichBackend);  // generated at build time
+			for (int i = 1; i < colours.length && i - 1 < nightColours.length; i++) {
+				if (nightColours[i - 1] != 0) colours[i] = nightColours[i - 1];
 			}
 		}
+		tiles.setColours(colours);
+		displayList.invalidate();  // until the redraw that follows, which will use the new colours
 		if (colours.length > 0) {
 			setBackgroundColor(colours[0]);
 		} else {
@@ -767,170 +949,134 @@ public class GameView extends View
 	public void setBackgroundColor(int colour) {
 		super.setBackgroundColor(colour);
 		backgroundColour = colour;
+		if (tiles != null) tiles.setBackground(colour);  // null if called during construction
 	}
 
-	/** Unfortunately backends do things like setting other colours as fractions of this, so
-	 *  e.g. black (night mode) would make all of Undead's monsters white - but we replace all
-	 *  the colours in night mode anyway. */
-	@UsedByJNI
-	int getDefaultBackgroundColour() {
-		return ContextCompat.getColor(getContext(), R.color.game_background);
-	}
-
-	@UsedByJNI
-	void clipRect(int x, int y, int w, int h) {
-		canvas.restoreToCount(canvasRestoreJustAfterCreation);
-		canvasRestoreJustAfterCreation = canvas.save();
-		canvas.setMatrix(zoomMatrix);
-		canvas.clipRect(new RectF(x - 0.5f, y - 0.5f, x + w - 0.5f, y + h - 0.5f));
+	private static ByteBuffer allocateDrawBuffer(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
 	}
 
+	/** Called on the engine thread when android.c has encoded length bytes of draw commands
+	 *  into drawBuffer. Once the frame is complete, all of its buffers are replayed together
+	 *  on the UI thread, so onDraw never sees half a frame. Returns the buffer to encode into
+	 *  next, with room for at least minFree bytes. */
 	@UsedByJNI
-	void unClip(int marginX, int marginY)
+	ByteBuffer flushDrawCommands(int length, int minFree, boolean endOfFrame)
 	{
-		canvas.restoreToCount(canvasRestoreJustAfterCreation);
-		canvasRestoreJustAfterCreation = canvas.save();
-		canvas.setMatrix(zoomMatrix);
-		canvas.clipRect(marginX - 0.5f, marginY - 0.5f, wDip - marginX - 1.5f, hDip - marginY - 1.5f);
-	}
-
-	@UsedByJNI
-	void fillRect(final int x, final int y, final int w, final int h, final int colour)
-	{
-		paint.setColor(colours[colour]);
-		paint.setStyle(Paint.Style.FILL);
-		paint.setAntiAlias(false);  // required for regions in Map to look continuous (and by API)
-		if (w == 1 && h == 1) {
-			canvas.drawPoint(x, y, paint);
-		} else if ((w == 1) ^ (h == 1)) {
-			canvas.drawLine(x, y, x + w - 1, y + h - 1, paint);
-		} else {
-			canvas.drawRect(x - 0.5f, y - 0.5f, x + w - 0.5f, y + h - 0.5f, paint);
+		pendingUpcalls++;
+		if (length > 0) {
+			drawBuffer.clear();
+			drawBuffer.limit(length);
+			pendingFrame.add(drawBuffer);
+			drawBuffer = null;
 		}
-		paint.setAntiAlias(true);
-	}
-
-	@UsedByJNI
-	void drawLine(float thickness, float x1, float y1, float x2, float y2, int colour)
-	{
-		paint.setColor(colours[colour]);
-		paint.setStrokeWidth(Math.max(thickness, 1.f));
-		canvas.drawLine(x1, y1, x2, y2, paint);
-		paint.setStrokeWidth(1.f);
+		if (endOfFrame) {
+			final ArrayList<ByteBuffer> frame = pendingFrame;
+			final int upcalls = pendingUpcalls;
+			pendingFrame = new ArrayList<>();
+			pendingUpcalls = 0;
+			uiHandler.post(() -> replayFrame(frame, upcalls));
+		}
+		if (drawBuffer == null || drawBuffer.capacity() < minFree) {
+			drawBuffer = obtainDrawBuffer(minFree);
+		}
+		return drawBuffer;
 	}
 
-	@UsedByJNI
-	void drawPoly(float thickness, int[] points, int ox, int oy, int line, int fill)
-	{
-		Path path = new Path();
-		path.moveTo(points[0] + ox, points[1] + oy);
-		for(int i=1; i < points.length/2; i++) {
-			path.lineTo(points[2 * i] + ox, points[2 * i + 1] + oy);
+	private ByteBuffer obtainDrawBuffer(int minFree) {
+		synchronized (freeDrawBuffers) {
+			final ByteBuffer b = freeDrawBuffers.poll();
+			if (b != null && b.capacity() >= minFree) return b;
 		}
-		path.close();
-		// cheat slightly: polygons up to square look prettier without (and adjacent squares want to
-		// look continuous in lightup)
-		boolean disableAntiAlias = points.length <= 8;  // 2 per point
-		if (disableAntiAlias) paint.setAntiAlias(false);
-		drawPoly(thickness, path, line, fill);
-		paint.setAntiAlias(true);
+		return allocateDrawBuffer(Math.max(minFree, DRAW_BUFFER_SIZE));
 	}
 
-	private void drawPoly(float thickness, Path p, int lineColour, int fillColour)
-	{
-		if (fillColour != -1) {
-			paint.setColor(colours[fillColour]);
-			paint.setStyle(Paint.Style.FILL);
-			canvas.drawPath(p, paint);
+	private void replayFrame(final ArrayList<ByteBuffer> frame, final int upcalls) {
+		if (tiles.size() == 0) {  // need somewhere to draw it, if only to hear about it
+			tiles.beginPass();
+			if (visibleTileRange(0, 0, visibleTiles)) fetchTiles(visibleTiles, Integer.MAX_VALUE);
+		}
+		for (ByteBuffer b : frame) {
+			b.rewind();
+			displayListStart = 0;
+			tiles.replay(b, rendererListener);
+			displayList.append(b, displayListStart);
+			if (b.capacity() == DRAW_BUFFER_SIZE) {  // don't hang on to unusually big ones
+				synchronized (freeDrawBuffers) {
+					freeDrawBuffers.add(b);
+				}
+			}
+		}
+		lastFrameUpcalls = upcalls;
+		invalidateDirty();
+		if (afterNextFrame != null) {
+			final Runnable r = afterNextFrame;
+			afterNextFrame = null;
+			r.run();
 		}
-		paint.setColor(colours[lineColour]);
-		paint.setStyle(Paint.Style.STROKE);
-		paint.setStrokeWidth(Math.max(thickness, 1.f));
-		canvas.drawPath(p, paint);
-		paint.setStrokeWidth(1.f);
 	}
 
-	@UsedByJNI
-	void drawCircle(float thickness, float x, float y, float r, int lineColour, int fillColour)
-	{
-		if (r <= 0.5f) fillColour = lineColour;
-		r = Math.max(r, 0.4f);
-		if (fillColour != -1) {
-			paint.setColor(colours[fillColour]);
-			paint.setStyle(Paint.Style.FILL);
-			canvas.drawCircle(x, y, r, paint);
+	private final GameRenderer.Listener rendererListener = new GameRenderer.Listener() {
+		@Override
+		public void onFullRedraw(ByteBuffer b, int offset) {
+			displayList.reset();
+			displayListStart = offset;
+			fullRedrawRequested = false;
 		}
-		paint.setColor(colours[lineColour]);
-		paint.setStyle(Paint.Style.STROKE);
-		if (thickness > 1.f) {
-			paint.setStrokeWidth(thickness);
+
+		@Override
+		public void onEndFrame() {
+			final GameRenderer primary = tiles.getPrimary();
+			lastFramePrimitives = primary.lastFramePrimitives;
+			lastFramePolygons = primary.lastFramePolygons;
 		}
-		canvas.drawCircle(x, y, r, paint);
-		paint.setStrokeWidth(1.f);
-	}
+	};
 
-	@UsedByJNI
-	void drawText(int x, int y, int flags, int size, int colour, String text)
-	{
-		paint.setColor(colours[colour]);
-		paint.setStyle(Paint.Style.FILL);
-		paint.setTypeface( (flags & TEXT_MONO) != 0 ? Typeface.MONOSPACE : Typeface.DEFAULT );
-		paint.setTextSize(size);
-		Paint.FontMetrics fm = paint.getFontMetrics();
-		float asc = Math.abs(fm.ascent), desc = Math.abs(fm.descent);
-		if ((flags & ALIGN_V_CENTRE) != 0) y += asc - (asc+desc)/2;
-		if ((flags & ALIGN_H_CENTRE) != 0) paint.setTextAlign( Paint.Align.CENTER );
-		else if ((flags & ALIGN_H_RIGHT) != 0) paint.setTextAlign( Paint.Align.RIGHT );
-		else paint.setTextAlign( Paint.Align.LEFT );
-		canvas.drawText(text, x, y, paint);
+	/** The current picture at any scale (bitmap pixels per game unit), rendered from the
+	 *  display list without involving the midend; null if there's no complete list yet. */
+	Bitmap renderAt(float scale) {
+		return displayList.rasterize(scale, wDip, hDip, colours, backgroundColour);
 	}
 
-	@UsedByJNI
-	int blitterAlloc(int w, int h)
-	{
-		for(int i=0; i<blitters.length; i++) {
-			if (blitters[i] == null) {
-				float zoom = getXScale(zoomMatrix);
-				blitters[i] = Bitmap.createBitmap(Math.round(zoom * w), Math.round(zoom * h), BITMAP_CONFIG);
-				return i;
-			}
-		}
-		throw new RuntimeException("No free blitter found!");
+	/** The bitmaps behind on-screen blitters (of one tile; each has its own), e.g. to report
+	 *  memory use and reuse. UI thread. */
+	BlitterArena getBlitters() {
+		final GameRenderer primary = tiles.getPrimary();
+		return (primary != null) ? primary.getBlitters() : null;
 	}
 
-	@UsedByJNI
-	void blitterFree(int i)
-	{
-		if( blitters[i] == null ) return;
-		blitters[i].recycle();
-		blitters[i] = null;
+	/** Bytes of tile bitmap currently resident, and the most there should be (unless that's
+	 *  not enough for the tiles in view). */
+	long getTileBytes() {
+		return tiles.getBytes();
 	}
 
-	private PointF blitterPosition(int x, int y, boolean save) {
-		float[] f = { x, y };
-		zoomMatrix.mapPoints(f);
-		f[0] = (float) Math.floor(f[0]);
-		f[1] = (float) Math.floor(f[1]);
-		if (save) {
-			f[0] *= -1f;
-			f[1] *= -1f;
-		}
-		return new PointF(f[0], f[1]);
+	long getTileBudget() {
+		return tiles.getBudget();
 	}
 
+	/** Unfortunately backends do things like setting other colours as fractions of this, so
+	 *  e.g. black (night mode) would make all of Undead's monsters white - but we replace all
+	 *  the colours in night mode anyway. */
 	@UsedByJNI
-	void blitterSave(int i, int x, int y)
-	{
-		if( blitters[i] == null ) return;
-		final PointF blitterPosition = blitterPosition(x, y, true);
-		new Canvas(blitters[i]).drawBitmap(bitmap, blitterPosition.x, blitterPosition.y, null);
+	int getDefaultBackgroundColour() {
+		return ContextCompat.getColor(getContext(), R.color.game_background);
 	}
 
-	@UsedByJNI
-	void blitterLoad(int i, int x, int y)
-	{
-		if( blitters[i] == null ) return;
-		final PointF blitterPosition = blitterPosition(x, y, false);
-		new Canvas(bitmap).drawBitmap(blitters[i], blitterPosition.x, blitterPosition.y, null);
+	/** Invalidate only what this frame drew, as seen through the current pinch-zoom. (With
+	 *  hardware acceleration the framework may still redraw the whole view, but it no longer
+	 *  has to when nothing at all changed, and software rendering benefits fully.) */
+	private void invalidateDirty() {
+		if (!tiles.takeDirty(dirty)) {
+			lastFrameDirty.setEmpty();
+			return;
+		}
+		lastFrameDirty.set(dirty);
+		getContentToViewMatrix(invalidateMatrix);
+		dirtyBounds.set(dirty);
+		invalidateMatrix.mapRect(dirtyBounds);
+		dirty.setEmpty();
+		postInvalidate((int) Math.floor(dirtyBounds.left), (int) Math.floor(dirtyBounds.top),
+				(int) Math.ceil(dirtyBounds.right), (int) Math.ceil(dirtyBounds.bottom));
 	}
 }
@@ -0,0 +1,205 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Asks {@link GeneratorService}, in its own process, to generate games. Anything that goes
+ * wrong with the service (not connected within a couple of seconds, died, killed) just means
+ * {@link #generate} returns null, and the caller should generate in-process as before; the system restarts the service
+ * for next time.
+ */
+class GeneratorClient implements ServiceConnection {
+
+	private static final String TAG = "GeneratorClient";
+	private static final String PROCESS_SUFFIX = ":generator";
+	/** How long {@link #generate} waits for a service that's still starting. */
+	private static final long CONNECT_TIMEOUT_MS = 2000;
+
+	private static class Pending {
+		final CountDownLatch done = new CountDownLatch(1);
+		Bundle result;
+		/** Set (with the client's lock) just before {@link #cancel} kills the process. */
+		boolean killed = false;
+	}
+
+	private final Context context;
+	private final Messenger replies = new Messenger(new Handler(Looper.getMainLooper(), this::handleReply));
+	private final SparseArray<Pending> pending = new SparseArray<>();
+	private Messenger service = null;
+	private boolean bound = false;
+	/** Set by {@link #cancel}, and only cleared by {@link #resetCancel}, so that a cancel that
+	 *  comes before {@link #generate} does still stops it. */
+	private boolean cancelled = false;
+	private int nextRequest = 0;
+
+	GeneratorClient(@NonNull final Context context) {
+		this.context = context.getApplicationContext();
+	}
+
+	synchronized void bind() {
+		if (bound) return;
+		bound = context.bindService(new Intent(context, GeneratorService.class), this, Context.BIND_AUTO_CREATE);
+		if (!bound) Log.w(TAG, "Generator service unavailable");
+	}
+
+	synchronized void unbind() {
+		if (!bound) return;
+		context.unbindService(this);
+		bound = false;
+		service = null;
+		failAll();
+	}
+
+	@Override
+	public synchronized void onServiceConnected(final ComponentName name, final IBinder binder) {
+		service = new Messenger(binder);
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void onServiceDisconnected(final ComponentName name) {
+		service = null;
+		failAll();
+	}
+
+	private void failAll() {
+		for (int i = 0; i < pending.size(); i++) pending.valueAt(i).done.countDown();
+		pending.clear();
+	}
+
+	private boolean handleReply(final Message msg) {
+		if (msg.what != GeneratorService.MSG_GENERATED) return false;
+		final Pending p;
+		synchronized (this) {
+			p = pending.get(msg.arg1);
+			pending.remove(msg.arg1);
+		}
+		if (p != null) {
+			p.result = msg.getData();
+			p.done.countDown();
+		}
+		return true;
+	}
+
+	/** Blocks (so not on the UI thread) until the service has generated a game.
+	 *  @return the game, serialised, or null if the service couldn't do it
+	 *  @throws IllegalArgumentException if the params are no good
+	 *  @throws CancellationException if {@link #cancel} was called, before or meanwhile, since
+	 *  the last {@link #resetCancel} */
+	String generate(@NonNull final String backend, @NonNull final String params) {
+		return generate(backend, params, false);
+	}
+
+	/** As {@link #generate}, for GamePool: the service does these on a thread of their own, so
+	 *  that they don't hold up a game someone is waiting for. They aren't stopped by an earlier
+	 *  {@link #cancel}, only by one that kills the process while they're pending. */
+	String generateInBackground(@NonNull final String backend, @NonNull final String params) {
+		return generate(backend, params, true);
+	}
+
+	private String generate(@NonNull final String backend, @NonNull final String params, final boolean background) {
+		final Pending p = new Pending();
+		final Message msg;
+		synchronized (this) {
+			final long deadline = SystemClock.uptimeMillis() + CONNECT_TIMEOUT_MS;
+			long wait;
+			while (bound && service == null && (wait = deadline - SystemClock.uptimeMillis()) > 0) {
+				if (cancelled && !background) throw new CancellationException("Generation cancelled");
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CancellationException("Interrupted");
+				}
+			}
+			if (cancelled && !background) throw new CancellationException("Generation cancelled");
+			if (service == null) return null;
+			final Bundle request = new Bundle();
+			request.putString(GeneratorService.BACKEND, backend);
+			request.putString(GeneratorService.PARAMS, params);
+			msg = Message.obtain(null, GeneratorService.MSG_GENERATE, nextRequest, background ? 1 : 0);
+			msg.setData(request);
+			msg.replyTo = replies;
+			pending.put(nextRequest++, p);
+			// Pending now, so a cancel from here on kills it; the check above covers any before
+			try {
+				service.send(msg);
+			} catch (RemoteException e) {
+				Log.d(TAG, "Generator service died: " + e.getMessage());
+				service = null;
+				failAll();
+				return null;
+			}
+		}
+		try {
+			p.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		}
+		if (p.result == null) {
+			synchronized (this) {
+				if (p.killed) throw new CancellationException("Generation cancelled");
+			}
+			return null;
+		}
+		final String error = p.result.getString(GeneratorService.ERROR);
+		if (error != null) throw new IllegalArgumentException(error);
+		return p.result.getString(GeneratorService.SAVE);
+	}
+
+	/** Stops whatever the service is generating at once, by killing its process, or a
+	 *  {@link #generate} still waiting for it to connect, and any that starts before the next
+	 *  {@link #resetCancel}. */
+	void cancel() {
+		synchronized (this) {
+			cancelled = true;
+			notifyAll();
+			if (service == null || pending.size() == 0) return;  // nothing to kill
+		}
+		final ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		final List<ActivityManager.RunningAppProcessInfo> processes = (am == null) ? null : am.getRunningAppProcesses();
+		if (processes == null) return;
+		for (ActivityManager.RunningAppProcessInfo info : processes) {
+			if (info.processName.endsWith(PROCESS_SUFFIX) && info.pid != Process.myPid()) {
+				synchronized (this) {
+					for (int i = 0; i < pending.size(); i++) pending.valueAt(i).killed = true;
+				}
+				Process.killProcess(info.pid);
+				synchronized (this) {
+					service = null;
+					failAll();
+				}
+				return;
+			}
+		}
+	}
+
+	/** Lets {@link #generate} run again after {@link #cancel}. Called before starting each game
+	 *  (as GameEngine.setGenerationCancelled(false) is), not by generate itself, so that a cancel
+	 *  between the two isn't lost. */
+	synchronized void resetCancel() {
+		cancelled = false;
+	}
+}
@@ -0,0 +1,91 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Generates games in the ":generator" process, with its own copy of libpuzzles, for
+ * {@link GeneratorClient}. A generation that's taking too long can then be stopped by killing
+ * this process, and its garbage and native heap never touch the UI process.
+ *
+ * Requests are handled one at a time, at background priority, except that GamePool's
+ * (generated ahead of time) have a thread of their own, so that a game someone is waiting for
+ * never queues behind them.
+ */
+public class GeneratorService extends Service {
+
+	private static final String TAG = "GeneratorService";
+	/** Client to service: generate; arg1 is a request ID; arg2 is 1 for GamePool; data has
+	 *  BACKEND and PARAMS. */
+	static final int MSG_GENERATE = 1;
+	/** Service to client: done; arg1 is the request ID; data has SAVE or ERROR. */
+	static final int MSG_GENERATED = 2;
+	static final String BACKEND = "backend", PARAMS = "params", SAVE = "save", ERROR = "error";
+
+	private HandlerThread thread, poolThread;
+	private Messenger messenger;
+
+	private static class GenerateHandler extends Handler {
+		GenerateHandler(final Looper looper) {
+			super(looper);
+		}
+
+		@Override
+		public void handleMessage(@NonNull final Message msg) {
+			if (msg.what != MSG_GENERATE) return;
+			final Bundle request = msg.getData();
+			final Bundle result = new Bundle();
+			try {
+				result.putString(SAVE, GamePlay.generateSave(0, request.getString(BACKEND), request.getString(PARAMS)));
+			} catch (IllegalArgumentException e) {
+				result.putString(ERROR, e.getMessage());
+			}
+			final Message reply = Message.obtain(null, MSG_GENERATED, msg.arg1, 0);
+			reply.setData(result);
+			try {
+				msg.replyTo.send(reply);
+			} catch (RemoteException e) {
+				Log.d(TAG, "Client went away: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		thread = new HandlerThread("generator", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		poolThread = new HandlerThread("generatorPool", Process.THREAD_PRIORITY_BACKGROUND);
+		poolThread.start();
+		final Handler generate = new GenerateHandler(thread.getLooper());
+		final Handler generateForPool = new GenerateHandler(poolThread.getLooper());
+		messenger = new Messenger(new Handler(Looper.getMainLooper(), msg -> {
+			((msg.arg2 == 1) ? generateForPool : generate).sendMessage(Message.obtain(msg));
+			return true;
+		}));
+	}
+
+	@Override
+	public IBinder onBind(final Intent intent) {
+		return messenger.getBinder();
+	}
+
+	@Override
+	public void onDestroy() {
+		thread.quit();
+		poolThread.quit();
+		super.onDestroy();
+	}
+}
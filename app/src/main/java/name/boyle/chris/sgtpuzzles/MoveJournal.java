@@ -0,0 +1,175 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What was sent to the engine since a backend's save was last written, so that if the
+ * process is killed before the next save, replaying this onto the last one gets back all but
+ * perhaps the last move. Each record is a few bytes, appended as it happens; a full save then
+ * compacts them away (see {@link SaveStore#put(String, String, int)}).
+ *
+ * Records go in numbered files, one per save: when a save is taken, under the engine's lock,
+ * {@link #rotate} starts the next file, and the files up to the one returned are deleted once
+ * the save is safely written. The save remembers that number, so a file left behind by a kill
+ * between the two isn't replayed twice. Used on the engine's thread, with its lock held.
+ *
+ * Replaying keys assumes the game's UI state (e.g. the keyboard cursor) was as saved; games
+ * that don't save their UI state may replay cursor moves from a different place, so we save
+ * often (every {@link #COMPACT_EVERY} records) to keep the tail short.
+ */
+class MoveJournal {
+
+	private static final String TAG = "MoveJournal";
+	private static final String SUFFIX = ".journal.";
+
+	enum Type { KEY, RESIZE, RESTART, SOLVE }
+
+	/** Records after which GamePlay should save, compacting them away. */
+	static final int COMPACT_EVERY = 64;
+	/** Type, then three ints. */
+	private static final int RECORD_BYTES = 1 + 3 * 4;
+
+	static class Record {
+		final Type type;
+		final int x, y, key;
+
+		Record(final Type type, final int x, final int y, final int key) {
+			this.type = type;
+			this.x = x;
+			this.y = y;
+			this.key = key;
+		}
+	}
+
+	final String backend;
+	private final File dir;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+	private int generation;
+	private FileOutputStream out = null;
+	private int records = 0;
+	/** The last resize, repeated at the start of each file, since the save doesn't keep it. */
+	private int lastW = -1, lastH = -1;
+
+	/** @param covered the newest file that the backend's save already includes */
+	MoveJournal(@NonNull final File dir, @NonNull final String backend, final int covered) {
+		this.dir = dir;
+		this.backend = backend;
+		int newest = covered;
+		for (int g : generations(dir, backend)) newest = Math.max(newest, g);
+		generation = newest + 1;
+	}
+
+	private static File file(final File dir, final String backend, final int generation) {
+		return new File(dir, backend + SUFFIX + generation);
+	}
+
+	/** @return the numbers of this backend's files, in order */
+	private static int[] generations(final File dir, final String backend) {
+		final String[] names = dir.list();
+		if (names == null) return new int[0];
+		final int[] found = new int[names.length];
+		int n = 0;
+		for (String name : names) {
+			if (!name.startsWith(backend + SUFFIX)) continue;
+			try {
+				found[n++] = Integer.parseInt(name.substring(backend.length() + SUFFIX.length()));
+			} catch (NumberFormatException ignored) {}
+		}
+		final int[] ret = Arrays.copyOf(found, n);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	void append(@NonNull final Type type, final int x, final int y, final int key) {
+		if (type == Type.RESIZE) {
+			if (x == lastW && y == lastH) return;
+			lastW = x;
+			lastH = y;
+		}
+		try {
+			if (out == null) {
+				if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Couldn't create " + dir);
+				out = new FileOutputStream(file(dir, backend, generation), true);
+				if (type != Type.RESIZE && lastW >= 0) write(Type.RESIZE, lastW, lastH, 0);
+			}
+			write(type, x, y, key);
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't journal " + backend + ": " + e.getMessage());
+		}
+	}
+
+	/** One write() per record, so that a kill can only lose a whole record, or the end of
+	 *  one (which reading ignores). */
+	private void write(final Type type, final int x, final int y, final int key) throws IOException {
+		record.clear();
+		record.put((byte) type.ordinal()).putInt(x).putInt(y).putInt(key);
+		out.write(record.array());
+		records++;
+	}
+
+	/** Records since the last {@link #rotate}. */
+	int size() {
+		return records;
+	}
+
+	/** Called as a save is taken: later records go in a new file.
+	 *  @return the number of the file that the save includes */
+	int rotate() {
+		close();
+		records = 0;
+		return generation++;
+	}
+
+	void close() {
+		Utils.closeQuietly(out);
+		out = null;
+	}
+
+	/** @return records from the files after covered, oldest first, up to any torn record */
+	@NonNull
+	static List<Record> read(@NonNull final File dir, @NonNull final String backend, final int covered) {
+		final List<Record> ret = new ArrayList<>();
+		final Type[] types = Type.values();
+		for (int g : generations(dir, backend)) {
+			if (g <= covered) continue;
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new FileInputStream(file(dir, backend, g)));
+				while (true) {
+					final int type = in.readByte();
+					if (type < 0 || type >= types.length) throw new IOException("bad record type " + type);
+					ret.add(new Record(types[type], in.readInt(), in.readInt(), in.readInt()));
+				}
+			} catch (EOFException ignored) {
+				// end of file, or a record cut short by a kill
+			} catch (IOException e) {
+				Log.w(TAG, "Couldn't read " + backend + " journal " + g + ": " + e.getMessage());
+			} finally {
+				Utils.closeQuietly(in);
+			}
+		}
+		return ret;
+	}
+
+	/** Deletes the files up to and including upTo. */
+	static void delete(@NonNull final File dir, @NonNull final String backend, final int upTo) {
+		for (int g : generations(dir, backend)) {
+			if (g <= upTo && !file(dir, backend, g).delete()) {
+				Log.w(TAG, "Couldn't delete " + backend + " journal " + g);
+			}
+		}
+	}
+}
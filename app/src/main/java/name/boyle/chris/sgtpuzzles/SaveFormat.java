@@ -0,0 +1,110 @@
+package name.boyle.chris.sgtpuzzles;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saved games as bytes: plain text as ever, or gzipped. A save with a long undo history is
+ * very repetitive, so gzip shrinks it several times over. Reading tells them apart by
+ * gzip's magic number (a save always starts "SAVEFILE"), so older plain saves still load, as
+ * do gzipped ones from anything that can gzip (e.g. to get one into a desktop build, gunzip it).
+ */
+abstract class SaveFormat {
+
+	private static final int GZIP_MAGIC_0 = 0x1f, GZIP_MAGIC_1 = 0x8b;
+	/** Most a save may expand to, so that a small file can't use up the heap. */
+	static final int MAX_EXPANDED_SIZE = 8 * 1024 * 1024;
+
+	static boolean isCompressed(@NonNull final byte[] b) {
+		return b.length >= 2 && (b[0] & 0xff) == GZIP_MAGIC_0 && (b[1] & 0xff) == GZIP_MAGIC_1;
+	}
+
+	@NonNull
+	static byte[] encode(@NonNull final String save, final boolean compress) throws IOException {
+		final byte[] plain = save.getBytes("UTF-8");
+		if (!compress) return plain;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 8 + 64);
+		final GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(plain);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/** @throws IOException if it's compressed but corrupt, or expands to too much */
+	@NonNull
+	static String decode(@NonNull final byte[] b) throws IOException {
+		if (!isCompressed(b)) return new String(b, "UTF-8");
+		final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(b));
+		try {
+			return new String(readAll(in, MAX_EXPANDED_SIZE), "UTF-8");
+		} finally {
+			Utils.closeQuietly(in);
+		}
+	}
+
+	/** Reads a whole plain or compressed save; doesn't close the stream. */
+	@NonNull
+	static String read(@NonNull final InputStream in) throws IOException {
+		return decode(readAll(in, MAX_EXPANDED_SIZE));
+	}
+
+	/** Wraps a plain or compressed save to be read as plain text, e.g. a buffer at a time by
+	 *  GamePlay.startPlayingSavedStream; reading past MAX_EXPANDED_SIZE throws. */
+	@NonNull
+	static InputStream open(@NonNull final InputStream in) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(in);
+		buffered.mark(2);
+		final int b0 = buffered.read(), b1 = buffered.read();
+		buffered.reset();
+		final boolean compressed = b0 == GZIP_MAGIC_0 && b1 == GZIP_MAGIC_1;
+		return new LimitedInputStream(compressed ? new GZIPInputStream(buffered) : buffered, MAX_EXPANDED_SIZE);
+	}
+
+	private static class LimitedInputStream extends FilterInputStream {
+		private final int limit;
+		private int remaining;
+
+		LimitedInputStream(final InputStream in, final int limit) {
+			super(in);
+			this.limit = limit;
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0 && --remaining < 0) throw tooBig();
+			return b;
+		}
+
+		@Override
+		public int read(@NonNull final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0 && (remaining -= n) < 0) throw tooBig();
+			return n;
+		}
+
+		private IOException tooBig() {
+			return new IOException("Saved game expands to over " + limit + " bytes");
+		}
+	}
+
+	private static byte[] readAll(final InputStream in, final int limit) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			if (out.size() + n > limit) throw new IOException("Saved game expands to over " + limit + " bytes");
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,201 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * The saved game of each backend, one file each. These used to be strings in the "state"
+ * SharedPreferences, which meant reading every backend's save into memory at start-up and
+ * rewriting all of them whenever anything in there changed. Now each is read when first
+ * asked for, and writing one only rewrites that file (atomically, by AtomicFile's rename),
+ * compressed by {@link SaveFormat}.
+ *
+ * Writes happen on a background thread, latest first: put() several times quickly and only
+ * the last is written. Moves made since are in each backend's {@link MoveJournal}; a save
+ * starts with a line saying how much of that it includes. One per process; may be used from
+ * any thread.
+ */
+class SaveStore {
+
+	private static final String TAG = "SaveStore";
+	private static final String DIR_NAME = "saves";
+	private static final String JOURNAL_HEADER = "#journal ";
+
+	private static SaveStore instance = null;
+
+	private final File dir;
+	private final Executor writer;
+	/** Saves read or written so far, by backend; null if there's none. */
+	private final Map<String, String> saves = new HashMap<>();
+	/** For each save read or written so far, the newest journal file it includes, or -1. */
+	private final Map<String, Integer> covered = new HashMap<>();
+	private final Set<String> pending = new HashSet<>();
+	/** Held (before this) while writing a file, as putNow() may write while the background
+	 *  thread does. */
+	private final Object writeLock = new Object();
+
+	private SaveStore(final Context context) {
+		this(new File(context.getFilesDir(), DIR_NAME), backgroundThread());
+	}
+
+	/** @param writer runs writes in order, normally on a background thread */
+	SaveStore(@NonNull final File dir, @NonNull final Executor writer) {
+		this.dir = dir;
+		this.writer = writer;
+	}
+
+	private static Executor backgroundThread() {
+		final HandlerThread thread = new HandlerThread("saveStore", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		return new Handler(thread.getLooper())::post;
+	}
+
+	static synchronized SaveStore getInstance(final Context context) {
+		if (instance == null) instance = new SaveStore(context.getApplicationContext());
+		return instance;
+	}
+
+	private AtomicFile file(final String backend) {
+		return new AtomicFile(new File(dir, backend));
+	}
+
+	/** @return the saved game, or null if there isn't one */
+	@Nullable
+	synchronized String get(@NonNull final String backend) {
+		if (saves.containsKey(backend)) return saves.get(backend);
+		String save = null;
+		int journalled = -1;
+		try {
+			final String text = SaveFormat.decode(file(backend).readFully());
+			if (text.startsWith(JOURNAL_HEADER)) {
+				final int eol = text.indexOf('\n');
+				journalled = Integer.parseInt(text.substring(JOURNAL_HEADER.length(), eol));
+				save = text.substring(eol + 1);
+			} else {
+				save = text;
+			}
+		} catch (FileNotFoundException ignored) {
+			// never saved
+		} catch (IOException | RuntimeException e) {
+			Log.w(TAG, "Couldn't read " + backend + ": " + e.getMessage());
+		}
+		saves.put(backend, save);
+		covered.put(backend, journalled);
+		return save;
+	}
+
+	/** @param journalled the newest of the backend's journal files that this save includes */
+	synchronized void put(@NonNull final String backend, @NonNull final String save, final int journalled) {
+		saves.put(backend, save);
+		covered.put(backend, journalled);
+		writeLater(backend);
+	}
+
+	/** Removes the save and its journal. */
+	synchronized void remove(@NonNull final String backend) {
+		saves.put(backend, null);
+		covered.put(backend, -1);
+		writeLater(backend);
+	}
+
+	/** Starts journalling moves onto the backend's save, after any already journalled. */
+	@NonNull
+	synchronized MoveJournal openJournal(@NonNull final String backend) {
+		get(backend);
+		return new MoveJournal(dir, backend, covered.get(backend));
+	}
+
+	/** @return the moves made since the backend's save was written, to replay onto it */
+	@NonNull
+	synchronized List<MoveJournal.Record> readJournal(@NonNull final String backend) {
+		get(backend);
+		return MoveJournal.read(dir, backend, covered.get(backend));
+	}
+
+	private void writeLater(final String backend) {
+		if (!pending.add(backend)) return;  // the write already queued will see this one
+		writer.execute(() -> {
+			synchronized (writeLock) {
+				final String save;
+				final int journalled;
+				synchronized (this) {
+					pending.remove(backend);
+					save = saves.get(backend);
+					journalled = covered.get(backend);
+				}
+				if (write(backend, save, journalled)) {
+					MoveJournal.delete(dir, backend, (save == null) ? Integer.MAX_VALUE : journalled);
+				}
+			}
+		});
+	}
+
+	/** Writes (or with null, deletes) a backend's file now, on this thread, with writeLock
+	 *  held.
+	 *  @return whether that worked */
+	private boolean write(final String backend, @Nullable final String save, final int journalled) {
+		final AtomicFile f = file(backend);
+		if (save == null) {
+			f.delete();
+			return true;
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.w(TAG, "Couldn't create " + dir);
+			return false;
+		}
+		FileOutputStream out = null;
+		try {
+			out = f.startWrite();
+			out.write(SaveFormat.encode((journalled >= 0) ? JOURNAL_HEADER + journalled + "\n" + save : save, true));
+			f.finishWrite(out);
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't save " + backend + ": " + e.getMessage());
+			if (out != null) f.failWrite(out);
+			return false;
+		}
+	}
+
+	/** Like {@link #put} but writes before returning, so that a migration can then drop the
+	 *  old copy.
+	 *  @return whether it was written */
+	boolean putNow(@NonNull final String backend, @NonNull final String save) {
+		synchronized (writeLock) {
+			synchronized (this) {
+				saves.put(backend, save);
+				covered.put(backend, -1);
+			}
+			return write(backend, save, -1);
+		}
+	}
+
+	/** Blocks until the writes asked for so far are done. For tests. */
+	void waitForIdle() {
+		final CountDownLatch latch = new CountDownLatch(1);
+		writer.execute(latch::countDown);
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a game for some params by starting several seeds at once, one per core that can
+ * be spared, and taking whichever finishes first. Some presets have a long tail of seeds that
+ * take many times the median to generate; the fastest of a few seeds rarely hits it.
+ *
+ * Once there's a winner the losers aren't cancelled, since jumping out of a generator leaks
+ * and may leave a backend's statics half-updated: they finish at background priority and their
+ * games are thrown away. Runners still finishing from earlier races count against the cores a
+ * new race may use.
+ *
+ * Each runner gets its own native frontend, used only for {@link #cancel} (when the user gives
+ * up before any runner has won) and progress. {@link #run} may be called once; {@link #cancel}
+ * and {@link #getSteps} may be called from any thread meanwhile.
+ */
+class SeedRace {
+
+	private static final String TAG = "SeedRace";
+	/** More than this barely shortens the tail further, and just makes heat. */
+	static final int MAX_RUNNERS = 4;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> new Thread(r, "seedRace"));
+	/** Runners still going, in this race or losers of earlier ones. */
+	private static final AtomicInteger running = new AtomicInteger();
+
+	private final String backend, params;
+	/** Each runner's frontend, or 0 once it's finished and freed it. */
+	private final long[] handles;
+	/** Each runner's thread ID, for lowering its priority once it has lost, or 0 before it
+	 *  starts and after it finishes. */
+	private final int[] tids;
+	private boolean won = false;
+	/** A save or the exception from each runner, as they finish. */
+	private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+	SeedRace(@NonNull final String backend, @NonNull final String params, final int runners) {
+		this.backend = backend;
+		this.params = params;
+		handles = new long[runners];
+		tids = new int[runners];
+		for (int i = 0; i < runners; i++) handles[i] = GamePlay.newFrontend();
+	}
+
+	/** How many seeds to race on this device right now: a core is left for the UI, and one for
+	 *  each loser of an earlier race that's still finishing, and it's fewer when the device is
+	 *  warm or saving power. 1 means don't bother racing. */
+	static int chooseRunners(final Context context) {
+		int runners = Math.min(MAX_RUNNERS, Runtime.getRuntime().availableProcessors() - 1 - running.get());
+		final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		if (pm != null) {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && pm.isPowerSaveMode()) return 1;
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+				final int thermal = pm.getCurrentThermalStatus();
+				if (thermal >= PowerManager.THERMAL_STATUS_MODERATE) return 1;
+				if (thermal == PowerManager.THERMAL_STATUS_LIGHT) runners /= 2;
+			}
+		}
+		return Math.max(1, runners);
+	}
+
+	/** Blocks until the first runner finishes.
+	 *  @return its game, serialised
+	 *  @throws CancellationException if {@link #cancel} happened first
+	 *  @throws IllegalArgumentException if the params are no good (every runner will say so) */
+	String run() {
+		final long start = System.nanoTime();
+		for (int i = 0; i < handles.length; i++) {
+			final int runner = i;
+			running.incrementAndGet();
+			executor.execute(() -> runOne(runner));
+		}
+		RuntimeException failure = null;
+		for (int finished = 0; finished < handles.length; finished++) {
+			final Object result;
+			try {
+				result = results.take();
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted");
+			}
+			if (result instanceof String) {
+				lose();  // the rest
+				Log.d(TAG, backend + " " + params + ": won by 1 of " + handles.length + " in "
+						+ ((System.nanoTime() - start) / 1000000) + "ms");
+				return (String) result;
+			}
+			if (failure == null || result instanceof IllegalArgumentException) failure = (RuntimeException) result;
+		}
+		throw failure;
+	}
+
+	private void runOne(final int runner) {
+		final long handle;
+		synchronized (this) {
+			handle = handles[runner];
+			// A pooled thread may have lost a race before
+			Process.setThreadPriority(won ? Process.THREAD_PRIORITY_BACKGROUND : Process.THREAD_PRIORITY_DEFAULT);
+			tids[runner] = Process.myTid();
+		}
+		Object result;
+		try {
+			result = GamePlay.generateSave(handle, backend, params);
+		} catch (IllegalArgumentException | CancellationException e) {
+			result = e;
+		}
+		synchronized (this) {
+			GamePlay.freeFrontend(handle);
+			handles[runner] = 0;
+			tids[runner] = 0;
+		}
+		running.decrementAndGet();
+		results.add(result);
+	}
+
+	/** Lets the runners still going finish in the background, for nothing. */
+	private synchronized void lose() {
+		won = true;
+		for (int tid : tids) {
+			if (tid != 0) Process.setThreadPriority(tid, Process.THREAD_PRIORITY_BACKGROUND);
+		}
+	}
+
+	/** Stops every runner still going, unless one has already won; then {@link #run} throws. */
+	synchronized void cancel() {
+		if (won) return;
+		for (long handle : handles) {
+			if (handle != 0) GamePlay.setGenerationCancelled(handle, true);
+		}
+	}
+
+	/** Runners still going, in any race. For tests. */
+	static int getRunning() {
+		return running.get();
+	}
+
+	/** Random numbers drawn so far by the runners still going, for showing progress. */
+	synchronized long getSteps() {
+		long steps = 0;
+		for (long handle : handles) {
+			if (handle != 0) steps += GamePlay.getGenerationSteps(handle);
+		}
+		return steps;
+	}
+}
@@ -32,7 +32,7 @@ public class SendFeedbackActivity extends AppCompatActivity
 		String body = "";
 		try {
 			if (currentBackend != null) {
-				final String savedGame = state.getString(GamePlay.SAVED_GAME_PREFIX + currentBackend, null);
+				final String savedGame = SaveStore.getInstance(this).get(currentBackend);
 				body = MessageFormat.format(getString(R.string.feedback_body), savedGame);
 				currentGame = currentBackend + " " + state.getString(GamePlay.LAST_PARAMS_PREFIX + currentGame, "-");
 			}
@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.os.Bundle;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
@@ -34,7 +35,7 @@ public class SettingFragment extends PreferenceFragmentCompat implements SharedP
 			getPreferenceScreen().removePreference(thisGameCategory);
 		} else {
 			getPreferenceScreen().removePreference(chooserCategory);
-			final int nameId = getResources().getIdentifier("name_" + whichBackend, "string", getContext().getPackageName());
+			final int nameId = BackendRegistry.get(BackendRegistry.NAME, whichBackend);
 			thisGameCategory.setTitle(nameId);
 			if (!"bridges".equals(whichBackend)) thisGameCategory.removePreference(findPreference("bridgesShowH"));
 			if (!"unequal".equals(whichBackend)) thisGameCategory.removePreference(findPreference("unequalShowH"));
@@ -45,7 +46,7 @@ public class SettingFragment extends PreferenceFragmentCompat implements SharedP
 				final SwitchPreference arrowKeysPref = new SwitchPreference(getContext());
 				arrowKeysPref.setOrder(-1);
 				arrowKeysPref.setKey(GamePlay.getArrowKeysPrefName(whichBackend, configuration));
-				arrowKeysPref.setDefaultValue(GamePlay.getArrowKeysDefault(whichBackend, getResources(), getContext().getPackageName()));
+				arrowKeysPref.setDefaultValue(GamePlay.getArrowKeysDefault(whichBackend, getResources()));
 				arrowKeysPref.setTitle(MessageFormat.format(getString(R.string.arrowKeysIn), getString(nameId)));
 				thisGameCategory.addPreference(arrowKeysPref);
 			} else {
@@ -54,6 +55,19 @@ public class SettingFragment extends PreferenceFragmentCompat implements SharedP
 		}
 		findPreference("about_content").setSummary(
 				String.format(getString(R.string.about_content), BuildConfig.VERSION_NAME));
+		final Preference timingsPref = findPreference("startupTimings");
+		if (BuildConfig.DEBUG) {
+			timingsPref.setOnPreferenceClickListener(p -> {
+				new AlertDialog.Builder(getContext())
+						.setTitle(R.string.startupTimings)
+						.setMessage(Telemetry.getInstance(getContext()).toString())
+						.setPositiveButton(android.R.string.ok, null)
+						.show();
+				return true;
+			});
+		} else {
+			((PreferenceCategory) findPreference("about")).removePreference(timingsPref);
+		}
 	}
 
 	@Override
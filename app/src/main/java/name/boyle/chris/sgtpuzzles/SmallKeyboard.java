@@ -4,7 +4,6 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
@@ -16,9 +15,7 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboardActionListener
 {
@@ -69,52 +66,8 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 		boolean initDone;
 		boolean swapLR = false;
 		final String backendForIcons;
-		private static final Map<String, String> SHARED_ICONS = new LinkedHashMap<>();
-		static {
-			SHARED_ICONS.put("blackbox_sym_key_mouse_right", "square_empty");
-			SHARED_ICONS.put("bridges_sym_key_mouse_left", "line");
-			SHARED_ICONS.put("bridges_sym_key_l", "lock");
-			SHARED_ICONS.put("filling_sym_key_mouse_left", "square_filled");
-			SHARED_ICONS.put("filling_sym_key_0", "square_empty");
-			SHARED_ICONS.put("galaxies_sym_key_mouse_left", "line");
-			SHARED_ICONS.put("guess_sym_key_mouse_right", "lock");
-			SHARED_ICONS.put("inertia_sym_key_mouse_left", "ic_action_solve");
-			SHARED_ICONS.put("keen_sym_key_mouse_left", "square_corner");
-			SHARED_ICONS.put("keen_sym_key_m", "square_corner_123");
-			SHARED_ICONS.put("lightup_sym_key_mouse_left", "square_circle");
-			SHARED_ICONS.put("lightup_sym_key_mouse_right", "square_dot");
-			SHARED_ICONS.put("loopy_sym_key_mouse_left", "line");
-			SHARED_ICONS.put("loopy_sym_key_mouse_right", "no_line");
-			SHARED_ICONS.put("mines_sym_key_mouse_left", "square_empty");
-			SHARED_ICONS.put("net_sym_key_a", "rotate_left_90");
-			SHARED_ICONS.put("net_sym_key_s", "lock");
-			SHARED_ICONS.put("net_sym_key_d", "rotate_right_90");
-			SHARED_ICONS.put("net_sym_key_f", "rotate_left_180");
-			SHARED_ICONS.put("pattern_sym_key_mouse_left", "square_empty");  // black & white, really
-			SHARED_ICONS.put("pattern_sym_key_mouse_right", "square_filled");
-			SHARED_ICONS.put("pearl_sym_key_mouse_left", "line");
-			SHARED_ICONS.put("pearl_sym_key_mouse_right", "no_line");
-			SHARED_ICONS.put("range_sym_key_mouse_left", "square_filled");
-			SHARED_ICONS.put("range_sym_key_mouse_right", "square_dot");
-			SHARED_ICONS.put("rect_sym_key_mouse_left", "square_empty");
-			SHARED_ICONS.put("rect_sym_key_mouse_right", "no_line");
-			SHARED_ICONS.put("samegame_sym_key_mouse_left", "square_dot");
-			SHARED_ICONS.put("samegame_sym_key_mouse_right", "square_empty");
-			SHARED_ICONS.put("singles_sym_key_mouse_left", "square_filled");
-			SHARED_ICONS.put("singles_sym_key_mouse_right", "square_circle");
-			SHARED_ICONS.put("solo_sym_key_mouse_left", "square_corner");
-			SHARED_ICONS.put("solo_sym_key_m", "square_corner_123");
-			SHARED_ICONS.put("tents_sym_key_mouse_right", "square_filled");
-			SHARED_ICONS.put("towers_sym_key_mouse_left", "square_corner");
-			SHARED_ICONS.put("towers_sym_key_m", "square_corner_123");
-			SHARED_ICONS.put("twiddle_sym_key_mouse_left", "rotate_left_90");
-			SHARED_ICONS.put("twiddle_sym_key_mouse_right", "rotate_right_90");
-			SHARED_ICONS.put("undead_sym_key_mouse_left", "square_corner");
-			SHARED_ICONS.put("unequal_sym_key_mouse_left", "square_corner");
-			SHARED_ICONS.put("unequal_sym_key_m", "square_corner_123");
-			SHARED_ICONS.put("unruly_sym_key_mouse_left", "square_empty");
-			SHARED_ICONS.put("unruly_sym_key_mouse_right", "square_filled");
-		}
+		/** Index of backendForIcons in BackendRegistry, or -1. */
+		private final int backendIndex;
 
 		KeyboardModel(final Context context, final KeyboardView keyboardView,
 				final boolean isInEditMode, final CharSequence characters,
@@ -130,6 +83,7 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 					context.getResources().getDimensionPixelSize(R.dimen.keySize);
 			mKeys = new ArrayList<>();
 			this.backendForIcons = backendForIcons;
+			this.backendIndex = BackendRegistry.indexOf(backendForIcons);
 
 			Row row = new Row(this);
 			row.defaultHeight = mDefaultHeight;
@@ -294,7 +248,7 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 					key.enabled = true;
 					break;
 				default:
-					trySpecificCharacterIcon(context.getResources(), key, c);
+					trySpecificCharacterIcon(key, c);
 					key.enabled = true;
 					break;
 			}
@@ -386,7 +340,7 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 					primaryKey = mKeys.size() - 1;
 					key.x = arrowsRightEdge  - (isDiagonals ? 2 : 3) * keyPlusPad;
 					key.y = arrowsBottomEdge - 2*keyPlusPad;
-					key.icon = followEnabled ? trySpecificIcon(context.getResources(), R.drawable.sym_key_mouse_left) : null;
+					key.icon = followEnabled ? trySpecificIcon(BackendRegistry.MOUSE_LEFT_ICON, R.drawable.sym_key_mouse_left) : null;
 					key.enabled = followEnabled;
 					key.edgeFlags = maybeTopIf2Row;
 					break;
@@ -394,7 +348,7 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 					secondaryKey = mKeys.size() - 1;
 					key.x = arrowsRightEdge  -   keyPlusPad;
 					key.y = arrowsBottomEdge - arrowRows*keyPlusPad;
-					key.icon = trySpecificIcon(context.getResources(), R.drawable.sym_key_mouse_right);
+					key.icon = trySpecificIcon(BackendRegistry.MOUSE_RIGHT_ICON, R.drawable.sym_key_mouse_right);
 					key.edgeFlags = maybeTop | EDGE_RIGHT;
 					break;
 				case GameView.MOD_NUM_KEYPAD | '7':
@@ -450,24 +404,16 @@ public class SmallKeyboard extends KeyboardView implements KeyboardView.OnKeyboa
 			}
 		}
 
-		private Drawable trySpecificIcon(final Resources resources, final int orig) {
-			final String name = resources.getResourceEntryName(orig);
-			final String specificName = backendForIcons + "_" + name;
-			final String sharedIcon = SHARED_ICONS.get(specificName);
-			final int specific = resources.getIdentifier(
-					(sharedIcon != null) ? sharedIcon : specificName,
-					"drawable", context.getPackageName());
+		/** @param specificIcons one of BackendRegistry's per-backend icon tables */
+		private Drawable trySpecificIcon(final int[] specificIcons, final int orig) {
+			final int specific = (backendIndex < 0) ? 0 : specificIcons[backendIndex];
 			return ContextCompat.getDrawable(context, (specific == 0) ? orig : specific);
 		}
 
-		private void trySpecificCharacterIcon(final Resources resources, final Key key, final char c) {
+		private void trySpecificCharacterIcon(final Key key, final char c) {
 			final int icon;
-			if (Character.isUpperCase(c) || Character.isDigit(c)) {
-				final String specificName = backendForIcons + "_sym_key_" + Character.toLowerCase(c);
-				final String sharedIcon = SHARED_ICONS.get(specificName);
-				icon = resources.getIdentifier(
-						(sharedIcon != null) ? sharedIcon : specificName,
-						"drawable", context.getPackageName());
+			if (backendIndex >= 0 && (Character.isUpperCase(c) || Character.isDigit(c))) {
+				icon = BackendRegistry.keyIcon(backendIndex, Character.toLowerCase(c));
 			} else {
 				icon = 0;  // data entry letter never gets an icon
 			}
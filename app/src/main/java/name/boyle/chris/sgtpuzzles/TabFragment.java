@@ -89,14 +89,13 @@ public class TabFragment extends Fragment implements SharedPreferences.OnSharedP
 
     void buildViews(GridLayout table)
     {
-        String[] games = getResources().getStringArray(R.array.games);
-        for(String gameId : games) {
+        for(String gameId : BackendRegistry.BACKENDS) {
             CardView view = (CardView) getLayoutInflater().inflate(
                     R.layout.list_item, table, false);
             final LayerDrawable starredIcon = mkStarryIcon(gameId);
             ((ImageView)view.findViewById(R.id.icon)).setImageDrawable(starredIcon);
-            final int nameId = getResources().getIdentifier("name_"+gameId, "string", getActivity().getPackageName());
-            final int descId = getResources().getIdentifier("desc_"+gameId, "string", getActivity().getPackageName());
+            final int nameId = BackendRegistry.get(BackendRegistry.NAME, gameId);
+            final int descId = BackendRegistry.get(BackendRegistry.DESC, gameId);
             SpannableStringBuilder desc = new SpannableStringBuilder(nameId > 0 ?
                     getString(nameId) : gameId.substring(0,1).toUpperCase() + gameId.substring(1));
             desc.setSpan(new TextAppearanceSpan(getContext(), R.style.ChooserItemName),
@@ -152,7 +151,7 @@ public class TabFragment extends Fragment implements SharedPreferences.OnSharedP
     }
 
     private LayerDrawable mkStarryIcon(String gameId) {
-        final int drawableId = getResources().getIdentifier(gameId, "drawable", getActivity().getPackageName());
+        final int drawableId = BackendRegistry.get(BackendRegistry.ICON, gameId);
         if (drawableId == 0) return null;
         final Drawable icon = ContextCompat.getDrawable(getContext(), drawableId);
         final LayerDrawable starredIcon = new LayerDrawable(new Drawable[]{
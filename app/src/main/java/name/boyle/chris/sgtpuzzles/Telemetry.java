@@ -0,0 +1,207 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.AtomicFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How long starting games has taken, per backend and params: generating, loading (from a
+ * saved game or ID) and getting the first frame on screen. Each is a histogram with buckets
+ * at powers of root 2 milliseconds, so memory is bounded however many games are played, and
+ * percentiles are good to within 20% or so. Kept in a file between runs, for the params used
+ * most recently, so that a slower puzzles submodule shows up as a shift in the percentiles.
+ *
+ * One per process, since there's one file; may be used from any thread.
+ */
+class Telemetry {
+
+	enum Phase { GENERATE, LOAD, FIRST_FRAME }
+
+	private static final String TAG = "Telemetry";
+	private static final String FILE_NAME = "telemetry";
+	/** Backend + params combinations to remember, least recently recorded dropped first. */
+	private static final int MAX_KEYS = 64;
+	/** Fewer samples than this and there's no estimate. */
+	private static final int MIN_SAMPLES = 3;
+
+	/** Counts in buckets: bucket i is from 2^(i/2) up to 2^((i+1)/2) ms (bucket 0 from 0). */
+	static class Histogram {
+		static final int BUCKETS = 48;  // up to 2^24ms, over 4 hours
+		final int[] counts = new int[BUCKETS];
+		int total;
+
+		void add(final long millis) {
+			final int bucket = (millis < 1) ? 0
+					: (int) Math.min(BUCKETS - 1, Math.floor(2 * Math.log(millis) / Math.log(2)));
+			counts[bucket]++;
+			total++;
+		}
+
+		/** @return the upper bound of the bucket holding the p-th percentile, in ms */
+		long percentile(final int p) {
+			final int wanted = (int) Math.ceil(total * p / 100.);
+			int seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= wanted && seen > 0) return Math.round(Math.pow(2, (i + 1) / 2.));
+			}
+			return 0;
+		}
+	}
+
+	private static Telemetry instance = null;
+
+	private final AtomicFile file;
+	/** Histograms by backend + "\t" + params, indexed by Phase; least recently recorded first. */
+	private final LinkedHashMap<String, Histogram[]> histograms = new LinkedHashMap<>(16, 0.75f, true);
+	private final Handler handler;
+	private boolean loaded = false, savePending = false;
+
+	private Telemetry(final Context context) {
+		file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+		final HandlerThread thread = new HandlerThread("telemetry", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	static synchronized Telemetry getInstance(final Context context) {
+		if (instance == null) instance = new Telemetry(context.getApplicationContext());
+		return instance;
+	}
+
+	private static String key(final String backend, final String params) {
+		return backend + "\t" + params;
+	}
+
+	private Histogram[] get(final String key) {
+		load();
+		Histogram[] h = histograms.get(key);
+		if (h == null) {
+			h = new Histogram[Phase.values().length];
+			for (int i = 0; i < h.length; i++) h[i] = new Histogram();
+			histograms.put(key, h);
+			while (histograms.size() > MAX_KEYS) {
+				histograms.remove(histograms.keySet().iterator().next());
+			}
+		}
+		return h;
+	}
+
+	synchronized void record(@NonNull final String backend, final String params, @NonNull final Phase phase, final long nanos) {
+		if (params == null) return;
+		get(key(backend, params))[phase.ordinal()].add(nanos / 1000000);
+		if (!savePending) {
+			savePending = true;
+			handler.post(this::save);
+		}
+	}
+
+	/** A guess at how long this phase will take in all, given it's been going elapsedMillis:
+	 *  the median, or if that's passed, the 90th or 99th percentile.
+	 *  @return the estimate in ms, or -1 if there's no history or it's already taken longer */
+	synchronized long estimate(final String backend, final String params, @NonNull final Phase phase, final long elapsedMillis) {
+		if (backend == null || params == null) return -1;
+		load();
+		final Histogram[] h = histograms.get(key(backend, params));
+		if (h == null || h[phase.ordinal()].total < MIN_SAMPLES) return -1;
+		for (int p : new int[]{50, 90, 99}) {
+			final long millis = h[phase.ordinal()].percentile(p);
+			if (millis > elapsedMillis) return millis;
+		}
+		return -1;
+	}
+
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new InputStreamReader(file.openRead(), "UTF-8"));
+			String line;
+			while ((line = r.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length != 4) continue;
+				final Phase phase;
+				try {
+					phase = Phase.valueOf(fields[2]);
+				} catch (IllegalArgumentException e) {
+					continue;  // from some other version
+				}
+				final Histogram h = get(key(fields[0], fields[1]))[phase.ordinal()];
+				final String[] counts = fields[3].split(",");
+				for (int i = 0; i < Math.min(counts.length, Histogram.BUCKETS); i++) {
+					h.counts[i] = Integer.parseInt(counts[i]);
+					h.total += h.counts[i];
+				}
+			}
+		} catch (IOException | NumberFormatException ignored) {
+			// nothing saved yet, or it's unreadable: start empty
+		} finally {
+			Utils.closeQuietly(r);
+		}
+	}
+
+	/** Writes the file, least recently recorded first so that loading keeps the order. Called
+	 *  on the telemetry thread. */
+	private void save() {
+		final StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			savePending = false;
+			for (Map.Entry<String, Histogram[]> e : histograms.entrySet()) {
+				for (Phase phase : Phase.values()) {
+					final Histogram h = e.getValue()[phase.ordinal()];
+					if (h.total == 0) continue;
+					sb.append(e.getKey()).append('\t').append(phase.name()).append('\t');
+					for (int i = 0; i < Histogram.BUCKETS; i++) {
+						if (i > 0) sb.append(',');
+						sb.append(h.counts[i]);
+					}
+					sb.append('\n');
+				}
+			}
+		}
+		FileOutputStream out = null;
+		try {
+			out = file.startWrite();
+			out.write(sb.toString().getBytes("UTF-8"));
+			file.finishWrite(out);
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't save: " + e.getMessage());
+			if (out != null) file.failWrite(out);
+		}
+	}
+
+	/** Percentiles of everything recorded, most recent first, for the debug screen. */
+	@NonNull
+	@Override
+	public synchronized String toString() {
+		load();
+		final StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Histogram[]> e : histograms.entrySet()) {
+			final StringBuilder entry = new StringBuilder(e.getKey().replace('\t', ' ')).append('\n');
+			for (Phase phase : Phase.values()) {
+				final Histogram h = e.getValue()[phase.ordinal()];
+				if (h.total == 0) continue;
+				entry.append(String.format(Locale.ROOT, "  %s: p50 %dms, p90 %dms, p99 %dms (%d)\n",
+						phase.name().toLowerCase(Locale.ROOT), h.percentile(50), h.percentile(90),
+						h.percentile(99), h.total));
+			}
+			sb.insert(0, entry);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,158 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.SparseArray;
+
+/**
+ * Everything GameView needs to draw the same labels over and over without redoing text
+ * layout: the strings android.c has interned for us (it sends each one once, then refers to
+ * it by slot), font metrics per size and font, and an atlas of pre-rendered short labels
+ * (digits, clue letters) so that drawing one is a bitmap blit.
+ */
+class TextCache {
+
+	/** Must match TEXT_CACHE_SIZE in android.c. */
+	static final int SLOTS = 256;
+	/** Longer strings than this aren't worth a place in the atlas. */
+	private static final int MAX_ATLAS_CHARS = 3;
+	private static final int ATLAS_SIZE = 1024;
+	private static final int PADDING = 1;
+
+	private final String[] strings = new String[SLOTS];
+	private final Glyph[] glyphs = new Glyph[SLOTS];
+	private final SparseArray<float[]> metrics = new SparseArray<>();
+	private final Paint measurePaint = new Paint();
+	private final Paint renderPaint = new Paint();
+	private final Rect bounds = new Rect();
+	private Bitmap atlas = null;
+	private Canvas atlasCanvas = null;
+	private float atlasScale = 0.f;
+	private int shelfX, shelfY, shelfHeight;
+
+	/** A short label rendered into the atlas at atlasScale. */
+	static class Glyph {
+		private Glyph next;
+		private final int size;
+		private final boolean mono;
+		/** Where it is in the atlas. */
+		final Rect src = new Rect();
+		/** Offset from the text origin (left end of baseline) to src's top left, in pixels. */
+		final int offsetX, offsetY;
+		/** Advance width in game units, for alignment. */
+		final float width;
+
+		private Glyph(int size, boolean mono, int offsetX, int offsetY, float width) {
+			this.size = size;
+			this.mono = mono;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.width = width;
+		}
+	}
+
+	TextCache() {
+		measurePaint.setAntiAlias(true);
+		renderPaint.setAntiAlias(true);
+		renderPaint.setColor(Color.WHITE);  // only alpha matters in an ALPHA_8 atlas
+	}
+
+	void define(int slot, String text) {
+		if (text.equals(strings[slot])) return;  // e.g. another tile replaying the same commands
+		strings[slot] = text;
+		glyphs[slot] = null;  // its atlas space is reclaimed next time the atlas resets
+	}
+
+	String get(int slot) {
+		return strings[slot];
+	}
+
+	/** Absolute ascent and descent of the font at this size, in game units. */
+	float[] getMetrics(int size, boolean mono) {
+		final int key = (size << 1) | (mono ? 1 : 0);
+		float[] m = metrics.get(key);
+		if (m == null) {
+			setFont(measurePaint, size, mono);
+			final Paint.FontMetrics fm = measurePaint.getFontMetrics();
+			m = new float[]{Math.abs(fm.ascent), Math.abs(fm.descent)};
+			metrics.put(key, m);
+		}
+		return m;
+	}
+
+	/** The atlas entry for this slot's string at this size and font, rendering it at the given
+	 *  scale if necessary, or null if it's not a candidate for the atlas. */
+	Glyph getGlyph(int slot, int size, boolean mono, float scale) {
+		final String text = strings[slot];
+		if (text == null || text.length() > MAX_ATLAS_CHARS || text.length() == 0) return null;
+		if (scale != atlasScale) {
+			reset();
+			atlasScale = scale;
+		}
+		for (Glyph g = glyphs[slot]; g != null; g = g.next) {
+			if (g.size == size && g.mono == mono) return g;
+		}
+		final Glyph g = render(text, size, mono);
+		if (g != null) {
+			g.next = glyphs[slot];
+			glyphs[slot] = g;
+		}
+		return g;
+	}
+
+	Bitmap getAtlas() {
+		return atlas;
+	}
+
+	/** Forget all rendered labels, e.g. because the zoom level changed. */
+	void reset() {
+		for (int i = 0; i < SLOTS; i++) glyphs[i] = null;
+		if (atlas != null) atlas.eraseColor(Color.TRANSPARENT);
+		shelfX = shelfY = shelfHeight = 0;
+		atlasScale = 0.f;
+	}
+
+	private Glyph render(String text, int size, boolean mono) {
+		setFont(renderPaint, size * atlasScale, mono);
+		renderPaint.getTextBounds(text, 0, text.length(), bounds);
+		final int w = bounds.width() + 2 * PADDING, h = bounds.height() + 2 * PADDING;
+		if (w > ATLAS_SIZE / 4 || h > ATLAS_SIZE / 4) return null;  // too big to be worth it
+		if (atlas == null) {
+			atlas = Bitmap.createBitmap(ATLAS_SIZE, ATLAS_SIZE, Bitmap.Config.ALPHA_8);
+			atlasCanvas = new Canvas(atlas);
+		}
+		if (shelfX + w > ATLAS_SIZE) {
+			shelfX = 0;
+			shelfY += shelfHeight;
+			shelfHeight = 0;
+		}
+		if (shelfY + h > ATLAS_SIZE) {
+			final float scale = atlasScale;
+			reset();
+			atlasScale = scale;
+		}
+		final int left = shelfX, top = shelfY;
+		shelfX += w;
+		shelfHeight = Math.max(shelfHeight, h);
+		final int originX = left + PADDING - bounds.left, originY = top + PADDING - bounds.top;
+		atlasCanvas.save();
+		atlasCanvas.clipRect(left, top, left + w, top + h);
+		atlasCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+		atlasCanvas.drawText(text, originX, originY, renderPaint);
+		atlasCanvas.restore();
+		setFont(measurePaint, size, mono);
+		final Glyph g = new Glyph(size, mono, left - originX, top - originY, measurePaint.measureText(text));
+		g.src.set(left, top, left + w, top + h);
+		return g;
+	}
+
+	private static void setFont(Paint p, float size, boolean mono) {
+		p.setTypeface(mono ? Typeface.MONOSPACE : Typeface.DEFAULT);
+		p.setTextSize(size);
+	}
+}
@@ -0,0 +1,237 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.util.LongSparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * GameView's backing store: the picture at the current scale, cut into fixed-size tiles so
+ * that a deeply zoomed or very large board needn't be one giant bitmap. Tiles are addressed in
+ * content pixels (game units times scale), so panning keeps them; only a change of scale
+ * throws them away. Each tile has its own {@link GameRenderer} (sharing one TextCache), so a
+ * live frame is replayed onto every resident tile, and a tile that isn't resident can be
+ * rasterized from the {@link DisplayList} when it comes into view.
+ *
+ * Tiles are evicted least recently drawn first once over the memory budget, but never those
+ * drawn in the current pass. Used from one thread at a time: the UI thread, except while a
+ * {@link ZoomRender} is filling a new one.
+ */
+class TileCache {
+
+	static final int TILE_SIZE = 512;
+	/** Bitmaps of evicted tiles kept for the next new tile. */
+	private static final int MAX_SPARE_BITMAPS = 4;
+
+	static class Tile {
+		/** Tile coordinates: the tile covers content pixels from x * TILE_SIZE, y * TILE_SIZE. */
+		final int x, y;
+		final Bitmap bitmap;
+		final GameRenderer renderer;
+		private int lastUsed;
+
+		private Tile(final int x, final int y, final Bitmap bitmap, final GameRenderer renderer) {
+			this.x = x;
+			this.y = y;
+			this.bitmap = bitmap;
+			this.renderer = renderer;
+		}
+	}
+
+	private final LongSparseArray<Tile> tiles = new LongSparseArray<>();
+	private final ArrayDeque<Bitmap> spareBitmaps = new ArrayDeque<>();
+	private final TextCache textCache = new TextCache();
+	private final long budgetBytes;
+	private final Rect tileDirty = new Rect();
+	private float scale = 0.f;
+	private int[] colours = new int[0];
+	private int wDip = 1, hDip = 1;
+	private int background;
+	private int pass = 0;
+	private long bytes = 0;
+
+	TileCache(final long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	private static long key(final int x, final int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	/** Content pixels per game unit. Changing it discards every tile. */
+	void setScale(final float scale) {
+		if (scale == this.scale) return;
+		this.scale = scale;
+		evictAll();
+	}
+
+	float getScale() {
+		return scale;
+	}
+
+	void setColours(final int[] colours) {
+		this.colours = colours;
+		for (int i = 0; i < tiles.size(); i++) tiles.valueAt(i).renderer.setColours(colours);
+	}
+
+	/** The game's size in game units. Changing it discards every tile. */
+	void setSize(final int wDip, final int hDip) {
+		if (wDip == this.wDip && hDip == this.hDip) return;
+		this.wDip = wDip;
+		this.hDip = hDip;
+		evictAll();
+	}
+
+	void setBackground(final int colour) {
+		background = colour;
+	}
+
+	/** Starts a drawing pass: tiles fetched from now on won't be evicted until the next one. */
+	void beginPass() {
+		pass++;
+	}
+
+	int size() {
+		return tiles.size();
+	}
+
+	/** The resident tile at tile coordinates x, y, or null. */
+	Tile get(final int x, final int y) {
+		final Tile t = tiles.get(key(x, y));
+		if (t != null) t.lastUsed = pass;
+		return t;
+	}
+
+	/** Makes a tile resident, rasterized from the display list if that's valid, otherwise
+	 *  just cleared (the caller should then ask the midend for a full redraw). */
+	Tile create(final int x, final int y, final DisplayList displayList) {
+		final Tile existing = get(x, y);
+		if (existing != null) return existing;
+		final Bitmap bitmap = obtainBitmap();
+		final Matrix m = new Matrix();
+		m.setScale(scale, scale);
+		m.postTranslate(-x * TILE_SIZE, -y * TILE_SIZE);
+		final GameRenderer renderer = new GameRenderer(bitmap, m, textCache);
+		renderer.setColours(colours);
+		renderer.setSize(wDip, hDip);
+		renderer.clear(background);
+		if (displayList.isValid()) displayList.replay(renderer);
+		renderer.takeDirty(tileDirty);  // it's new: the caller will draw all of it anyway
+		final Tile t = new Tile(x, y, bitmap, renderer);
+		t.lastUsed = pass;
+		tiles.put(key(x, y), t);
+		return t;
+	}
+
+	/** Whether a new tile would fit in the budget without evicting anything. */
+	boolean hasRoom() {
+		return bytes + tileBytes() <= budgetBytes;
+	}
+
+	private long tileBytes() {
+		return (long) TILE_SIZE * TILE_SIZE * ((GameRenderer.BITMAP_CONFIG == Bitmap.Config.ARGB_8888) ? 4 : 2);
+	}
+
+	private Bitmap obtainBitmap() {
+		while (!hasRoom() && evictLeastRecentlyUsed()) {
+			// keep going
+		}
+		bytes += tileBytes();
+		final Bitmap spare = spareBitmaps.poll();
+		return (spare != null) ? spare
+				: Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, GameRenderer.BITMAP_CONFIG);
+	}
+
+	private boolean evictLeastRecentlyUsed() {
+		int oldest = -1;
+		for (int i = 0; i < tiles.size(); i++) {
+			final Tile t = tiles.valueAt(i);
+			if (t.lastUsed != pass && (oldest < 0 || t.lastUsed < tiles.valueAt(oldest).lastUsed)) oldest = i;
+		}
+		if (oldest < 0) return false;
+		evict(oldest);
+		return true;
+	}
+
+	private void evict(final int i) {
+		final Tile t = tiles.valueAt(i);
+		tiles.removeAt(i);
+		t.renderer.release();
+		bytes -= tileBytes();
+		if (spareBitmaps.size() < MAX_SPARE_BITMAPS) {
+			spareBitmaps.add(t.bitmap);
+		} else {
+			t.bitmap.recycle();
+		}
+	}
+
+	void evictAll() {
+		while (tiles.size() > 0) evict(tiles.size() - 1);
+	}
+
+	/** Frees everything, e.g. when another cache replaces this one. */
+	void release() {
+		evictAll();
+		for (Bitmap b : spareBitmaps) b.recycle();
+		spareBitmaps.clear();
+	}
+
+	/** Fills every resident tile with the background colour. */
+	void clear() {
+		for (int i = 0; i < tiles.size(); i++) tiles.valueAt(i).renderer.clear(background);
+	}
+
+	/** Replays b (from its position) onto every resident tile; only the first tells the
+	 *  listener about it. */
+	void replay(final ByteBuffer b, final GameRenderer.Listener listener) {
+		final int start = b.position();
+		for (int i = 0; i < tiles.size(); i++) {
+			b.position(start);
+			tiles.valueAt(i).renderer.replay(b, (i == 0) ? listener : null);
+		}
+	}
+
+	/** The renderer whose frame counters speak for all of them (each tile sees the same
+	 *  commands), or null if there are no tiles. */
+	GameRenderer getPrimary() {
+		return (tiles.size() > 0) ? tiles.valueAt(0).renderer : null;
+	}
+
+	/** Takes the union of what's been drawn on every tile since last time, in content
+	 *  pixels. */
+	boolean takeDirty(final Rect out) {
+		out.setEmpty();
+		for (int i = 0; i < tiles.size(); i++) {
+			final Tile t = tiles.valueAt(i);
+			if (t.renderer.takeDirty(tileDirty)) {
+				tileDirty.offset(t.x * TILE_SIZE, t.y * TILE_SIZE);
+				out.union(tileDirty);
+			}
+		}
+		return !out.isEmpty();
+	}
+
+	/** Draws the tiles of the current pass that are resident onto c, which should already
+	 *  map content pixels to wherever they're going. */
+	void draw(final Canvas c, final int left, final int top, final int right, final int bottom) {
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				final Tile t = get(x, y);
+				if (t != null) c.drawBitmap(t.bitmap, x * TILE_SIZE, y * TILE_SIZE, null);
+			}
+		}
+	}
+
+	/** Bytes of tile bitmap resident, for comparison with the budget. */
+	long getBytes() {
+		return bytes;
+	}
+
+	long getBudget() {
+		return budgetBytes;
+	}
+}
@@ -0,0 +1,77 @@
+package name.boyle.chris.sgtpuzzles;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Rasterizes the tiles in view at a new scale on a background thread, from a snapshot of the
+ * display list, so that the end of a pinch doesn't stall the UI thread. Meanwhile GameView
+ * keeps showing the old tiles stretched by zoomInProgressMatrix; when this is done it swaps
+ * the new tiles in, after replaying onto them whatever was drawn since the snapshot.
+ */
+class ZoomRender implements Runnable {
+
+	interface Callback {
+		/** On the UI thread, when done or (if cancelled) given up; the tiles are the
+		 *  callback's to keep or release. */
+		void onZoomRendered(ZoomRender r);
+	}
+
+	private static Handler backgroundHandler = null;
+
+	final float scale;
+	/** The display list's generation and size when snapshotted. */
+	final int generation, snapshotSize;
+	final TileCache tiles;
+	private final DisplayList snapshot;
+	private final Rect range;
+	private final Handler uiHandler;
+	private final Callback callback;
+	private volatile boolean cancelled = false;
+
+	/** @param range tile coordinates to render, inclusive
+	 *  @param tiles an empty cache, already set up for the new scale */
+	ZoomRender(final float scale, final DisplayList displayList, final Rect range, final TileCache tiles,
+			final Handler uiHandler, final Callback callback) {
+		this.scale = scale;
+		this.generation = displayList.getGeneration();
+		this.snapshotSize = displayList.size();
+		this.snapshot = displayList.copy();
+		this.range = new Rect(range);
+		this.tiles = tiles;
+		this.uiHandler = uiHandler;
+		this.callback = callback;
+	}
+
+	private static Handler getBackgroundHandler() {
+		if (backgroundHandler == null) {
+			final HandlerThread thread = new HandlerThread("zoomRender", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			backgroundHandler = new Handler(thread.getLooper());
+		}
+		return backgroundHandler;
+	}
+
+	/** Called from the UI thread. */
+	void start() {
+		getBackgroundHandler().post(this);
+	}
+
+	/** Stops at the next tile; the callback still happens, so the tiles can be released. */
+	void cancel() {
+		cancelled = true;
+	}
+
+	@Override
+	public void run() {
+		tiles.beginPass();
+		for (int y = range.top; y <= range.bottom && !cancelled; y++) {
+			for (int x = range.left; x <= range.right && !cancelled; x++) {
+				tiles.create(x, y, snapshot);
+			}
+		}
+		uiHandler.post(() -> callback.onZoomRendered(this));
+	}
+}
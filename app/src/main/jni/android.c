@@ -7,6 +7,7 @@
 #include <stdio.h>
 #include <assert.h>
 #include <stdlib.h>
+#include <stdint.h>
 #include <time.h>
 #include <stdarg.h>
 #include <string.h>
@@ -14,6 +15,7 @@
 #include <ctype.h>
 #include <signal.h>
 #include <pthread.h>
+#include <setjmp.h>
 #include <math.h>
 #include <sys/time.h>
 #include "puzzles.h"
@@ -25,8 +27,6 @@
 #define JNIEXPORT
 #endif
 
-const struct game* thegame;
-
 void fatal(const char *fmt, ...)
 {
 	va_list ap;
@@ -38,43 +38,154 @@ void fatal(const char *fmt, ...)
 	exit(1);
 }
 
+/*
+ * Strings drawn with draw_text are interned: GameView is told each one once
+ * (CMD_TEXT_DEFINE) and after that CMD_TEXT refers to it by slot, so the clue
+ * digits that make up most of a Keen or Solo frame are neither re-sent nor
+ * re-decoded. Direct-mapped; a collision just redefines the slot.
+ * Keep TEXT_CACHE_SIZE in step with TextCache.SLOTS.
+ */
+#define TEXT_CACHE_SIZE 256
+
+/*
+ * Everything one GamePlay's puzzle needs. Java holds a pointer to one of these as an opaque
+ * handle (see newFrontend) and passes it to every call, so several can be used at once on
+ * different threads; each is only used by one thread at a time (GameEngine's lock).
+ */
 struct frontend {
 	midend *me;
+	const game *thegame;
+	jobject obj, gameView;  /* global refs: the GamePlay, and the GameView it draws to */
 	int timer_active;
 	struct timeval last_time;
 	config_item *cfg;
 	int cfg_which;
 	int ox, oy;
+	unsigned char *draw_buf;
+	size_t draw_cap, draw_pos;
+	char *text_cache[TEXT_CACHE_SIZE];
+	int *blitter_free_handles;
+	int blitter_nfree, blitter_free_size, blitter_next_handle;
+	char *save_buf;  /* kept between saves, so the next one seldom has to grow it */
+	size_t save_cap, save_len;
+	jmp_buf generation_abort;
+	volatile bool generation_cancelled;
+	volatile long generation_steps;
 };
 
-static frontend *fe = NULL;
 static pthread_key_t envKey;
-static jobject obj = NULL;
+/* The frontend whose game this thread is generating, if any (see generation_step). */
+static pthread_key_t generatingKey;
 
-static jobject gameView = NULL;
 static jmethodID
-	blitterAlloc,
-	blitterFree,
-	blitterLoad,
-	blitterSave,
-	clipRect,
 	dialogAddString,
 	dialogAddBoolean,
 	dialogAddChoices,
 	dialogInit,
 	dialogShow,
-	drawCircle,
-	drawLine,
-	drawPoly,
-	drawText,
-	fillRect,
+	flushDrawCommands,
 	getBackgroundColour,
-	postInvalidate,
 	requestTimer,
-	serialiseWrite,
 	setStatus,
-	unClip,
-	setKeys;
+	setKeys,
+	inputStreamRead;
+
+/*
+ * Drawing primitives are not sent to GameView one JNI upcall at a time: they are
+ * encoded into a direct ByteBuffer owned by GameView, which decodes and replays the
+ * whole batch when we flush at android_end_draw (or when the buffer fills up).
+ * Keep these in step with the CMD_ constants in GameRenderer.
+ */
+enum {
+	CMD_FILL_RECT = 1,
+	CMD_LINE,
+	CMD_POLY,
+	CMD_CIRCLE,
+	CMD_TEXT,
+	CMD_CLIP,
+	CMD_UNCLIP,
+	CMD_BLITTER_SAVE,
+	CMD_BLITTER_LOAD,
+	CMD_BLITTER_FREE,
+	CMD_END_FRAME,
+	CMD_TEXT_DEFINE,
+	CMD_BLITTER_ALLOC,
+	CMD_FULL_REDRAW
+};
+
+/*
+ * Generating a game for the UI can be cancelled from another thread. Generators have no hook
+ * for that, but they all draw random numbers as they go, so random_upto and random_bits are
+ * wrapped at link time (see CMakeLists.txt): on a thread generating for a frontend each draw
+ * counts as a step, for the progress dialog, and once cancelled the next few draws jump out of the
+ * generator.
+ *
+ * Whatever the generator had allocated by then is leaked, and a backend that keeps state in
+ * statics may be left with it half-updated, so this is only the fallback for when the user
+ * presses Cancel and GeneratorService's process (which is cancelled by killing it) isn't in
+ * use. Nothing cancels a generation routinely: SeedRace lets its losers finish.
+ */
+#define GENERATION_CHECK_INTERVAL 256
+
+unsigned long __real_random_upto(random_state *state, unsigned long limit);
+unsigned long __real_random_bits(random_state *state, int bits);
+
+static void generation_step(void)
+{
+	frontend *fe = (frontend *)pthread_getspecific(generatingKey);
+	if (!fe) return;
+	if (++fe->generation_steps % GENERATION_CHECK_INTERVAL == 0 && fe->generation_cancelled) {
+		pthread_setspecific(generatingKey, NULL);
+		longjmp(fe->generation_abort, 1);
+	}
+}
+
+unsigned long __wrap_random_upto(random_state *state, unsigned long limit)
+{
+	generation_step();
+	return __real_random_upto(state, limit);
+}
+
+unsigned long __wrap_random_bits(random_state *state, int bits)
+{
+	generation_step();
+	return __real_random_bits(state, bits);
+}
+
+/* midend_new_game on a fresh midend, unless cancelled first: then false, and me should be
+ * freed. It has no game states yet, so that's safe, but whatever new_desc and its solver had
+ * allocated is leaked (see above). */
+static bool new_game_unless_cancelled(frontend *fe, midend *me)
+{
+	fe->generation_steps = 0;
+	if (setjmp(fe->generation_abort)) {
+		fe->generation_steps = 0;
+		return false;
+	}
+	pthread_setspecific(generatingKey, fe);
+	midend_new_game(me);
+	pthread_setspecific(generatingKey, NULL);
+	fe->generation_steps = 0;
+	return true;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_setGenerationCancelled(JNIEnv *env, jclass type, jlong handle, jboolean cancelled)
+{
+	if (!handle) return;  /* freed (GameEngine.quit) */
+	((frontend *)(intptr_t)handle)->generation_cancelled = cancelled;
+}
+
+jlong JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getGenerationSteps(JNIEnv *env, jclass type, jlong handle)
+{
+	if (!handle) return 0;
+	return ((frontend *)(intptr_t)handle)->generation_steps;
+}
+
+void throwCancellationException(JNIEnv *env) {
+	jclass exCls = (*env)->FindClass(env, "java/util/concurrent/CancellationException");
+	(*env)->ThrowNew(env, exCls, "Generation cancelled");
+	(*env)->DeleteLocalRef(env, exCls);
+}
 
 void throwIllegalArgumentException(JNIEnv *env, const char* reason) {
 	jclass exCls = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
@@ -82,18 +193,27 @@ void throwIllegalArgumentException(JNIEnv *env, const char* reason) {
 	(*env)->DeleteLocalRef(env, exCls);
 }
 
+/* The time alone isn't enough now that several seeds can be started at once (see SeedRace). */
+struct random_seed {
+	struct timeval tv;
+	unsigned long serial;
+};
+
 void get_random_seed(void **randseed, int *randseedsize)
 {
-	struct timeval *tvp = snew(struct timeval);
-	gettimeofday(tvp, NULL);
-	*randseed = (void *)tvp;
-	*randseedsize = sizeof(struct timeval);
+	static unsigned long serial = 0;
+	struct random_seed *seed = snew(struct random_seed);
+	memset(seed, 0, sizeof(struct random_seed));
+	gettimeofday(&seed->tv, NULL);
+	seed->serial = __sync_fetch_and_add(&serial, 1);
+	*randseed = (void *)seed;
+	*randseedsize = sizeof(struct random_seed);
 }
 
 void frontend_default_colour(frontend *fe, float *output)
 {
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	jint argb = (*env)->CallIntMethod(env, gameView, getBackgroundColour);
+	jint argb = (*env)->CallIntMethod(env, fe->gameView, getBackgroundColour);
 	output[0] = ((argb & 0x00ff0000) >> 16) / 255.0f;
 	output[1] = ((argb & 0x0000ff00) >> 8) / 255.0f;
 	output[2] = (argb & 0x000000ff) / 255.0f;
@@ -101,60 +221,149 @@ void frontend_default_colour(frontend *fe, float *output)
 
 void android_status_bar(void *handle, const char *text)
 {
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
 	jstring js = (*env)->NewStringUTF(env, text);
 	if( js == NULL ) return;
-	(*env)->CallVoidMethod(env, obj, setStatus, js);
+	(*env)->CallVoidMethod(env, fe->obj, setStatus, js);
 	(*env)->DeleteLocalRef(env, js);
 }
 
-#define CHECK_DR_HANDLE if ((frontend*)handle != fe) return;
+/* Hands everything encoded so far to GameView (which replays it on the UI
+ * thread once the frame is complete), and gets a buffer with room for at least
+ * min_free more bytes. */
+static void draw_flush(frontend *fe, JNIEnv *env, size_t min_free, bool end_of_frame)
+{
+	jobject buf = (*env)->CallObjectMethod(env, fe->gameView, flushDrawCommands, (jint)fe->draw_pos, (jint)min_free, (jboolean)end_of_frame);
+	fe->draw_pos = 0;
+	if (buf == NULL) {
+		fe->draw_buf = NULL;
+		fe->draw_cap = 0;
+		return;
+	}
+	fe->draw_buf = (*env)->GetDirectBufferAddress(env, buf);
+	fe->draw_cap = fe->draw_buf ? (size_t)(*env)->GetDirectBufferCapacity(env, buf) : 0;
+	(*env)->DeleteLocalRef(env, buf);
+}
+
+static bool draw_reserve(frontend *fe, JNIEnv *env, size_t len)
+{
+	if (!fe->gameView) return false;
+	if (!fe->draw_buf || fe->draw_pos + len > fe->draw_cap) draw_flush(fe, env, len, false);
+	return fe->draw_buf && fe->draw_pos + len <= fe->draw_cap;
+}
+
+static void put_int(frontend *fe, int i)
+{
+	memcpy(fe->draw_buf + fe->draw_pos, &i, sizeof(int));
+	fe->draw_pos += sizeof(int);
+}
+
+static void put_float(frontend *fe, float f)
+{
+	memcpy(fe->draw_buf + fe->draw_pos, &f, sizeof(float));
+	fe->draw_pos += sizeof(float);
+}
 
 void android_start_draw(void *handle)
 {
-	CHECK_DR_HANDLE
-//	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
+	/* nothing to do: commands are buffered as they come, and android_end_draw sends the frame */
 }
 
 void android_clip(void *handle, int x, int y, int w, int h)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, clipRect, x + fe->ox, y + fe->oy, w, h);
+	if (!draw_reserve(fe, env, 5 * sizeof(int))) return;
+	put_int(fe, CMD_CLIP);
+	put_int(fe, x + fe->ox);
+	put_int(fe, y + fe->oy);
+	put_int(fe, w);
+	put_int(fe, h);
+}
+
+static void draw_unclip(frontend *fe, JNIEnv *env)
+{
+	if (!draw_reserve(fe, env, 3 * sizeof(int))) return;
+	put_int(fe, CMD_UNCLIP);
+	put_int(fe, fe->ox);
+	put_int(fe, fe->oy);
 }
 
 void android_unclip(void *handle)
 {
-	CHECK_DR_HANDLE
-	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, unClip, fe->ox, fe->oy);
+	frontend *fe = (frontend *)handle;
+	draw_unclip(fe, (JNIEnv*)pthread_getspecific(envKey));
+}
+
+static int text_slot(const char *text)
+{
+	unsigned int h = 2166136261u;  /* FNV-1a */
+	for (; *text; text++) h = (h ^ (unsigned char)*text) * 16777619u;
+	return (int)(h & (TEXT_CACHE_SIZE - 1));
+}
+
+static void text_cache_clear(frontend *fe)
+{
+	int i;
+	for (i = 0; i < TEXT_CACHE_SIZE; i++) {
+		sfree(fe->text_cache[i]);
+		fe->text_cache[i] = NULL;
+	}
 }
 
 void android_draw_text(void *handle, int x, int y, int fonttype, int fontsize,
 		int align, int colour, const char *text)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	jstring js = (*env)->NewStringUTF(env, text);
-	if( js == NULL ) return;
-	(*env)->CallVoidMethod(env, gameView, drawText, x + fe->ox, y + fe->oy,
-			(fonttype == FONT_FIXED ? 0x10 : 0x0) | align,
-			fontsize, colour, js);
-	(*env)->DeleteLocalRef(env, js);
+	size_t len = strlen(text);
+	int slot = text_slot(text);
+	bool known = fe->text_cache[slot] && !strcmp(fe->text_cache[slot], text);
+	if (!draw_reserve(fe, env, (known ? 7 : 10) * sizeof(int) + (known ? 0 : len))) return;
+	if (!known) {
+		sfree(fe->text_cache[slot]);
+		fe->text_cache[slot] = dupstr(text);
+		put_int(fe, CMD_TEXT_DEFINE);
+		put_int(fe, slot);
+		put_int(fe, (int)len);
+		memcpy(fe->draw_buf + fe->draw_pos, text, len);
+		fe->draw_pos += len;
+	}
+	put_int(fe, CMD_TEXT);
+	put_int(fe, x + fe->ox);
+	put_int(fe, y + fe->oy);
+	put_int(fe, (fonttype == FONT_FIXED ? 0x10 : 0x0) | align);
+	put_int(fe, fontsize);
+	put_int(fe, colour);
+	put_int(fe, slot);
 }
 
 void android_draw_rect(void *handle, int x, int y, int w, int h, int colour)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, fillRect, x + fe->ox, y + fe->oy, w, h, colour);
+	if (!draw_reserve(fe, env, 6 * sizeof(int))) return;
+	put_int(fe, CMD_FILL_RECT);
+	put_int(fe, x + fe->ox);
+	put_int(fe, y + fe->oy);
+	put_int(fe, w);
+	put_int(fe, h);
+	put_int(fe, colour);
 }
 
 void android_draw_thick_line(void *handle, float thickness, float x1, float y1, float x2, float y2, int colour)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, drawLine, thickness, x1 + fe->ox, y1 + fe->oy, x2 + fe->ox, y2 + fe->oy, colour);
+	if (!draw_reserve(fe, env, 2 * sizeof(int) + 5 * sizeof(float))) return;
+	put_int(fe, CMD_LINE);
+	put_float(fe, thickness);
+	put_float(fe, x1 + fe->ox);
+	put_float(fe, y1 + fe->oy);
+	put_float(fe, x2 + fe->ox);
+	put_float(fe, y2 + fe->oy);
+	put_int(fe, colour);
 }
 
 void android_draw_line(void *handle, int x1, int y1, int x2, int y2, int colour)
@@ -165,13 +374,18 @@ void android_draw_line(void *handle, int x1, int y1, int x2, int y2, int colour)
 void android_draw_thick_poly(void *handle, float thickness, int *coords, int npoints,
 		int fillcolour, int outlinecolour)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	jintArray coordsJava = (*env)->NewIntArray(env, npoints*2);
-	if (coordsJava == NULL) return;
-	(*env)->SetIntArrayRegion(env, coordsJava, 0, npoints*2, coords);
-	(*env)->CallVoidMethod(env, gameView, drawPoly, thickness, coordsJava, fe->ox, fe->oy, outlinecolour, fillcolour);
-	(*env)->DeleteLocalRef(env, coordsJava);  // prevent ref table exhaustion on e.g. large Mines grids...
+	if (!draw_reserve(fe, env, (4 + 2 * npoints) * sizeof(int) + sizeof(float))) return;
+	put_int(fe, CMD_POLY);
+	put_float(fe, thickness);
+	put_int(fe, npoints);
+	put_int(fe, outlinecolour);
+	put_int(fe, fillcolour);
+	for (int i = 0; i < npoints; i++) {
+		put_int(fe, coords[2 * i] + fe->ox);
+		put_int(fe, coords[2 * i + 1] + fe->oy);
+	}
 }
 
 void android_draw_poly(void *handle, int *coords, int npoints,
@@ -182,9 +396,16 @@ void android_draw_poly(void *handle, int *coords, int npoints,
 
 void android_draw_thick_circle(void *handle, float thickness, float cx, float cy, float radius, int fillcolour, int outlinecolour)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, drawCircle, thickness, cx+fe->ox, cy+fe->oy, radius, outlinecolour, fillcolour);
+	if (!draw_reserve(fe, env, 3 * sizeof(int) + 4 * sizeof(float))) return;
+	put_int(fe, CMD_CIRCLE);
+	put_float(fe, thickness);
+	put_float(fe, cx + fe->ox);
+	put_float(fe, cy + fe->oy);
+	put_float(fe, radius);
+	put_int(fe, outlinecolour);
+	put_int(fe, fillcolour);
 }
 
 void android_draw_circle(void *handle, int cx, int cy, int radius, int fillcolour, int outlinecolour)
@@ -196,6 +417,28 @@ struct blitter {
 	int handle, w, h, x, y;
 };
 
+/*
+ * Blitter handles are ours to hand out, so that allocating one doesn't have to
+ * wait for the UI thread: GameView creates the bitmap when it replays
+ * CMD_BLITTER_ALLOC. Freed handles go on a stack to be reused first, so handles
+ * stay dense (GameRenderer indexes an array with them) and allocating one is
+ * O(1); there is no fixed limit.
+ */
+static int blitter_handle_alloc(frontend *fe)
+{
+	if (fe->blitter_nfree > 0) return fe->blitter_free_handles[--fe->blitter_nfree];
+	return fe->blitter_next_handle++;
+}
+
+static void blitter_handle_free(frontend *fe, int h)
+{
+	if (fe->blitter_nfree == fe->blitter_free_size) {
+		fe->blitter_free_size = fe->blitter_free_size * 2 + 16;
+		fe->blitter_free_handles = sresize(fe->blitter_free_handles, fe->blitter_free_size, int);
+	}
+	fe->blitter_free_handles[fe->blitter_nfree++] = h;
+}
+
 blitter *android_blitter_new(void *handle, int w, int h)
 {
 	blitter *bl = snew(blitter);
@@ -207,40 +450,61 @@ blitter *android_blitter_new(void *handle, int w, int h)
 
 void android_blitter_free(void *handle, blitter *bl)
 {
+	frontend *fe = (frontend *)handle;
 	if (bl->handle != -1) {
 		JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-		(*env)->CallVoidMethod(env, gameView, blitterFree, bl->handle);
+		if (draw_reserve(fe, env, 2 * sizeof(int))) {
+			put_int(fe, CMD_BLITTER_FREE);
+			put_int(fe, bl->handle);
+		}
+		blitter_handle_free(fe, bl->handle);
 	}
 	sfree(bl);
 }
 
 void android_blitter_save(void *handle, blitter *bl, int x, int y)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	if (bl->handle == -1)
-		bl->handle = (*env)->CallIntMethod(env, gameView, blitterAlloc, bl->w, bl->h);
+	if (!draw_reserve(fe, env, 8 * sizeof(int))) return;
+	if (bl->handle == -1) {
+		bl->handle = blitter_handle_alloc(fe);
+		put_int(fe, CMD_BLITTER_ALLOC);
+		put_int(fe, bl->handle);
+		put_int(fe, bl->w);
+		put_int(fe, bl->h);
+	}
 	bl->x = x;
 	bl->y = y;
-	(*env)->CallVoidMethod(env, gameView, blitterSave, bl->handle, x + fe->ox, y + fe->oy);
+	put_int(fe, CMD_BLITTER_SAVE);
+	put_int(fe, bl->handle);
+	put_int(fe, x + fe->ox);
+	put_int(fe, y + fe->oy);
 }
 
 void android_blitter_load(void *handle, blitter *bl, int x, int y)
 {
-	CHECK_DR_HANDLE
+	frontend *fe = (frontend *)handle;
 	assert(bl->handle != -1);
 	if (x == BLITTER_FROMSAVED && y == BLITTER_FROMSAVED) {
 		x = bl->x;
 		y = bl->y;
 	}
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, blitterLoad, bl->handle, x + fe->ox, y + fe->oy);
+	if (!draw_reserve(fe, env, 4 * sizeof(int))) return;
+	put_int(fe, CMD_BLITTER_LOAD);
+	put_int(fe, bl->handle);
+	put_int(fe, x + fe->ox);
+	put_int(fe, y + fe->oy);
 }
 
 void android_end_draw(void *handle)
 {
+	frontend *fe = (frontend *)handle;
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	(*env)->CallVoidMethod(env, gameView, postInvalidate);
+	if (!draw_reserve(fe, env, sizeof(int))) return;
+	put_int(fe, CMD_END_FRAME);
+	draw_flush(fe, env, 0, true);
 }
 
 static char *android_text_fallback(void *handle, const char *const *strings,
@@ -275,37 +539,49 @@ const struct drawing_api android_drawing = {
 	android_draw_thick_line,
 };
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_keyEvent(JNIEnv *env, jobject _obj, jint x, jint y, jint keyval)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_keyEvent(JNIEnv *env, jobject _obj, jlong handle, jint x, jint y, jint keyval)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
-	if (fe->ox == -1 || keyval < 0) return;
+	if (!fe->me || fe->ox == -1 || keyval < 0) return;
 	midend_process_key(fe->me, x - fe->ox, y - fe->oy, keyval);
 }
 
-jfloat JNICALL Java_name_boyle_chris_sgtpuzzles_GameView_suggestDensity(JNIEnv *env, jobject _view, jint viewWidth, jint viewHeight)
+jintArray JNICALL Java_name_boyle_chris_sgtpuzzles_GameView_getDefaultSize(JNIEnv *env, jobject _view, jlong handle)
 {
-	if (!fe || !fe->me) return 1.f;
+	frontend *fe = (frontend *)(intptr_t)handle;
+	if (!fe->me) return NULL;
 	pthread_setspecific(envKey, env);
-	int defaultW = INT_MAX, defaultH = INT_MAX;
+	int size[2] = { INT_MAX, INT_MAX };
 	midend_reset_tilesize(fe->me);
-	midend_size(fe->me, &defaultW, &defaultH, false);
-	return max(1.f, min(floor(((float)viewWidth) / defaultW), floor(((float)viewHeight) / defaultH)));
+	midend_size(fe->me, &size[0], &size[1], false);
+	jintArray ret = (*env)->NewIntArray(env, 2);
+	if (ret == NULL) return NULL;
+	(*env)->SetIntArrayRegion(env, ret, 0, 2, size);
+	return ret;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_resizeEvent(JNIEnv *env, jobject _obj, jint viewWidth, jint viewHeight)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_resizeEvent(JNIEnv *env, jobject _obj, jlong handle, jint viewWidth, jint viewHeight)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
-	if (!fe || !fe->me) return;
+	if (!fe->me) return;
 	int w = viewWidth, h = viewHeight;
 	midend_size(fe->me, &w, &h, true);
 	fe->ox = (viewWidth - w) / 2;
 	fe->oy = (viewHeight - h) / 2;
-	if (gameView) (*env)->CallVoidMethod(env, gameView, unClip, fe->ox, fe->oy);
+	/* Everything from here on is enough to reproduce the picture, so GameView
+	 * starts recording its display list; strings must be defined afresh within
+	 * it so that it can be replayed on its own. */
+	text_cache_clear(fe);
+	if (draw_reserve(fe, env, sizeof(int))) put_int(fe, CMD_FULL_REDRAW);
+	draw_unclip(fe, env);
 	midend_force_redraw(fe->me);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_timerTick(JNIEnv *env, jobject _obj)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_timerTick(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	if (! fe->timer_active) return;
 	pthread_setspecific(envKey, env);
 	struct timeval now;
@@ -317,34 +593,32 @@ void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_timerTick(JNIEnv *env, jo
 	fe->last_time = now;
 }
 
-void deactivate_timer(frontend *_fe)
+void deactivate_timer(frontend *fe)
 {
-	if (!fe) return;
-	if (fe->timer_active) {
+	if (fe->timer_active && fe->obj) {
 		JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-		(*env)->CallVoidMethod(env, obj, requestTimer, false);
+		(*env)->CallVoidMethod(env, fe->obj, requestTimer, false);
 	}
 	fe->timer_active = false;
 }
 
-void activate_timer(frontend *_fe)
+void activate_timer(frontend *fe)
 {
-	if (!fe) return;
-	if (!fe->timer_active) {
+	if (!fe->timer_active && fe->obj) {  /* none for GamePlay.generateSave */
 		JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-		(*env)->CallVoidMethod(env, obj, requestTimer, true);
+		(*env)->CallVoidMethod(env, fe->obj, requestTimer, true);
 		gettimeofday(&fe->last_time, NULL);
 	}
 	fe->timer_active = true;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_resetTimerBaseline(JNIEnv *env, jobject _obj)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_resetTimerBaseline(JNIEnv *env, jobject _obj, jlong handle)
 {
-	if (!fe) return;
+	frontend *fe = (frontend *)(intptr_t)handle;
 	gettimeofday(&fe->last_time, NULL);
 }
 
-config_item* configItemWithName(JNIEnv *env, jstring js)
+config_item* configItemWithName(frontend *fe, JNIEnv *env, jstring js)
 {
 	const char* name = (*env)->GetStringUTFChars(env, js, NULL);
 	config_item* i;
@@ -359,32 +633,36 @@ config_item* configItemWithName(JNIEnv *env, jstring js)
 	return ret;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetString(JNIEnv *env, jobject _obj, jstring name, jstring s)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetString(JNIEnv *env, jobject _obj, jlong handle, jstring name, jstring s)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
-	config_item *i = configItemWithName(env, name);
+	config_item *i = configItemWithName(fe, env, name);
 	const char* newval = (*env)->GetStringUTFChars(env, s, NULL);
 	sfree(i->u.string.sval);
 	i->u.string.sval = dupstr(newval);
 	(*env)->ReleaseStringUTFChars(env, s, newval);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetBool(JNIEnv *env, jobject _obj, jstring name, jint selected)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetBool(JNIEnv *env, jobject _obj, jlong handle, jstring name, jint selected)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
-	config_item *i = configItemWithName(env, name);
+	config_item *i = configItemWithName(fe, env, name);
 	i->u.boolean.bval = selected != 0 ? true : false;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetChoice(JNIEnv *env, jobject _obj, jstring name, jint selected)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configSetChoice(JNIEnv *env, jobject _obj, jlong handle, jstring name, jint selected)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
-	config_item *i = configItemWithName(env, name);
+	config_item *i = configItemWithName(fe, env, name);
 	i->u.choices.selected = selected;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_solveEvent(JNIEnv *env, jobject _obj)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_solveEvent(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
 	const char *msg = midend_solve(fe->me);
 	if (! msg) return;
@@ -393,14 +671,16 @@ void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_solveEvent(JNIEnv *env, j
 	throwIllegalArgumentException(env, msg);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_restartEvent(JNIEnv *env, jobject _obj)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_restartEvent(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
 	midend_restart_game(fe->me);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configEvent(JNIEnv *env, jobject _obj, jint whichEvent)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configEvent(JNIEnv *env, jobject _obj, jlong handle, jint whichEvent)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
 	char *title;
 	config_item *i;
@@ -408,7 +688,7 @@ void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configEvent(JNIEnv *env,
 	fe->cfg_which = whichEvent;
 	jstring js = (*env)->NewStringUTF(env, title);
 	if( js == NULL ) return;
-	(*env)->CallVoidMethod(env, obj, dialogInit, whichEvent, js);
+	(*env)->CallVoidMethod(env, fe->obj, dialogInit, whichEvent, js);
 	for (i = fe->cfg; i->type != C_END; i++) {
 		jstring name = NULL;
 		if (i->name) {
@@ -422,34 +702,35 @@ void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configEvent(JNIEnv *env,
 					sval = (*env)->NewStringUTF(env, i->u.string.sval);
 					if (!sval) return;
 				}
-				(*env)->CallVoidMethod(env, obj, dialogAddString, whichEvent, name, sval);
+				(*env)->CallVoidMethod(env, fe->obj, dialogAddString, whichEvent, name, sval);
 				break;
 			case C_CHOICES:
 				if (i->u.choices.choicenames) {
 					sval = (*env)->NewStringUTF(env, i->u.choices.choicenames);
 					if (!sval) return;
 				}
-				(*env)->CallVoidMethod(env, obj, dialogAddChoices, whichEvent, name, sval, i->u.choices.selected);
+				(*env)->CallVoidMethod(env, fe->obj, dialogAddChoices, whichEvent, name, sval, i->u.choices.selected);
 				break;
 			case C_BOOLEAN: case C_END: default:
-				(*env)->CallVoidMethod(env, obj, dialogAddBoolean, whichEvent, name, i->u.boolean.bval);
+				(*env)->CallVoidMethod(env, fe->obj, dialogAddBoolean, whichEvent, name, i->u.boolean.bval);
 				break;
 		}
 		if (name) (*env)->DeleteLocalRef(env, name);
 		if (sval) (*env)->DeleteLocalRef(env, sval);
 	}
-	(*env)->CallVoidMethod(env, obj, dialogShow);
+	(*env)->CallVoidMethod(env, fe->obj, dialogShow);
 }
 
-jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configOK(JNIEnv *env, jobject _obj)
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configOK(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
     const char *err = midend_set_config(fe->me, CFG_SETTINGS, fe->cfg);
     if (err) {
 		throwIllegalArgumentException(env, err);
 		return NULL;
 	}
-	char *encoded = thegame->encode_params(thegame->custom_params(fe->cfg), true);
+	char *encoded = fe->thegame->encode_params(fe->thegame->custom_params(fe->cfg), true);
 	free_cfg(fe->cfg);
 	fe->cfg = NULL;
 
@@ -458,7 +739,7 @@ jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configOK(JNIEnv *env,
 	return ret;
 }
 
-char *get_current_params(int mode)
+char *get_current_params(frontend *fe, int mode)
 {
 	char sep = (mode == CFG_SEED) ? (char)'#' : (char)':';
 	char *wintitle;
@@ -472,7 +753,7 @@ char *get_current_params(int mode)
 	return params;
 }
 
-jstring getDescOrSeedFromDialog(JNIEnv *env, jobject _obj, int mode)
+jstring getDescOrSeedFromDialog(frontend *fe, JNIEnv *env, int mode)
 {
 	/* we must build a fully-specified string (with params) so GameLaunch knows params,
 	   and in the case of seed, so the game gen process generates with correct params */
@@ -482,7 +763,7 @@ jstring getDescOrSeedFromDialog(JNIEnv *env, jobject _obj, int mode)
 	int free_buf = false;
 	jstring ret = NULL;
 	if (!strchr(fe->cfg[0].u.string.sval, sep)) {
-		char *params = get_current_params(mode);
+		char *params = get_current_params(fe, mode);
 		size_t plen = strlen(params);
 		buf = snewn(plen + strlen(fe->cfg[0].u.string.sval) + 2, char);
 		sprintf(buf, "%s%c%s", params, sep, fe->cfg[0].u.string.sval);
@@ -505,61 +786,149 @@ jstring getDescOrSeedFromDialog(JNIEnv *env, jobject _obj, int mode)
 	return ret;
 }
 
-jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getFullGameIDFromDialog(JNIEnv *env, jobject _obj)
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getFullGameIDFromDialog(JNIEnv *env, jobject _obj, jlong handle)
 {
-	return getDescOrSeedFromDialog(env, _obj, CFG_DESC);
+	frontend *fe = (frontend *)(intptr_t)handle;
+	return getDescOrSeedFromDialog(fe, env, CFG_DESC);
 }
 
-jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getFullSeedFromDialog(JNIEnv *env, jobject _obj)
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getFullSeedFromDialog(JNIEnv *env, jobject _obj, jlong handle)
 {
-	return getDescOrSeedFromDialog(env, _obj, CFG_SEED);
+	frontend *fe = (frontend *)(intptr_t)handle;
+	return getDescOrSeedFromDialog(fe, env, CFG_SEED);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configCancel(JNIEnv *env, jobject _obj)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_configCancel(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	pthread_setspecific(envKey, env);
 	free_cfg(fe->cfg);
 	fe->cfg = NULL;
 }
 
+/* midend_serialise writes many small chunks: collect them natively and cross into Java once. */
 void android_serialise_write(void *ctx, const void *buf, int len)
 {
-	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	jbyteArray bytesJava = (*env)->NewByteArray(env, len);
-	if (bytesJava == NULL) return;
-	(*env)->SetByteArrayRegion(env, bytesJava, 0, len, buf);
-	(*env)->CallVoidMethod(env, obj, serialiseWrite, bytesJava);
-	(*env)->DeleteLocalRef(env, bytesJava);
+	frontend *fe = (frontend *)ctx;
+	if (fe->save_len + len > fe->save_cap) {
+		fe->save_cap = max(fe->save_len + len, fe->save_cap * 2);
+		fe->save_buf = sresize(fe->save_buf, fe->save_cap, char);
+	}
+	memcpy(fe->save_buf + fe->save_len, buf, len);
+	fe->save_len += len;
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_serialise(JNIEnv *env, jobject _obj)
+jbyteArray JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_serialise(JNIEnv *env, jobject _obj, jlong handle)
 {
-	if (!fe) return;
+	frontend *fe = (frontend *)(intptr_t)handle;
+	if (!fe->me) return NULL;
 	pthread_setspecific(envKey, env);
-	midend_serialise(fe->me, android_serialise_write, (void*)0);
+	fe->save_len = 0;
+	midend_serialise(fe->me, android_serialise_write, fe);
+	jbyteArray ret = (*env)->NewByteArray(env, (jsize)fe->save_len);
+	if (ret == NULL) return NULL;  /* OutOfMemoryError pending */
+	(*env)->SetByteArrayRegion(env, ret, 0, (jsize)fe->save_len, (const jbyte *)fe->save_buf);
+	return ret;
 }
 
-static const char* deserialise_readptr = NULL;
-static size_t deserialise_readlen = 0;
+/*
+ * Where a save is read from: read() as midend_deserialise wants it, and rewind() to go back
+ * to the start after identify_game has read the header, so that a stream needn't be read
+ * twice. Each deserialise (or identify) has its own, so that those can happen at once.
+ */
+struct save_source {
+	bool (*read)(void *ctx, void *buf, int len);
+	bool (*rewind)(void *ctx);
+	void *ctx;
+};
+
+/* A save in a Java String. */
+struct deserialise_ctx {
+	const char *start, *readptr;
+	size_t readlen;
+};
 
 bool android_deserialise_read(void *ctx, void *buf, int len)
 {
+	struct deserialise_ctx *d = (struct deserialise_ctx *)ctx;
 	if (len < 0) return false;
-	size_t l = min((size_t)len, deserialise_readlen);
+	size_t l = min((size_t)len, d->readlen);
 	if (l == 0) return len == 0;
-	memcpy(buf, deserialise_readptr, l);
-	deserialise_readptr += l;
-	deserialise_readlen -= l;
+	memcpy(buf, d->readptr, l);
+	d->readptr += l;
+	d->readlen -= l;
 	return l == len;
 }
 
-int deserialiseOrIdentify(frontend *new_fe, jstring s, jboolean identifyOnly) {
+static bool android_deserialise_rewind(void *ctx)
+{
+	struct deserialise_ctx *d = (struct deserialise_ctx *)ctx;
+	d->readlen += d->readptr - d->start;
+	d->readptr = d->start;
+	return true;
+}
+
+/*
+ * A save in a java.io.InputStream, pulled through one byte[] of STREAM_BUF_SIZE, so that
+ * loading a large save takes no more memory than that beyond what the midend keeps. The
+ * header is always in the first bufferful, so rewinding after identifying needn't re-read.
+ * If the stream throws, that exception is left pending, and reading fails.
+ */
+#define STREAM_BUF_SIZE 16384
+
+struct stream_ctx {
+	JNIEnv *env;
+	jobject in;
+	jbyteArray buf;
+	jint pos, len;
+	bool rewindable;  /* still holding the first bufferful */
+};
+
+static bool stream_fill(struct stream_ctx *s)
+{
+	JNIEnv *env = s->env;
+	if (s->len > 0) s->rewindable = false;
+	s->pos = s->len = 0;
+	while (s->len < STREAM_BUF_SIZE) {
+		jint n = (*env)->CallIntMethod(env, s->in, inputStreamRead, s->buf, s->len, STREAM_BUF_SIZE - s->len);
+		if ((*env)->ExceptionCheck(env)) return false;
+		if (n < 0) break;
+		s->len += n;
+	}
+	return s->len > 0;
+}
+
+static bool android_stream_read(void *ctx, void *buf, int len)
+{
+	struct stream_ctx *s = (struct stream_ctx *)ctx;
+	jbyte *out = (jbyte *)buf;
+	if (len < 0) return false;
+	while (len > 0) {
+		if (s->pos == s->len && !stream_fill(s)) return false;
+		jint l = min(len, s->len - s->pos);
+		(*s->env)->GetByteArrayRegion(s->env, s->buf, s->pos, l, out);
+		s->pos += l;
+		out += l;
+		len -= l;
+	}
+	return true;
+}
+
+static bool android_stream_rewind(void *ctx)
+{
+	struct stream_ctx *s = (struct stream_ctx *)ctx;
+	if (!s->rewindable) return false;
+	s->pos = 0;
+	return true;
+}
+
+/* Identifies the save's backend and, unless identifyOnly, loads it into new_fe, in one
+ * pass; on failure there's an exception pending. */
+static int deserialiseOrIdentifyFrom(frontend *new_fe, const struct save_source *src, bool identifyOnly)
+{
 	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
-	const char * c = (*env)->GetStringUTFChars(env, s, NULL);
-	deserialise_readptr = c;
-	deserialise_readlen = strlen(deserialise_readptr);
 	char *name;
-	const char *error = identify_game(&name, android_deserialise_read, NULL);
+	const char *error = identify_game(&name, src->read, src->ctx);
 	int whichBackend = -1;
 	if (! error) {
 		int i;
@@ -568,45 +937,78 @@ int deserialiseOrIdentify(frontend *new_fe, jstring s, jboolean identifyOnly) {
 				whichBackend = i;
 			}
 		}
+		sfree(name);
 		if (whichBackend < 0) error = "Internal error identifying game";
 	}
 	if (! error && ! identifyOnly) {
-		thegame = gamelist[whichBackend];
-		new_fe->me = midend_new(new_fe, gamelist[whichBackend], &android_drawing, new_fe);
-		deserialise_readptr = c;
-		deserialise_readlen = strlen(deserialise_readptr);
-		error = midend_deserialise(new_fe->me, android_deserialise_read, NULL);
+		if (!src->rewind(src->ctx)) {
+			error = "Saved game header is too long";
+		} else {
+			new_fe->thegame = gamelist[whichBackend];
+			new_fe->me = midend_new(new_fe, gamelist[whichBackend], &android_drawing, new_fe);
+			error = midend_deserialise(new_fe->me, src->read, src->ctx);
+		}
 	}
-	(*env)->ReleaseStringUTFChars(env, s, c);
-	if (error) {
-		throwIllegalArgumentException(env, error);
+	if (error || (*env)->ExceptionCheck(env)) {
+		/* an IOException from the stream explains it better than whatever the midend made of it */
+		if (!(*env)->ExceptionCheck(env)) throwIllegalArgumentException(env, error);
 		if (!identifyOnly && new_fe->me) {
 			midend_free(new_fe->me);
 			new_fe->me = NULL;
 		}
+		return -1;
 	}
 	return whichBackend;
 }
 
+int deserialiseOrIdentify(frontend *new_fe, jstring s, jboolean identifyOnly) {
+	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
+	const char * c = (*env)->GetStringUTFChars(env, s, NULL);
+	struct deserialise_ctx d = { c, c, strlen(c) };
+	const struct save_source src = { android_deserialise_read, android_deserialise_rewind, &d };
+	int whichBackend = deserialiseOrIdentifyFrom(new_fe, &src, identifyOnly);
+	(*env)->ReleaseStringUTFChars(env, s, c);
+	return whichBackend;
+}
+
+static int deserialiseOrIdentifyStream(frontend *new_fe, jobject in, bool identifyOnly) {
+	JNIEnv *env = (JNIEnv*)pthread_getspecific(envKey);
+	struct stream_ctx sc = { env, in, (*env)->NewByteArray(env, STREAM_BUF_SIZE), 0, 0, true };
+	if (sc.buf == NULL) return -1;  /* OutOfMemoryError pending */
+	const struct save_source src = { android_stream_read, android_stream_rewind, &sc };
+	int whichBackend = deserialiseOrIdentifyFrom(new_fe, &src, identifyOnly);
+	(*env)->DeleteLocalRef(env, sc.buf);
+	return whichBackend;
+}
+
 jint JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_identifyBackend(JNIEnv *env, jclass type, jstring savedGame)
 {
 	pthread_setspecific(envKey, env);
 	return deserialiseOrIdentify(NULL, savedGame, true);
 }
 
-jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getCurrentParams(JNIEnv *env, jobject _obj)
+/* Only reads the header, i.e. at most the first STREAM_BUF_SIZE bytes. */
+jint JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_identifyBackendStream(JNIEnv *env, jclass type, jobject in)
 {
-	if (! fe || ! fe->me) return NULL;
-	char *params = get_current_params(CFG_SEED);
+	pthread_setspecific(envKey, env);
+	return deserialiseOrIdentifyStream(NULL, in, true);
+}
+
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getCurrentParams(JNIEnv *env, jobject _obj, jlong handle)
+{
+	frontend *fe = (frontend *)(intptr_t)handle;
+	if (! fe->me) return NULL;
+	char *params = get_current_params(fe, CFG_SEED);
 	jstring ret = (*env)->NewStringUTF(env, params);
 	sfree(params);
 	return ret;
 }
 
-jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_htmlHelpTopic(JNIEnv *env, jobject _obj)
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_htmlHelpTopic(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	//pthread_setspecific(envKey, env);
-	return (*env)->NewStringUTF(env, thegame->htmlhelp_topic);
+	return (*env)->NewStringUTF(env, fe->thegame->htmlhelp_topic);
 }
 
 const game* game_by_name(const char* name) {
@@ -654,17 +1056,17 @@ void startPlayingIntGameID(frontend* new_fe, jstring jsGameID, jstring backend,
 		throwIllegalArgumentException(env, "Internal error identifying game");
 		return;
 	}
-	thegame = g;
+	new_fe->thegame = g;
 	new_fe->me = midend_new(new_fe, g, &android_drawing, new_fe);
 	const char * gameIDjs = (*env)->GetStringUTFChars(env, jsGameID, NULL);
 	char * gameID = dupstr(gameIDjs);
 	(*env)->ReleaseStringUTFChars(env, jsGameID, gameIDjs);
 	if (!isGameID) {
 		const char* errors = NULL;
-		game_params *params = oriented_params_from_str(thegame, gameID, &errors);
+		game_params *params = oriented_params_from_str(g, gameID, &errors);
         sfree(gameID);
 		midend_set_params(new_fe->me, params);
-		midend_new_game(new_fe->me);
+		if (!new_game_unless_cancelled(new_fe, new_fe->me)) throwCancellationException(env);
 		return;
 	}
 	const char * error = midend_game_id(new_fe->me, gameID);
@@ -676,8 +1078,9 @@ void startPlayingIntGameID(frontend* new_fe, jstring jsGameID, jstring backend,
 	midend_new_game(new_fe->me);
 }
 
-jfloatArray JNICALL Java_name_boyle_chris_sgtpuzzles_GameView_getColours(JNIEnv *env, jobject _obj)
+jfloatArray JNICALL Java_name_boyle_chris_sgtpuzzles_GameView_getColours(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	int n;
 	float* colours;
 	colours = midend_colours(fe->me, &n);
@@ -687,43 +1090,45 @@ jfloatArray JNICALL Java_name_boyle_chris_sgtpuzzles_GameView_getColours(JNIEnv
 	return jColours;
 }
 
-jobject getPresetInternal(JNIEnv *env, struct preset_menu_entry entry);
+jobject getPresetInternal(JNIEnv *env, const game *g, struct preset_menu_entry entry);
 
-jobjectArray getPresetsInternal(JNIEnv *env, struct preset_menu *menu) {
+jobjectArray getPresetsInternal(JNIEnv *env, const game *g, struct preset_menu *menu) {
     jclass MenuEntry = (*env)->FindClass(env, "name/boyle/chris/sgtpuzzles/MenuEntry");
     jobjectArray ret = (*env)->NewObjectArray(env, menu->n_entries, MenuEntry, NULL);
     for (int i = 0; i < menu->n_entries; i++) {
-        jobject menuItem = getPresetInternal(env, menu->entries[i]);
+        jobject menuItem = getPresetInternal(env, g, menu->entries[i]);
         (*env)->SetObjectArrayElement(env, ret, i, menuItem);
     }
     return ret;
 }
 
-jobject getPresetInternal(JNIEnv *env, const struct preset_menu_entry entry) {
+jobject getPresetInternal(JNIEnv *env, const game *g, const struct preset_menu_entry entry) {
     jclass MenuEntry = (*env)->FindClass(env, "name/boyle/chris/sgtpuzzles/MenuEntry");
     jstring title = (*env)->NewStringUTF(env, entry.title);
     if (entry.submenu) {
-        jobject submenu = getPresetsInternal(env, entry.submenu);
+        jobject submenu = getPresetsInternal(env, g, entry.submenu);
         jmethodID newEntryWithSubmenu = (*env)->GetMethodID(env, MenuEntry,  "<init>", "(ILjava/lang/String;[Lname/boyle/chris/sgtpuzzles/MenuEntry;)V");
         return (*env)->NewObject(env, MenuEntry, newEntryWithSubmenu, entry.id, title, submenu);
     } else {
-        jstring params = (*env)->NewStringUTF(env, thegame->encode_params(entry.params, true));
+        jstring params = (*env)->NewStringUTF(env, g->encode_params(entry.params, true));
         jmethodID newEntryWithParams = (*env)->GetMethodID(env, MenuEntry,  "<init>", "(ILjava/lang/String;Ljava/lang/String;)V");
         return (*env)->NewObject(env, MenuEntry, newEntryWithParams, entry.id, title, params);
     }
 }
 
-jobjectArray JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getPresets(JNIEnv *env, jobject _obj)
+jobjectArray JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getPresets(JNIEnv *env, jobject _obj, jlong handle)
 {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	struct preset_menu* menu = midend_get_presets(fe->me, NULL);
-	return getPresetsInternal(env, menu);
+	return getPresetsInternal(env, fe->thegame, menu);
 }
 
-jint JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getUIVisibility(JNIEnv *env, jobject _obj) {
+jint JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_getUIVisibility(JNIEnv *env, jobject _obj, jlong handle) {
+	frontend *fe = (frontend *)(intptr_t)handle;
 	return (midend_can_undo(fe->me))
 			+ (midend_can_redo(fe->me) << 1)
-			+ (thegame->can_configure << 2)
-			+ (thegame->can_solve << 3)
+			+ (fe->thegame->can_configure << 2)
+			+ (fe->thegame->can_solve << 3)
 			+ (midend_wants_statusbar(fe->me) << 4);
 }
 
@@ -737,61 +1142,155 @@ void requestKeys(JNIEnv *env, frontend* new_fe)
         keyChars[pos++] = (char)keys[i].button;
     keyChars[pos] = '\0';
     jstring jKeys = (*env)->NewStringUTF(env, keyChars);
-    (*env)->CallVoidMethod(env, obj, setKeys, jKeys);
+    (*env)->CallVoidMethod(env, new_fe->obj, setKeys, jKeys);
     (*env)->DeleteLocalRef(env, jKeys);
     sfree(keyChars);
 }
 
-void startPlayingInt(JNIEnv *env, jobject _obj, jobject _gameView, jstring backend, jstring saveOrGameID, int isGameID)
+/* Starts a game from a save (in saveOrGameID or, if that's NULL, the stream saveIn), a game
+ * ID, or params; on failure the old game, if any, carries on. */
+/* Returns the backend loaded from a save (or -1 when loading by backend, or on failure). */
+int startPlayingInt(JNIEnv *env, jobject _obj, frontend *fe, jobject _gameView, jstring backend, jstring saveOrGameID, jobject saveIn, int isGameID)
 {
+	int whichBackend = -1;
 	pthread_setspecific(envKey, env);
-	if (obj) (*env)->DeleteGlobalRef(env, obj);
-	obj = (*env)->NewGlobalRef(env, _obj);
-	if (gameView) (*env)->DeleteGlobalRef(env, gameView);
-	gameView = (*env)->NewGlobalRef(env, _gameView);
-
-	frontend *new_fe = snew(frontend);
-	memset(new_fe, 0, sizeof(frontend));
-	new_fe->ox = -1;
+	if (fe->obj) (*env)->DeleteGlobalRef(env, fe->obj);
+	fe->obj = (*env)->NewGlobalRef(env, _obj);
+	if (fe->gameView) (*env)->DeleteGlobalRef(env, fe->gameView);
+	fe->gameView = (*env)->NewGlobalRef(env, _gameView);
+	fe->draw_buf = NULL;  // fetch the new view's buffer on first use
+	fe->draw_cap = fe->draw_pos = 0;
+	text_cache_clear(fe);  // the new view's TextCache knows none of our strings
+
+	midend *old_me = fe->me;
+	const game *old_game = fe->thegame;
+	int old_timer_active = fe->timer_active;
+	fe->me = NULL;
+	fe->timer_active = false;  // the new midend will ask for its own
 	if (isGameID) {
-		startPlayingIntGameID(new_fe, saveOrGameID, backend, true);
+		startPlayingIntGameID(fe, saveOrGameID, backend, true);
 	} else if (!isGameID && backend != NULL) {
-		startPlayingIntGameID(new_fe, saveOrGameID, backend, false);
+		startPlayingIntGameID(fe, saveOrGameID, backend, false);
+	}
+	else if (saveOrGameID == NULL) {
+		whichBackend = deserialiseOrIdentifyStream(fe, saveIn, false);
 	}
 	else {
-		deserialiseOrIdentify(new_fe, saveOrGameID, false);
-		if ((*env)->ExceptionCheck(env)) return;
+		whichBackend = deserialiseOrIdentify(fe, saveOrGameID, false);
+	}
+	if ((*env)->ExceptionCheck(env)) {  // keep playing the old game, if any
+		if (fe->me) midend_free(fe->me);
+		fe->me = old_me;
+		fe->thegame = old_game;
+		fe->timer_active = old_timer_active;
+		return -1;
 	}
 
-	if (fe) {
-		if (fe->me) midend_free(fe->me);  // might use gameView (e.g. blitters)
-		sfree(fe);
+	if (old_me) midend_free(old_me);  // might use gameView (e.g. blitters)
+	if (fe->cfg) {
+		free_cfg(fe->cfg);
+		fe->cfg = NULL;
 	}
-	fe = new_fe;
+	fe->ox = -1;
 	int x, y;
 	x = INT_MAX;
 	y = INT_MAX;
 	midend_size(fe->me, &x, &y, false);
     requestKeys(env, fe);
+	return whichBackend;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingSavedGame(JNIEnv *env, jobject _obj, jlong handle, jobject _gameView, jstring savedGame)
+{
+	startPlayingInt(env, _obj, (frontend *)(intptr_t)handle, _gameView, NULL, savedGame, NULL, false);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingSavedGame(JNIEnv *env, jobject _obj, jobject _gameView, jstring savedGame)
+jint JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingSavedStream(JNIEnv *env, jobject _obj, jlong handle, jobject _gameView, jobject in)
 {
-	startPlayingInt(env, _obj, _gameView, NULL, savedGame, false);
+	return startPlayingInt(env, _obj, (frontend *)(intptr_t)handle, _gameView, NULL, NULL, in, false);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingGameID(JNIEnv *env, jobject _obj, jobject _gameView, jstring backend, jstring gameID)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingGameID(JNIEnv *env, jobject _obj, jlong handle, jobject _gameView, jstring backend, jstring gameID)
 {
-	startPlayingInt(env, _obj, _gameView, backend, gameID, true);
+	startPlayingInt(env, _obj, (frontend *)(intptr_t)handle, _gameView, backend, gameID, NULL, true);
 }
 
-void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingParams(JNIEnv *env, jobject _obj, jobject _gameView, jstring backend, jstring params)
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_startPlayingParams(JNIEnv *env, jobject _obj, jlong handle, jobject _gameView, jstring backend, jstring params)
 {
-	startPlayingInt(env, _obj, _gameView, backend, params, false);
+	startPlayingInt(env, _obj, (frontend *)(intptr_t)handle, _gameView, backend, params, NULL, false);
 }
 
-jboolean JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_isCompletedNow(JNIEnv *env, jobject _obj) {
-    return fe && fe->me && midend_status(fe->me) ? true : false;
+/* A frontend with no game yet, for startPlaying*; freeFrontend when done with it. */
+jlong JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_newFrontend(JNIEnv *env, jclass type)
+{
+	frontend *fe = snew(frontend);
+	memset(fe, 0, sizeof(frontend));
+	fe->ox = -1;
+	return (jlong)(intptr_t)fe;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_freeFrontend(JNIEnv *env, jclass type, jlong handle)
+{
+	frontend *fe = (frontend *)(intptr_t)handle;
+	pthread_setspecific(envKey, env);
+	if (fe->me) midend_free(fe->me);
+	if (fe->cfg) free_cfg(fe->cfg);
+	text_cache_clear(fe);
+	sfree(fe->blitter_free_handles);
+	sfree(fe->save_buf);
+	if (fe->obj) (*env)->DeleteGlobalRef(env, fe->obj);
+	if (fe->gameView) (*env)->DeleteGlobalRef(env, fe->gameView);
+	sfree(fe);
+}
+
+jboolean JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_isCompletedNow(JNIEnv *env, jobject _obj, jlong handle) {
+    frontend *fe = (frontend *)(intptr_t)handle;
+    return fe->me && midend_status(fe->me) ? true : false;
+}
+
+/*
+ * Generates a game for the given params on a midend of its own, for GamePool, SeedRace and
+ * GeneratorService, and returns it serialised: unlike "params:desc", a save keeps the random
+ * seed (for the Seed dialog) and the generator's aux info (which Solve needs in many games).
+ * The frontend (which may be 0) is only used to cancel it, so it needs no lock and can run
+ * alongside the engine, or several at once.
+ */
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_GamePlay_generateSave(JNIEnv *env, jclass type, jlong handle, jstring backend, jstring jsParams)
+{
+	frontend *fe = (frontend *)(intptr_t)handle;
+	pthread_setspecific(envKey, env);
+	const char * backendChars = (*env)->GetStringUTFChars(env, backend, NULL);
+	const game * g = game_by_name(backendChars);
+	(*env)->ReleaseStringUTFChars(env, backend, backendChars);
+	if (!g) {
+		throwIllegalArgumentException(env, "Internal error identifying game");
+		return NULL;
+	}
+	const char * paramsChars = (*env)->GetStringUTFChars(env, jsParams, NULL);
+	const char * error = NULL;
+	game_params *params = oriented_params_from_str(g, paramsChars, &error);
+	(*env)->ReleaseStringUTFChars(env, jsParams, paramsChars);
+	if (!params) {
+		throwIllegalArgumentException(env, error);
+		return NULL;
+	}
+	/* No Java objects and no drawing, so the midend can't call back into Java */
+	frontend headless;
+	memset(&headless, 0, sizeof(frontend));
+	midend *me = midend_new(&headless, g, NULL, NULL);
+	midend_set_params(me, params);
+	g->free_params(params);
+	if (!new_game_unless_cancelled(fe ? fe : &headless, me)) {
+		midend_free(me);
+		throwCancellationException(env);
+		return NULL;
+	}
+	midend_serialise(me, android_serialise_write, &headless);
+	midend_free(me);
+	android_serialise_write(&headless, "", 1);
+	jstring ret = (*env)->NewStringUTF(env, headless.save_buf);
+	sfree(headless.save_buf);
+	return ret;
 }
 
 JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
@@ -800,31 +1299,21 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
 	JNIEnv *env;
 	if ((*jvm)->GetEnv(jvm, (void **)&env, JNI_VERSION_1_6)) return JNI_ERR;
 	pthread_key_create(&envKey, NULL);
+	pthread_key_create(&generatingKey, NULL);
 	pthread_setspecific(envKey, env);
 	cls = (*env)->FindClass(env, "name/boyle/chris/sgtpuzzles/GamePlay");
 	vcls = (*env)->FindClass(env, "name/boyle/chris/sgtpuzzles/GameView");
-	blitterAlloc   = (*env)->GetMethodID(env, vcls, "blitterAlloc", "(II)I");
-	blitterFree    = (*env)->GetMethodID(env, vcls, "blitterFree", "(I)V");
-	blitterLoad    = (*env)->GetMethodID(env, vcls, "blitterLoad", "(III)V");
-	blitterSave    = (*env)->GetMethodID(env, vcls, "blitterSave", "(III)V");
-	clipRect       = (*env)->GetMethodID(env, vcls, "clipRect", "(IIII)V");
 	dialogAddString = (*env)->GetMethodID(env, cls,  "dialogAddString", "(ILjava/lang/String;Ljava/lang/String;)V");
     dialogAddBoolean = (*env)->GetMethodID(env, cls,  "dialogAddBoolean", "(ILjava/lang/String;Z)V");
     dialogAddChoices = (*env)->GetMethodID(env, cls,  "dialogAddChoices", "(ILjava/lang/String;Ljava/lang/String;I)V");
 	dialogInit     = (*env)->GetMethodID(env, cls,  "dialogInit", "(ILjava/lang/String;)V");
 	dialogShow     = (*env)->GetMethodID(env, cls,  "dialogShow", "()V");
-	drawCircle     = (*env)->GetMethodID(env, vcls, "drawCircle", "(FFFFII)V");
-	drawLine       = (*env)->GetMethodID(env, vcls, "drawLine", "(FFFFFI)V");
-	drawPoly       = (*env)->GetMethodID(env, vcls,  "drawPoly", "(F[IIIII)V");
-	drawText       = (*env)->GetMethodID(env, vcls, "drawText", "(IIIIILjava/lang/String;)V");
-	fillRect       = (*env)->GetMethodID(env, vcls, "fillRect", "(IIIII)V");
+	flushDrawCommands = (*env)->GetMethodID(env, vcls, "flushDrawCommands", "(IIZ)Ljava/nio/ByteBuffer;");
 	getBackgroundColour = (*env)->GetMethodID(env, vcls, "getDefaultBackgroundColour", "()I");
-	postInvalidate = (*env)->GetMethodID(env, vcls, "postInvalidate", "()V");
 	requestTimer   = (*env)->GetMethodID(env, cls,  "requestTimer", "(Z)V");
-	serialiseWrite = (*env)->GetMethodID(env, cls,  "serialiseWrite", "([B)V");
 	setStatus      = (*env)->GetMethodID(env, cls,  "setStatus", "(Ljava/lang/String;)V");
-	unClip         = (*env)->GetMethodID(env, vcls, "unClip", "(II)V");
 	setKeys        = (*env)->GetMethodID(env, cls,  "setKeys","(Ljava/lang/String;)V");
+	inputStreamRead = (*env)->GetMethodID(env, (*env)->FindClass(env, "java/io/InputStream"), "read", "([BII)I");
 
 	return JNI_VERSION_1_6;
 }
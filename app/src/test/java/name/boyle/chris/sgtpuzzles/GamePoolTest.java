@@ -0,0 +1,68 @@
+package name.boyle.chris.sgtpuzzles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class GamePoolTest {
+
+	private static final String SAVE = "SAVEFILE:41:Simon Tatham's Portable Puzzle Collection\n"
+			+ "GAME    :4:Solo\nPARAMS  :5:3x3dd\nSEED    :15:123456789012345\nAUXINFO :4:a\\\tb\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GamePool newPool() {
+		return new GamePool(folder.getRoot(), Runnable::run);
+	}
+
+	private void writePoolFile(final String name, final String text) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), name))) {
+			out.write(text.getBytes("UTF-8"));
+		}
+	}
+
+	@Test
+	public void escapingSurvivesNewlinesTabsAndBackslashes() {
+		for (String s : new String[] { "", SAVE, "\\n", "\\\\\n\t", "ends with \\" }) {
+			final String escaped = GamePool.escape(s);
+			assertFalse("expected no newline in " + escaped, escaped.contains("\n"));
+			assertFalse("expected no tab in " + escaped, escaped.contains("\t"));
+			assertEquals(s, GamePool.unescape(escaped));
+		}
+	}
+
+	@Test
+	public void takesWholeSavesWithTheirSeedAndAuxInfo() throws IOException {
+		writePoolFile("gamePool2", "solo\t3x3dd\t" + GamePool.escape(SAVE) + "\t" + GamePool.escape(SAVE + "2") + "\n");
+		final GamePool pool = newPool();
+		assertEquals(SAVE, pool.take("solo", "3x3dd"));
+		assertNull(pool.take("solo", "3x3de"));
+		assertEquals(0.5f, pool.getHitRate(), 0.f);
+		// The take rewrote the file without the one taken
+		assertEquals(SAVE + "2", newPool().take("solo", "3x3dd"));
+	}
+
+	@Test
+	public void dropsGameIDsPooledByOlderVersions() throws IOException {
+		writePoolFile("gamePool", "solo\t3x3dd\t3x3dd:a2b3c\n");
+		assertNull(newPool().take("solo", "3x3dd"));
+		assertFalse(new File(folder.getRoot(), "gamePool").exists());
+	}
+
+	@Test
+	public void emptyPoolMisses() {
+		final GamePool pool = newPool();
+		assertNull(pool.take("net", "5x5"));
+		assertEquals(0, pool.getHits());
+		assertEquals(0.f, pool.getHitRate(), 0.f);
+	}
+}
@@ -0,0 +1,88 @@
+package name.boyle.chris.sgtpuzzles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MoveJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysOnlyWhatTheSaveLacks() throws IOException {
+		final File dir = folder.getRoot();
+		final MoveJournal journal = new MoveJournal(dir, "net", -1);
+		journal.append(MoveJournal.Type.RESIZE, 300, 300, 0);
+		journal.append(MoveJournal.Type.KEY, 1, 2, 'a');
+		final int saved = journal.rotate();
+		journal.append(MoveJournal.Type.KEY, 3, 4, 'd');
+		journal.append(MoveJournal.Type.SOLVE, 0, 0, 0);
+		journal.close();
+		// A kill part-way through writing a record
+		try (FileOutputStream out = new FileOutputStream(new File(dir, "net.journal." + (saved + 1)), true)) {
+			out.write(new byte[] { 0, 0, 0 });
+		}
+		final List<MoveJournal.Record> records = MoveJournal.read(dir, "net", saved);
+		assertEquals(3, records.size());
+		assertEquals(MoveJournal.Type.RESIZE, records.get(0).type);  // repeated at the start of each file
+		assertEquals(300, records.get(0).x);
+		assertEquals(MoveJournal.Type.KEY, records.get(1).type);
+		assertEquals(3, records.get(1).x);
+		assertEquals(4, records.get(1).y);
+		assertEquals('d', records.get(1).key);
+		assertEquals(MoveJournal.Type.SOLVE, records.get(2).type);
+		assertEquals(5, MoveJournal.read(dir, "net", -1).size());
+		MoveJournal.delete(dir, "net", saved + 1);
+		assertTrue(MoveJournal.read(dir, "net", -1).isEmpty());
+	}
+
+	@Test
+	public void repeatedResizesAreNotJournalled() {
+		final File dir = folder.getRoot();
+		final MoveJournal journal = new MoveJournal(dir, "net", -1);
+		journal.append(MoveJournal.Type.RESIZE, 300, 300, 0);
+		journal.append(MoveJournal.Type.RESIZE, 300, 300, 0);
+		journal.append(MoveJournal.Type.RESIZE, 200, 300, 0);
+		assertEquals(2, journal.size());
+		journal.close();
+		assertEquals(2, MoveJournal.read(dir, "net", -1).size());
+	}
+
+	@Test
+	public void rotateStartsANewFileAfterTheNewestOnDisk() {
+		final File dir = folder.getRoot();
+		final MoveJournal first = new MoveJournal(dir, "net", -1);
+		first.append(MoveJournal.Type.KEY, 0, 0, 'a');
+		assertEquals(0, first.rotate());
+		first.append(MoveJournal.Type.KEY, 0, 0, 'b');
+		assertEquals(1, first.size());
+		first.close();
+		// As after a kill: the next journal starts after the newest file left on disk
+		final MoveJournal second = new MoveJournal(dir, "net", 0);
+		assertEquals(2, second.rotate());
+		assertEquals(1, MoveJournal.read(dir, "net", 0).size());
+	}
+
+	@Test
+	public void backendsDoNotShareFiles() {
+		final File dir = folder.getRoot();
+		final MoveJournal net = new MoveJournal(dir, "net", -1);
+		final MoveJournal netslide = new MoveJournal(dir, "netslide", -1);
+		net.append(MoveJournal.Type.KEY, 0, 0, 'a');
+		netslide.append(MoveJournal.Type.KEY, 0, 0, 'b');
+		netslide.append(MoveJournal.Type.KEY, 0, 0, 'c');
+		net.close();
+		netslide.close();
+		assertEquals(1, MoveJournal.read(dir, "net", -1).size());
+		assertEquals(2, MoveJournal.read(dir, "netslide", -1).size());
+	}
+}
@@ -0,0 +1,102 @@
+package name.boyle.chris.sgtpuzzles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SaveFormatTest {
+
+	/** Shaped like a real save with a long undo chain: very repetitive. */
+	private static String save(final int moves) {
+		final StringBuilder sb = new StringBuilder("SAVEFILE:41:Simon Tatham's Portable Puzzle Collection\n"
+				+ "VERSION :1:1\nGAME    :3:Net\nPARAMS  :4:5x5w\nCPARAMS :4:5x5w\nDESC    :25:8a4c2e1b3d5a7c6e9b0d2a4c8\n");
+		sb.append("NSTATES :").append(Integer.toString(moves + 1).length()).append(':').append(moves + 1).append('\n');
+		for (int i = 0; i < moves; i++) sb.append("MOVE    :5:A").append(i % 5).append(',').append(i % 3).append('\n');
+		return sb.toString();
+	}
+
+	@Test
+	public void plainSavesAreUnchanged() throws IOException {
+		final String save = save(10);
+		final byte[] plain = SaveFormat.encode(save, false);
+		assertFalse(SaveFormat.isCompressed(plain));
+		assertArrayEquals(save.getBytes("UTF-8"), plain);
+		assertEquals(save, SaveFormat.decode(plain));
+	}
+
+	@Test
+	public void compressedSavesDecodeToTheSame() throws IOException {
+		final String save = save(500);
+		final byte[] compressed = SaveFormat.encode(save, true);
+		assertTrue(SaveFormat.isCompressed(compressed));
+		assertTrue("expected a long undo chain to compress several times over",
+				compressed.length * 4 < save.length());
+		assertEquals(save, SaveFormat.decode(compressed));
+	}
+
+	@Test
+	public void openReadsEitherKind() throws IOException {
+		final String save = save(500);
+		for (boolean compress : new boolean[] { false, true }) {
+			final InputStream in = SaveFormat.open(new ByteArrayInputStream(SaveFormat.encode(save, compress)));
+			assertEquals(save, new String(readAll(in), "UTF-8"));
+			assertEquals(save, SaveFormat.read(new ByteArrayInputStream(SaveFormat.encode(save, compress))));
+		}
+	}
+
+	@Test
+	public void tinyInputsAreNotMistakenForGzip() throws IOException {
+		assertFalse(SaveFormat.isCompressed(new byte[0]));
+		assertFalse(SaveFormat.isCompressed(new byte[] { 0x1f }));
+		assertEquals("", SaveFormat.decode(new byte[0]));
+	}
+
+	@Test
+	public void corruptGzipThrows() {
+		final byte[] compressed = Arrays.copyOf(new byte[] { 0x1f, (byte) 0x8b, 8, 0 }, 20);
+		try {
+			SaveFormat.decode(compressed);
+			fail("expected corrupt gzip to throw");
+		} catch (IOException expected) {
+			// good
+		}
+	}
+
+	@Test
+	public void expandingPastTheCapThrows() throws IOException {
+		final char[] big = new char[SaveFormat.MAX_EXPANDED_SIZE + 1];
+		Arrays.fill(big, 'a');
+		final byte[] bomb = SaveFormat.encode(new String(big), true);
+		assertTrue("expected it to compress to a small file", bomb.length < 100000);
+		try {
+			SaveFormat.decode(bomb);
+			fail("expected decode to refuse to expand past the cap");
+		} catch (IOException expected) {
+			// good
+		}
+		try {
+			readAll(SaveFormat.open(new ByteArrayInputStream(bomb)));
+			fail("expected open's stream to refuse to expand past the cap");
+		} catch (IOException expected) {
+			// good
+		}
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+}
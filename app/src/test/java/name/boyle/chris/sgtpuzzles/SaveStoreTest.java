@@ -0,0 +1,127 @@
+package name.boyle.chris.sgtpuzzles;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SaveStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+	/** Writes queued by the store, run when the test says. */
+	private final List<Runnable> queued = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		dir = new File(folder.getRoot(), "saves");
+	}
+
+	private SaveStore newStore() {
+		return new SaveStore(dir, queued::add);
+	}
+
+	private void runQueued() {
+		while (!queued.isEmpty()) queued.remove(0).run();
+	}
+
+	private String readFile(final String backend) throws IOException {
+		return SaveFormat.decode(Files.readAllBytes(new File(dir, backend).toPath()));
+	}
+
+	@Test
+	public void writesOneCompressedFilePerBackend() throws IOException {
+		final SaveStore store = newStore();
+		store.put("net", "net save", -1);
+		store.put("solo", "solo save", -1);
+		runQueued();
+		assertTrue(SaveFormat.isCompressed(Files.readAllBytes(new File(dir, "net").toPath())));
+		assertEquals("net save", readFile("net"));
+		assertEquals("solo save", readFile("solo"));
+	}
+
+	@Test
+	public void onlyTheLatestOfQuickPutsIsWritten() throws IOException {
+		final SaveStore store = newStore();
+		store.put("net", "first", -1);
+		store.put("net", "second", -1);
+		assertEquals("second", store.get("net"));
+		assertEquals("expected one write for both puts", 1, queued.size());
+		runQueued();
+		assertEquals("second", readFile("net"));
+	}
+
+	@Test
+	public void savesAreReadBackByANewInstance() {
+		final SaveStore store = newStore();
+		store.put("net", "SAVEFILE:41:Simon Tatham's Portable Puzzle Collection\n", -1);
+		runQueued();
+		assertEquals("SAVEFILE:41:Simon Tatham's Portable Puzzle Collection\n", newStore().get("net"));
+		assertNull(newStore().get("solo"));
+	}
+
+	@Test
+	public void removeDeletesTheFileAndJournal() {
+		final SaveStore store = newStore();
+		store.put("net", "save", -1);
+		runQueued();
+		final MoveJournal journal = store.openJournal("net");
+		journal.append(MoveJournal.Type.KEY, 0, 0, 'a');
+		journal.close();
+		store.remove("net");
+		assertNull(store.get("net"));
+		runQueued();
+		assertFalse(new File(dir, "net").exists());
+		assertTrue(newStore().readJournal("net").isEmpty());
+	}
+
+	@Test
+	public void journalIsReplayedFromWhereTheSaveLeftOff() {
+		final SaveStore store = newStore();
+		final MoveJournal journal = store.openJournal("net");
+		journal.append(MoveJournal.Type.KEY, 0, 0, 'a');
+		final int saved = journal.rotate();
+		journal.append(MoveJournal.Type.KEY, 0, 0, 'b');
+		journal.close();
+		store.put("net", "save including a", saved);
+		// Killed before the write: both files are still there, and the old save says nothing
+		assertEquals(2, newStore().readJournal("net").size());
+		runQueued();
+		// Written: the covered file is gone, and the save says to skip it anyway
+		final List<MoveJournal.Record> replay = newStore().readJournal("net");
+		assertEquals(1, replay.size());
+		assertEquals('b', replay.get(0).key);
+		assertEquals("save including a", newStore().get("net"));
+	}
+
+	@Test
+	public void putNowWritesBeforeReturning() throws IOException {
+		final SaveStore store = newStore();
+		assertTrue(store.putNow("net", "migrated"));
+		assertTrue(queued.isEmpty());
+		assertEquals("migrated", readFile("net"));
+	}
+
+	@Test
+	public void unreadableFileIsNoSave() throws IOException {
+		assertTrue(dir.mkdirs());
+		try (FileOutputStream out = new FileOutputStream(new File(dir, "net"))) {
+			out.write(new byte[] { 0x1f, (byte) 0x8b, 1, 2, 3 });
+		}
+		assertNull(newStore().get("net"));
+	}
+}
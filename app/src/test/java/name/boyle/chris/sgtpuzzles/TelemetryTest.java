@@ -0,0 +1,46 @@
+package name.boyle.chris.sgtpuzzles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryTest {
+
+	@Test
+	public void percentilesAreWithinABucket() {
+		final Telemetry.Histogram h = new Telemetry.Histogram();
+		for (int ms = 1; ms <= 100; ms++) h.add(ms);
+		assertEquals(100, h.total);
+		// Buckets are root 2 wide, so the estimate is at most that much over
+		assertTrue("p50 was " + h.percentile(50), h.percentile(50) >= 50 && h.percentile(50) <= 71);
+		assertTrue("p90 was " + h.percentile(90), h.percentile(90) >= 90 && h.percentile(90) <= 128);
+		assertTrue("p99 was " + h.percentile(99), h.percentile(99) >= 99 && h.percentile(99) <= 141);
+	}
+
+	@Test
+	public void percentilesDoNotDecrease() {
+		final Telemetry.Histogram h = new Telemetry.Histogram();
+		for (int i = 0; i < 1000; i++) h.add((i * 7919L) % 5000);
+		long last = 0;
+		for (int p = 1; p <= 100; p++) {
+			assertTrue("p" + p + " below p" + (p - 1), h.percentile(p) >= last);
+			last = h.percentile(p);
+		}
+	}
+
+	@Test
+	public void emptyHistogramHasNoPercentiles() {
+		assertEquals(0, new Telemetry.Histogram().percentile(50));
+	}
+
+	@Test
+	public void outliersLandInTheEndBuckets() {
+		final Telemetry.Histogram h = new Telemetry.Histogram();
+		h.add(0);
+		h.add(Long.MAX_VALUE / 1000000);
+		assertEquals(1, h.counts[0]);
+		assertEquals(1, h.counts[Telemetry.Histogram.BUCKETS - 1]);
+		assertEquals(Math.round(Math.pow(2, 0.5)), h.percentile(50));
+	}
+}
@@ -0,0 +1,84 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to generate a game, for every preset of every backend. Seeds come from a fixed cycle,
+ * so two runs (say on different submodule revisions, or with different -PpuzzlesCFlags)
+ * generate the same games, as long as the C code consumes random numbers the same way.
+ *
+ * Run with ./gradlew :host:jmh; SampleTime mode gives the percentiles.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenerationBenchmark {
+
+	/** Seeds to cycle through: enough that one unlucky seed doesn't dominate. */
+	private static final int SEEDS = 64;
+
+	/** "backend:params"; {@link #main} sets this to every preset there is. */
+	@Param("net:5x5")
+	public String preset;
+
+	private String backend, params;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		final int colon = preset.indexOf(':');
+		backend = preset.substring(0, colon);
+		params = preset.substring(colon + 1);
+		next = 0;
+	}
+
+	@Benchmark
+	public String generate() {
+		final String seed = "bench" + next;
+		next = (next + 1) % SEEDS;
+		return HostEngine.generateGameID(backend, params, seed);
+	}
+
+	/** Lists the presets (all, or of the backends in the comma-separated system property
+	 *  "backends"), then runs JMH on them, writing JSON to the system property "results". */
+	public static void main(final String[] args) throws RunnerException {
+		final String only = System.getProperty("backends");
+		final List<String> wanted = (only == null) ? null : Arrays.asList(only.split(","));
+		final List<String> presets = new ArrayList<>();
+		for (String backend : HostEngine.getBackends()) {
+			if (wanted != null && !wanted.contains(backend)) continue;
+			for (String params : HostEngine.getPresets(backend)) presets.add(backend + ":" + params);
+		}
+		final Options options = new OptionsBuilder()
+				.include(GenerationBenchmark.class.getName())
+				.param("preset", presets.toArray(new String[0]))
+				.jvmArgsAppend("-Djava.library.path=" + System.getProperty("java.library.path"))
+				.resultFormat(ResultFormatType.JSON)
+				.result(System.getProperty("results", "generation.json"))
+				.build();
+		new Runner(options).run();
+	}
+}
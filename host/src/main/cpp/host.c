@@ -0,0 +1,400 @@
+/*
+ * host.c: a headless frontend for running the puzzles in a plain JVM (see HostEngine), for
+ * benchmarks and regression tests off-device. Drawing goes nowhere except into per-primitive
+ * counters, so what's measured is the midend and the backend, not a renderer.
+ */
+
+#include <jni.h>
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <stdarg.h>
+#include <string.h>
+#include <sys/time.h>
+
+#include "puzzles.h"
+
+/* Keep in step with DrawCounts */
+enum {
+	COUNT_TEXT,
+	COUNT_RECT,
+	COUNT_LINE,
+	COUNT_POLYGON,
+	COUNT_CIRCLE,
+	COUNT_THICK_LINE,
+	COUNT_CLIP,
+	COUNT_BLIT,
+	COUNT_FRAME,
+	NCOUNTS
+};
+
+struct frontend {
+	midend *me;
+	const game *thegame;
+	jlong counts[NCOUNTS];
+};
+
+struct blitter {
+	int w, h;
+};
+
+void fatal(const char *fmt, ...)
+{
+	va_list ap;
+	fprintf(stderr, "fatal error: ");
+	va_start(ap, fmt);
+	vfprintf(stderr, fmt, ap);
+	va_end(ap);
+	fprintf(stderr, "\n");
+	exit(1);
+}
+
+/* As in android.c: the time alone isn't enough when several threads generate at once. */
+struct random_seed {
+	struct timeval tv;
+	unsigned long serial;
+};
+
+void get_random_seed(void **randseed, int *randseedsize)
+{
+	static unsigned long serial = 0;
+	struct random_seed *seed = snew(struct random_seed);
+	memset(seed, 0, sizeof(struct random_seed));
+	gettimeofday(&seed->tv, NULL);
+	seed->serial = __sync_fetch_and_add(&serial, 1);
+	*randseed = (void *)seed;
+	*randseedsize = sizeof(struct random_seed);
+}
+
+void frontend_default_colour(frontend *fe, float *output)
+{
+	output[0] = output[1] = output[2] = 0.9f;
+}
+
+/* Nothing here runs in real time: timers are only driven by whoever calls midend_timer. */
+void activate_timer(frontend *fe) {}
+void deactivate_timer(frontend *fe) {}
+
+static void count(void *handle, int what)
+{
+	((frontend *)handle)->counts[what]++;
+}
+
+static void host_draw_text(void *handle, int x, int y, int fonttype, int fontsize, int align, int colour, const char *text) { count(handle, COUNT_TEXT); }
+static void host_draw_rect(void *handle, int x, int y, int w, int h, int colour) { count(handle, COUNT_RECT); }
+static void host_draw_line(void *handle, int x1, int y1, int x2, int y2, int colour) { count(handle, COUNT_LINE); }
+static void host_draw_poly(void *handle, int *coords, int npoints, int fillcolour, int outlinecolour) { count(handle, COUNT_POLYGON); }
+static void host_draw_circle(void *handle, int cx, int cy, int radius, int fillcolour, int outlinecolour) { count(handle, COUNT_CIRCLE); }
+static void host_draw_thick_line(void *handle, float thickness, float x1, float y1, float x2, float y2, int colour) { count(handle, COUNT_THICK_LINE); }
+static void host_clip(void *handle, int x, int y, int w, int h) { count(handle, COUNT_CLIP); }
+static void host_unclip(void *handle) {}
+static void host_start_draw(void *handle) {}
+static void host_end_draw(void *handle) { count(handle, COUNT_FRAME); }
+static void host_status_bar(void *handle, const char *text) {}
+
+static blitter *host_blitter_new(void *handle, int w, int h)
+{
+	blitter *bl = snew(blitter);
+	bl->w = w;
+	bl->h = h;
+	return bl;
+}
+
+static void host_blitter_free(void *handle, blitter *bl) { sfree(bl); }
+static void host_blitter_save(void *handle, blitter *bl, int x, int y) { count(handle, COUNT_BLIT); }
+static void host_blitter_load(void *handle, blitter *bl, int x, int y) { count(handle, COUNT_BLIT); }
+
+static char *host_text_fallback(void *handle, const char *const *strings, int nstrings)
+{
+	return dupstr(strings[0]);  // nothing is actually rendered, so anything goes
+}
+
+static const struct drawing_api host_drawing = {
+	host_draw_text,
+	host_draw_rect,
+	host_draw_line,
+	host_draw_poly,
+	host_draw_circle,
+	NULL, // draw_update,
+	host_clip,
+	host_unclip,
+	host_start_draw,
+	host_end_draw,
+	host_status_bar,
+	host_blitter_new,
+	host_blitter_free,
+	host_blitter_save,
+	host_blitter_load,
+	NULL, NULL, NULL, NULL, NULL, NULL, /* {begin,end}_{doc,page,puzzle} */
+	NULL, NULL,				   /* line_width, line_dotted */
+	host_text_fallback,
+	host_draw_thick_line,
+};
+
+static void throwIllegalArgumentException(JNIEnv *env, const char *reason)
+{
+	jclass exCls = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+	(*env)->ThrowNew(env, exCls, reason);
+	(*env)->DeleteLocalRef(env, exCls);
+}
+
+static const game *game_by_name(JNIEnv *env, jstring backend)
+{
+	const char *name = (*env)->GetStringUTFChars(env, backend, NULL);
+	const game *g = NULL;
+	int i;
+	for (i = 0; i < gamecount; i++) {
+		if (!strcmp(gamelist[i]->htmlhelp_topic, name)) g = gamelist[i];
+	}
+	(*env)->ReleaseStringUTFChars(env, backend, name);
+	if (!g) throwIllegalArgumentException(env, "No such backend");
+	return g;
+}
+
+static frontend *new_frontend(const game *g)
+{
+	frontend *fe = snew(frontend);
+	memset(fe, 0, sizeof(frontend));
+	fe->thegame = g;
+	fe->me = midend_new(fe, g, &host_drawing, fe);
+	return fe;
+}
+
+static void free_frontend(frontend *fe)
+{
+	midend_free(fe->me);
+	sfree(fe);
+}
+
+jobjectArray JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_backends(JNIEnv *env, jclass type)
+{
+	jobjectArray ret = (*env)->NewObjectArray(env, gamecount, (*env)->FindClass(env, "java/lang/String"), NULL);
+	int i;
+	for (i = 0; i < gamecount; i++) {
+		(*env)->SetObjectArrayElement(env, ret, i, (*env)->NewStringUTF(env, gamelist[i]->htmlhelp_topic));
+	}
+	return ret;
+}
+
+static int count_presets(struct preset_menu *menu)
+{
+	int i, n = 0;
+	for (i = 0; i < menu->n_entries; i++) {
+		n += menu->entries[i].submenu ? count_presets(menu->entries[i].submenu) : 1;
+	}
+	return n;
+}
+
+static int add_presets(JNIEnv *env, const game *g, struct preset_menu *menu, jobjectArray out, int n)
+{
+	int i;
+	for (i = 0; i < menu->n_entries; i++) {
+		if (menu->entries[i].submenu) {
+			n = add_presets(env, g, menu->entries[i].submenu, out, n);
+		} else {
+			char *encoded = g->encode_params(menu->entries[i].params, true);
+			jstring s = (*env)->NewStringUTF(env, encoded);
+			(*env)->SetObjectArrayElement(env, out, n++, s);
+			(*env)->DeleteLocalRef(env, s);
+			sfree(encoded);
+		}
+	}
+	return n;
+}
+
+jobjectArray JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_presets(JNIEnv *env, jclass type, jstring backend)
+{
+	const game *g = game_by_name(env, backend);
+	if (!g) return NULL;
+	frontend *fe = new_frontend(g);
+	int id_limit;
+	struct preset_menu *menu = midend_get_presets(fe->me, &id_limit);
+	jobjectArray ret = (*env)->NewObjectArray(env, count_presets(menu), (*env)->FindClass(env, "java/lang/String"), NULL);
+	add_presets(env, g, menu, ret, 0);
+	free_frontend(fe);
+	return ret;
+}
+
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_generate(JNIEnv *env, jclass type, jstring backend, jstring jsParams, jstring jsSeed)
+{
+	const game *g = game_by_name(env, backend);
+	if (!g) return NULL;
+	const char *paramsChars = (*env)->GetStringUTFChars(env, jsParams, NULL);
+	game_params *params = g->default_params();
+	g->decode_params(params, paramsChars);
+	(*env)->ReleaseStringUTFChars(env, jsParams, paramsChars);
+	const char *error = g->validate_params(params, true);
+	if (error) {
+		g->free_params(params);
+		throwIllegalArgumentException(env, error);
+		return NULL;
+	}
+	random_state *rs;
+	if (jsSeed) {  // reproducible, like the "params#seed" form of a game ID
+		const char *seed = (*env)->GetStringUTFChars(env, jsSeed, NULL);
+		rs = random_new(seed, (int)strlen(seed));
+		(*env)->ReleaseStringUTFChars(env, jsSeed, seed);
+	} else {
+		void *seed;
+		int seedsize;
+		get_random_seed(&seed, &seedsize);
+		rs = random_new(seed, seedsize);
+		sfree(seed);
+	}
+	char *aux = NULL;
+	char *desc = g->new_desc(params, rs, &aux, true);  // interactive, as the midend would be
+	random_free(rs);
+	sfree(aux);
+	char *encoded = g->encode_params(params, false);
+	g->free_params(params);
+	char *gameID = snewn(strlen(encoded) + strlen(desc) + 2, char);
+	sprintf(gameID, "%s:%s", encoded, desc);
+	sfree(encoded);
+	sfree(desc);
+	jstring ret = (*env)->NewStringUTF(env, gameID);
+	sfree(gameID);
+	return ret;
+}
+
+jlong JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_loadGameID(JNIEnv *env, jclass type, jstring backend, jstring jsGameID)
+{
+	const game *g = game_by_name(env, backend);
+	if (!g) return 0;
+	frontend *fe = new_frontend(g);
+	const char *gameID = (*env)->GetStringUTFChars(env, jsGameID, NULL);
+	const char *error = midend_game_id(fe->me, gameID);
+	(*env)->ReleaseStringUTFChars(env, jsGameID, gameID);
+	if (error) {
+		free_frontend(fe);
+		throwIllegalArgumentException(env, error);
+		return 0;
+	}
+	midend_new_game(fe->me);
+	return (jlong)(intptr_t)fe;
+}
+
+struct read_ctx {
+	const char *ptr;
+	size_t len;
+};
+
+static bool host_read(void *ctx, void *buf, int len)
+{
+	struct read_ctx *r = (struct read_ctx *)ctx;
+	if (len < 0 || (size_t)len > r->len) return false;
+	memcpy(buf, r->ptr, len);
+	r->ptr += len;
+	r->len -= len;
+	return true;
+}
+
+jlong JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_loadSave(JNIEnv *env, jclass type, jstring jsSave)
+{
+	const char *save = (*env)->GetStringUTFChars(env, jsSave, NULL);
+	struct read_ctx r = { save, strlen(save) };
+	char *name = NULL;
+	const char *error = identify_game(&name, host_read, &r);
+	const game *g = NULL;
+	int i;
+	if (!error) {
+		for (i = 0; i < gamecount; i++) {
+			if (!strcmp(gamelist[i]->name, name)) g = gamelist[i];
+		}
+		if (!g) error = "No such backend";
+	}
+	sfree(name);
+	frontend *fe = NULL;
+	if (!error) {
+		fe = new_frontend(g);
+		r.ptr = save;
+		r.len = strlen(save);
+		error = midend_deserialise(fe->me, host_read, &r);
+	}
+	(*env)->ReleaseStringUTFChars(env, jsSave, save);
+	if (error) {
+		if (fe) free_frontend(fe);
+		throwIllegalArgumentException(env, error);
+		return 0;
+	}
+	return (jlong)(intptr_t)fe;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_free(JNIEnv *env, jclass type, jlong handle)
+{
+	free_frontend((frontend *)(intptr_t)handle);
+}
+
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_backend(JNIEnv *env, jclass type, jlong handle)
+{
+	return (*env)->NewStringUTF(env, ((frontend *)(intptr_t)handle)->thegame->htmlhelp_topic);
+}
+
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_gameID(JNIEnv *env, jclass type, jlong handle)
+{
+	char *id = midend_get_game_id(((frontend *)(intptr_t)handle)->me);
+	jstring ret = (*env)->NewStringUTF(env, id);
+	sfree(id);
+	return ret;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_resize(JNIEnv *env, jclass type, jlong handle, jint w, jint h)
+{
+	frontend *fe = (frontend *)(intptr_t)handle;
+	int x = w, y = h;
+	midend_size(fe->me, &x, &y, false);
+	midend_force_redraw(fe->me);
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_redraw(JNIEnv *env, jclass type, jlong handle)
+{
+	midend_force_redraw(((frontend *)(intptr_t)handle)->me);
+}
+
+jboolean JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_keyEvent(JNIEnv *env, jclass type, jlong handle, jint x, jint y, jint button)
+{
+	return midend_process_key(((frontend *)(intptr_t)handle)->me, x, y, button);
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_solve(JNIEnv *env, jclass type, jlong handle)
+{
+	const char *error = midend_solve(((frontend *)(intptr_t)handle)->me);
+	if (error) throwIllegalArgumentException(env, error);
+}
+
+jint JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_status(JNIEnv *env, jclass type, jlong handle)
+{
+	return midend_status(((frontend *)(intptr_t)handle)->me);
+}
+
+struct write_ctx {
+	char *buf;
+	size_t len, size;
+};
+
+static void host_write(void *ctx, const void *buf, int len)
+{
+	struct write_ctx *w = (struct write_ctx *)ctx;
+	if (w->len + len + 1 > w->size) {
+		w->size = (w->len + len + 1) * 2;
+		w->buf = sresize(w->buf, w->size, char);
+	}
+	memcpy(w->buf + w->len, buf, len);
+	w->len += len;
+	w->buf[w->len] = '\0';
+}
+
+jstring JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_serialise(JNIEnv *env, jclass type, jlong handle)
+{
+	struct write_ctx w = { NULL, 0, 0 };
+	midend_serialise(((frontend *)(intptr_t)handle)->me, host_write, &w);
+	jstring ret = (*env)->NewStringUTF(env, w.buf ? w.buf : "");
+	sfree(w.buf);
+	return ret;
+}
+
+void JNICALL Java_name_boyle_chris_sgtpuzzles_host_HostEngine_drawCounts(JNIEnv *env, jclass type, jlong handle, jlongArray out)
+{
+	frontend *fe = (frontend *)(intptr_t)handle;
+	(*env)->SetLongArrayRegion(env, out, 0, NCOUNTS, fe->counts);
+}
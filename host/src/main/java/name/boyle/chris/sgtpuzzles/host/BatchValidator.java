@@ -0,0 +1,177 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads game IDs in bulk and runs each backend's solver on them: to check that an imported
+ * collection is all valid and solvable, and to measure how fast the solvers are. Games are
+ * spread over threads, each with its own {@link HostEngine}.
+ *
+ * A corpus is a text file of game IDs, one per line, each as "backend:params:desc" (an
+ * "sgtpuzzles:" prefix is allowed, as in the app's links); blank lines and lines starting
+ * with # are skipped. Usage:
+ *
+ *     BatchValidator [--threads N] corpus...
+ *     BatchValidator --generate backend params count   (prints a corpus, from fixed seeds)
+ *
+ * Exits with status 1 if anything failed to load or solve.
+ */
+public class BatchValidator {
+
+	private static final String LINK_PREFIX = "sgtpuzzles:";
+
+	/** The outcome of one game ID. */
+	static class Result {
+		final String backend, gameID, error;
+		final long nanos;
+
+		Result(final String backend, final String gameID, final String error, final long nanos) {
+			this.backend = backend;
+			this.gameID = gameID;
+			this.error = error;
+			this.nanos = nanos;
+		}
+	}
+
+	/** Results for one backend. */
+	static class Stats {
+		final List<Result> failures = new ArrayList<>();
+		private long[] nanos = new long[16];
+		int solved;
+
+		void add(final Result r) {
+			if (r.error != null) {
+				failures.add(r);
+				return;
+			}
+			if (solved == nanos.length) nanos = Arrays.copyOf(nanos, solved * 2);
+			nanos[solved++] = r.nanos;
+		}
+
+		/** @return the p-th percentile solve time, in ns */
+		long percentile(final int p) {
+			if (solved == 0) return 0;
+			final long[] sorted = Arrays.copyOf(nanos, solved);
+			Arrays.sort(sorted);
+			return sorted[Math.min(solved - 1, solved * p / 100)];
+		}
+
+		/** Solves per second on one thread. */
+		double throughput() {
+			long total = 0;
+			for (int i = 0; i < solved; i++) total += nanos[i];
+			return (total == 0) ? 0 : solved * 1e9 / total;
+		}
+	}
+
+	static Result validate(final String line) {
+		final String id = line.startsWith(LINK_PREFIX) ? line.substring(LINK_PREFIX.length()) : line;
+		final int colon = id.indexOf(':');
+		if (colon < 0) return new Result("?", line, "no backend", 0);
+		final String backend = id.substring(0, colon), gameID = id.substring(colon + 1);
+		final long start = System.nanoTime();
+		try (HostEngine engine = HostEngine.fromGameID(backend, gameID)) {
+			engine.solve();
+		} catch (IllegalArgumentException e) {
+			return new Result(backend, gameID, e.getMessage(), System.nanoTime() - start);
+		}
+		return new Result(backend, gameID, null, System.nanoTime() - start);
+	}
+
+	/** Validates every game ID across the given number of threads.
+	 *  @return stats by backend, in name order */
+	static Map<String, Stats> validate(final List<String> corpus, final int threads)
+			throws InterruptedException, ExecutionException {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Result>> futures = new ArrayList<>();
+			for (String line : corpus) futures.add(executor.submit(() -> validate(line)));
+			final Map<String, Stats> stats = new TreeMap<>();
+			for (Future<Result> f : futures) {
+				final Result r = f.get();
+				Stats s = stats.get(r.backend);
+				if (s == null) {
+					s = new Stats();
+					stats.put(r.backend, s);
+				}
+				s.add(r);
+			}
+			return stats;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static List<String> read(final String fileName) throws IOException {
+		final List<String> lines = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	static void report(final Map<String, Stats> stats, final long wallNanos, final int threads, final PrintStream out) {
+		int solved = 0, failed = 0;
+		for (Map.Entry<String, Stats> e : stats.entrySet()) {
+			final Stats s = e.getValue();
+			out.println(String.format(Locale.ROOT,
+					"%-10s %7d solved %5d failed %9.1f/s/thread  p50 %8.2fms  p90 %8.2fms  p99 %8.2fms  max %8.2fms",
+					e.getKey(), s.solved, s.failures.size(), s.throughput(), s.percentile(50) / 1e6,
+					s.percentile(90) / 1e6, s.percentile(99) / 1e6, s.percentile(100) / 1e6));
+			for (Result r : s.failures) out.println("    " + r.backend + ":" + r.gameID + ": " + r.error);
+			solved += s.solved;
+			failed += s.failures.size();
+		}
+		out.println(String.format(Locale.ROOT, "%d solved, %d failed in %.1fs on %d threads: %.1f solves/s",
+				solved, failed, wallNanos / 1e9, threads, (solved + failed) * 1e9 / Math.max(1, wallNanos)));
+	}
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length == 4 && args[0].equals("--generate")) {
+			final int count = Integer.parseInt(args[3]);
+			for (int i = 0; i < count; i++) {
+				System.out.println(args[1] + ":" + HostEngine.generateGameID(args[1], args[2], "corpus" + i));
+			}
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		final List<String> corpus = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				corpus.addAll(read(args[i]));
+			}
+		}
+		if (corpus.isEmpty()) {
+			System.err.println("Usage: BatchValidator [--threads N] corpus...\n"
+					+ "       BatchValidator --generate backend params count");
+			System.exit(2);
+		}
+		final long start = System.nanoTime();
+		final Map<String, Stats> stats = validate(corpus, threads);
+		report(stats, System.nanoTime() - start, threads, System.out);
+		for (Stats s : stats.values()) {
+			if (!s.failures.isEmpty()) System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+/** How many of each drawing primitive a {@link HostEngine} has been asked for. */
+public class DrawCounts {
+
+	// Keep in step with the COUNT_ enum in host.c
+	static final int TEXT = 0, RECT = 1, LINE = 2, POLYGON = 3, CIRCLE = 4, THICK_LINE = 5,
+			CLIP = 6, BLIT = 7, FRAME = 8, SIZE = 9;
+	private static final String[] NAMES = {"text", "rect", "line", "polygon", "circle",
+			"thickLine", "clip", "blit", "frame"};
+
+	private final long[] counts;
+
+	DrawCounts(final long[] counts) {
+		this.counts = counts;
+	}
+
+	public long getTexts() { return counts[TEXT]; }
+	public long getRects() { return counts[RECT]; }
+	public long getLines() { return counts[LINE] + counts[THICK_LINE]; }
+	public long getPolygons() { return counts[POLYGON]; }
+	public long getCircles() { return counts[CIRCLE]; }
+	public long getClips() { return counts[CLIP]; }
+	public long getBlits() { return counts[BLIT]; }
+	public long getFrames() { return counts[FRAME]; }
+
+	/** Every primitive except clips and frame boundaries. */
+	public long getPrimitives() {
+		return counts[TEXT] + counts[RECT] + counts[LINE] + counts[POLYGON] + counts[CIRCLE]
+				+ counts[THICK_LINE] + counts[BLIT];
+	}
+
+	/** @return what's been drawn between before and this */
+	public DrawCounts minus(final DrawCounts before) {
+		final long[] diff = new long[SIZE];
+		for (int i = 0; i < SIZE; i++) diff[i] = counts[i] - before.counts[i];
+		return new DrawCounts(diff);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < SIZE; i++) {
+			if (counts[i] == 0) continue;
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(counts[i]).append(' ').append(NAMES[i]);
+		}
+		return sb.length() == 0 ? "nothing" : sb.toString();
+	}
+}
@@ -0,0 +1,123 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+/**
+ * One puzzle's midend, running in a plain JVM through host.c, with no Android anywhere:
+ * for benchmarking and regression-testing the engine off-device. Drawing is only counted
+ * (see {@link DrawCounts}), so timings are of the midend and the backend alone.
+ *
+ * Each instance has its own native frontend, so different instances can be used from
+ * different threads at once, but any one instance from only one thread at a time. Close it
+ * to free the midend.
+ */
+public class HostEngine implements AutoCloseable {
+
+	static {
+		System.loadLibrary("puzzleshost");
+	}
+
+	private long handle;
+
+	private HostEngine(final long handle) {
+		this.handle = handle;
+	}
+
+	/** Starts playing a game ID (or "params#seed", which generates). */
+	public static HostEngine fromGameID(final String backend, final String gameID) {
+		return new HostEngine(loadGameID(backend, gameID));
+	}
+
+	/** Starts playing a saved game, as written by {@link #serialise} or the app. */
+	public static HostEngine fromSave(final String save) {
+		return new HostEngine(loadSave(save));
+	}
+
+	/** Generates a game without starting it.
+	 *  @param seed makes the game reproducible; null for a random one
+	 *  @return a game ID for {@link #fromGameID}
+	 *  @throws IllegalArgumentException if the params are no good */
+	public static String generateGameID(final String backend, final String params, final String seed) {
+		return generate(backend, params, seed);
+	}
+
+	/** @return the backends in list.c's GAMELIST, in order, by the lowercase names the app uses ("net") */
+	public static String[] getBackends() {
+		return backends();
+	}
+
+	/** @return encoded params of every preset of a backend, flattening submenus */
+	public static String[] getPresets(final String backend) {
+		return presets(backend);
+	}
+
+	private long live() {
+		if (handle == 0) throw new IllegalStateException("closed");
+		return handle;
+	}
+
+	public String getBackend() {
+		return backend(live());
+	}
+
+	public String getGameID() {
+		return gameID(live());
+	}
+
+	/** Lays the game out in a w x h area, and draws all of it. */
+	public void resize(final int w, final int h) {
+		resize(live(), w, h);
+	}
+
+	/** Draws all of it again at the current size. */
+	public void redraw() {
+		redraw(live());
+	}
+
+	/** @return false if the key asked to quit */
+	public boolean keyEvent(final int x, final int y, final int button) {
+		return keyEvent(live(), x, y, button);
+	}
+
+	/** @throws IllegalArgumentException if the backend's solver fails */
+	public void solve() {
+		solve(live());
+	}
+
+	/** @return as midend_status: 0 in progress, 1 won, -1 lost */
+	public int getStatus() {
+		return status(live());
+	}
+
+	public String serialise() {
+		return serialise(live());
+	}
+
+	/** @return how much has been drawn since this was created */
+	public DrawCounts getDrawCounts() {
+		final long[] counts = new long[DrawCounts.SIZE];
+		drawCounts(live(), counts);
+		return new DrawCounts(counts);
+	}
+
+	@Override
+	public void close() {
+		if (handle == 0) return;
+		free(handle);
+		handle = 0;
+	}
+
+	private static native String[] backends();
+	private static native String[] presets(String backend);
+	private static native String generate(String backend, String params, String seed);
+	private static native long loadGameID(String backend, String gameID);
+	private static native long loadSave(String save);
+	private static native void free(long handle);
+	private static native String backend(long handle);
+	private static native String gameID(long handle);
+	private static native void resize(long handle, int w, int h);
+	private static native void redraw(long handle);
+	private static native boolean keyEvent(long handle, int x, int y, int button);
+	private static native void solve(long handle);
+	private static native int status(long handle);
+	private static native String serialise(long handle);
+	private static native void drawCounts(long handle, long[] out);
+}
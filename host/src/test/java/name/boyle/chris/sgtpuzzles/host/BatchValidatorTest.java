@@ -0,0 +1,31 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchValidatorTest {
+
+	@Test
+	public void testValidatesAcrossThreads() throws Exception {
+		final List<String> corpus = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			corpus.add("solo:" + HostEngine.generateGameID("solo", "3x3de", "v" + i));
+			corpus.add("sgtpuzzles:net:" + HostEngine.generateGameID("net", "5x5", "v" + i));
+		}
+		corpus.add("solo:3x3:not a grid");
+		corpus.add("nonsense");
+		final Map<String, BatchValidator.Stats> stats = BatchValidator.validate(corpus, 4);
+		assertEquals(8, stats.get("solo").solved);
+		assertEquals(1, stats.get("solo").failures.size());
+		assertEquals(8, stats.get("net").solved);
+		assertTrue(stats.get("net").failures.isEmpty());
+		assertEquals(1, stats.get("?").failures.size());
+		assertTrue(stats.get("solo").percentile(50) <= stats.get("solo").percentile(100));
+	}
+}
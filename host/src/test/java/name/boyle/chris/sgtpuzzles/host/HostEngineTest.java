@@ -0,0 +1,52 @@
+package name.boyle.chris.sgtpuzzles.host;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HostEngineTest {
+
+	@Test
+	public void testBackendsAndPresets() {
+		final String[] backends = HostEngine.getBackends();
+		assertTrue("expected Solo among " + Arrays.toString(backends), Arrays.asList(backends).contains("solo"));
+		for (String backend : backends) {
+			assertTrue("expected presets for " + backend, HostEngine.getPresets(backend).length > 0);
+		}
+	}
+
+	@Test
+	public void testFixedSeedIsReproducible() {
+		final String a = HostEngine.generateGameID("net", "5x5", "12345");
+		assertEquals(a, HostEngine.generateGameID("net", "5x5", "12345"));
+		assertNotEquals(a, HostEngine.generateGameID("net", "5x5", "54321"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadParamsThrow() {
+		HostEngine.generateGameID("net", "0x0", null);
+	}
+
+	@Test
+	public void testPlaySaveAndSolve() {
+		final String gameID = HostEngine.generateGameID("solo", "3x3de", "1");
+		try (HostEngine engine = HostEngine.fromGameID("solo", gameID)) {
+			engine.resize(800, 800);
+			final DrawCounts drawn = engine.getDrawCounts();
+			assertEquals(1, drawn.getFrames());
+			assertTrue("expected a full redraw to draw something", drawn.getPrimitives() > 0);
+			engine.keyEvent(0, 0, ' ');
+			final String save = engine.serialise();
+			try (HostEngine loaded = HostEngine.fromSave(save)) {
+				assertEquals("solo", loaded.getBackend());
+				assertEquals(engine.getGameID(), loaded.getGameID());
+			}
+			engine.solve();
+			assertEquals(1, engine.getStatus());
+		}
+	}
+}